@@ -0,0 +1,87 @@
+package com.ensitech.exchangerateproxy.benchmark;
+
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import com.ensitech.exchangerateproxy.model.ExternalApiResponse;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Jeux de données réalistes pour les benchmarks : les devises renvoyées par l'API externe
+ * (liste figée, indépendante de la JVM), avec des ordres de grandeur et des échelles proches des siens.
+ */
+public final class BenchmarkPayloads {
+
+    // Devises de GET /v4/latest/USD sur exchangerate-api.com, hors USD
+    private static final List<String> CODES = List.of(
+            "AED", "AFN", "ALL", "AMD", "ANG", "AOA", "ARS", "AUD", "AWG", "AZN",
+            "BAM", "BBD", "BDT", "BGN", "BHD", "BIF", "BMD", "BND", "BOB", "BRL",
+            "BSD", "BTN", "BWP", "BYN", "BZD", "CAD", "CDF", "CHF", "CLP", "CNY",
+            "COP", "CRC", "CUP", "CVE", "CZK", "DJF", "DKK", "DOP", "DZD", "EGP",
+            "ERN", "ETB", "EUR", "FJD", "FKP", "FOK", "GBP", "GEL", "GGP", "GHS",
+            "GIP", "GMD", "GNF", "GTQ", "GYD", "HKD", "HNL", "HRK", "HTG", "HUF",
+            "IDR", "ILS", "IMP", "INR", "IQD", "IRR", "ISK", "JEP", "JMD", "JOD",
+            "JPY", "KES", "KGS", "KHR", "KID", "KMF", "KRW", "KWD", "KYD", "KZT",
+            "LAK", "LBP", "LKR", "LRD", "LSL", "LYD", "MAD", "MDL", "MGA", "MKD",
+            "MMK", "MNT", "MOP", "MRU", "MUR", "MVR", "MWK", "MXN", "MYR", "MZN",
+            "NAD", "NGN", "NIO", "NOK", "NPR", "NZD", "OMR", "PAB", "PEN", "PGK",
+            "PHP", "PKR", "PLN", "PYG", "QAR", "RON", "RSD", "RUB", "RWF", "SAR",
+            "SBD", "SCR", "SDG", "SEK", "SGD", "SHP", "SLE", "SLL", "SOS", "SRD",
+            "SSP", "STN", "SYP", "SZL", "THB", "TJS", "TMT", "TND", "TOP", "TRY",
+            "TTD", "TVD", "TWD", "TZS", "UAH", "UGX", "UYU", "UZS", "VES", "VND",
+            "VUV", "WST", "XAF", "XCD", "XDR", "XOF", "XPF", "YER", "ZAR", "ZMW",
+            "ZWL");
+
+    public static final int CURRENCY_COUNT = CODES.size() + 1;
+
+    private BenchmarkPayloads() {
+    }
+
+    public static List<String> currencyCodes() {
+        return CODES;
+    }
+
+    public static Map<String, BigDecimal> rates() {
+        Random random = new Random(20250525L);
+        Map<String, BigDecimal> rates = new LinkedHashMap<>();
+        rates.put("USD", BigDecimal.ONE);
+        for (String code : CODES) {
+            // Entre 0.3 et ~40 000, 2 à 5 décimales
+            double magnitude = Math.pow(10, random.nextDouble() * 5 - 0.5);
+            int scale = 2 + random.nextInt(4);
+            rates.put(code, BigDecimal.valueOf(magnitude).setScale(scale, java.math.RoundingMode.HALF_UP));
+        }
+        rates.put("EUR", new BigDecimal("0.92"));
+        rates.put("JPY", new BigDecimal("151.32"));
+        return rates;
+    }
+
+    public static ExternalApiResponse externalApiResponse() {
+        ExternalApiResponse response = new ExternalApiResponse();
+        response.setProvider("https://www.exchangerate-api.com");
+        response.setWarning("Please use our v6 API");
+        response.setTerms("https://www.exchangerate-api.com/terms");
+        response.setBase("USD");
+        response.setDate("2025-05-25");
+        response.setTimeLastUpdated(1748131201L);
+        response.setRates(rates());
+        return response;
+    }
+
+    public static ExchangeRateData exchangeRateData() {
+        ExchangeRateData data = ExchangeRateData.builder()
+                .baseCurrency("USD")
+                .timestamp(LocalDateTime.of(2025, 5, 25, 16, 44, 28, 874128000))
+                .dateUnix(1748131201L)
+                .rates(rates())
+                .source("API")
+                .provider("https://www.exchangerate-api.com")
+                .build();
+        data.generateId();
+        return data;
+    }
+}
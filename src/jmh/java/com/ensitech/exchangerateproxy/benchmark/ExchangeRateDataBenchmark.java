@@ -0,0 +1,61 @@
+package com.ensitech.exchangerateproxy.benchmark;
+
+import com.ensitech.exchangerateproxy.model.CurrencyCodes;
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import com.ensitech.exchangerateproxy.model.RateTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recherche d'un taux dans un snapshot de 160 devises
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExchangeRateDataBenchmark {
+
+    private ExchangeRateData data;
+    private RateTable table;
+    private int jpyId;
+
+    @Setup
+    public void setUp() {
+        data = BenchmarkPayloads.exchangeRateData();
+        table = data.rateTable();
+        jpyId = CurrencyCodes.idOf("JPY");
+    }
+
+    @Benchmark
+    public BigDecimal getRateForUpperCase() {
+        return data.getRateFor("JPY");
+    }
+
+    @Benchmark
+    public BigDecimal getRateForLowerCase() {
+        return data.getRateFor("jpy");
+    }
+
+    @Benchmark
+    public boolean hasCurrency() {
+        return data.hasCurrency("EUR");
+    }
+
+    @Benchmark
+    public double primitiveLookupById() {
+        return table.doubleValue(jpyId);
+    }
+}
@@ -0,0 +1,82 @@
+package com.ensitech.exchangerateproxy.benchmark;
+
+import com.ensitech.exchangerateproxy.kafka.serialization.ExchangeRateBinaryCodec;
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import com.ensitech.exchangerateproxy.model.ExternalApiResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sérialisation JSON (API externe, Kafka, REST) comparée au format binaire Kafka
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    private ObjectMapper objectMapper;
+
+    private ExchangeRateData exchangeRateData;
+    private byte[] exchangeRateJson;
+    private byte[] exchangeRateBinary;
+
+    private ExternalApiResponse apiResponse;
+    private byte[] apiResponseJson;
+
+    @Setup
+    public void setUp() throws Exception {
+        objectMapper = JsonMapper.builder().findAndAddModules().build();
+
+        exchangeRateData = BenchmarkPayloads.exchangeRateData();
+        exchangeRateJson = objectMapper.writeValueAsBytes(exchangeRateData);
+        exchangeRateBinary = ExchangeRateBinaryCodec.encode(exchangeRateData);
+
+        apiResponse = BenchmarkPayloads.externalApiResponse();
+        apiResponseJson = objectMapper.writeValueAsBytes(apiResponse);
+    }
+
+    @Benchmark
+    public byte[] exchangeRateDataToJson() throws Exception {
+        return objectMapper.writeValueAsBytes(exchangeRateData);
+    }
+
+    @Benchmark
+    public ExchangeRateData exchangeRateDataFromJson() throws Exception {
+        return objectMapper.readValue(exchangeRateJson, ExchangeRateData.class);
+    }
+
+    @Benchmark
+    public byte[] exchangeRateDataToBinary() {
+        return ExchangeRateBinaryCodec.encode(exchangeRateData);
+    }
+
+    @Benchmark
+    public ExchangeRateData exchangeRateDataFromBinary() {
+        return ExchangeRateBinaryCodec.decode(exchangeRateBinary);
+    }
+
+    @Benchmark
+    public byte[] externalApiResponseToJson() throws Exception {
+        return objectMapper.writeValueAsBytes(apiResponse);
+    }
+
+    @Benchmark
+    public ExternalApiResponse externalApiResponseFromJson() throws Exception {
+        return objectMapper.readValue(apiResponseJson, ExternalApiResponse.class);
+    }
+}
@@ -0,0 +1,85 @@
+package com.ensitech.exchangerateproxy.kafka.consumer;
+
+import com.ensitech.exchangerateproxy.benchmark.BenchmarkPayloads;
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import com.ensitech.exchangerateproxy.service.CrossRateEngine;
+import com.ensitech.exchangerateproxy.service.LatestRateCache;
+import com.ensitech.exchangerateproxy.service.RateHistoryStore;
+import com.ensitech.exchangerateproxy.service.RateStreamBroadcaster;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.kafka.support.Acknowledgment;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Traitement d'un lot Kafka par le consommateur : validation, historique en mémoire, cache des derniers taux
+ * et diffusion (sans abonné), comme à chaque poll
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsumerProcessingBenchmark {
+
+    private static final List<String> BASE_CURRENCIES = List.of("USD", "EUR", "GBP", "JPY", "CHF", "CAD", "AUD");
+
+    @Param({"7", "100"})
+    public int batchSize;
+
+    private ExchangeRateKafkaConsumer consumer;
+    private List<ConsumerRecord<String, ExchangeRateData>> records;
+    private final Acknowledgment acknowledgment = () -> { };
+
+    @Setup
+    public void setUp() {
+        LatestRateCache cache = new LatestRateCache();
+        CrossRateEngine crossRateEngine = new CrossRateEngine();
+        consumer = new ExchangeRateKafkaConsumer(cache, new SimpleMeterRegistry(),
+                new RateStreamBroadcaster(crossRateEngine, cache, new ObjectMapper()),
+                new RateHistoryStore(null, crossRateEngine));
+
+        ExchangeRateData template = BenchmarkPayloads.exchangeRateData();
+        long now = System.currentTimeMillis();
+        records = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            String base = BASE_CURRENCIES.get(i % BASE_CURRENCIES.size());
+            ExchangeRateData data = ExchangeRateData.builder()
+                    .baseCurrency(base)
+                    .timestamp(template.getTimestamp().plusSeconds(i))
+                    .dateUnix(template.getDateUnix())
+                    .rates(template.getRates())
+                    .source(template.getSource())
+                    .provider(template.getProvider())
+                    .build();
+            data.generateId();
+            records.add(new ConsumerRecord<>("exchange-rates", i % 3, i, now, TimestampType.CREATE_TIME,
+                    ConsumerRecord.NULL_SIZE, ConsumerRecord.NULL_SIZE, base, data, new RecordHeaders(), Optional.empty()));
+        }
+    }
+
+    @Benchmark
+    public void consumeBatch() {
+        consumer.consume(records, acknowledgment);
+    }
+}
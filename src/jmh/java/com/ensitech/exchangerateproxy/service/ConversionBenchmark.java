@@ -0,0 +1,41 @@
+package com.ensitech.exchangerateproxy.service;
+
+import com.ensitech.exchangerateproxy.benchmark.BenchmarkPayloads;
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import com.ensitech.exchangerateproxy.model.ExternalApiResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion de la réponse de l'API externe en modèle interne
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+
+    private ExternalApiResponse response;
+
+    @Setup
+    public void setUp() {
+        response = BenchmarkPayloads.externalApiResponse();
+    }
+
+    @Benchmark
+    public ExchangeRateData convertToExchangeRateData() {
+        return ExchangeRateService.convertToExchangeRateData(response);
+    }
+}
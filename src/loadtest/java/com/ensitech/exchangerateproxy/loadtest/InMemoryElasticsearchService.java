@@ -0,0 +1,126 @@
+package com.ensitech.exchangerateproxy.loadtest;
+
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import com.ensitech.exchangerateproxy.model.RateCandle;
+import com.ensitech.exchangerateproxy.service.ElasticsearchService;
+import com.ensitech.exchangerateproxy.service.HistoryPage;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+/**
+ * Remplaçant en mémoire d'ElasticsearchService pour les tirs de charge : les snapshots sont rangés
+ * par devise et par date, les lectures ont la même sémantique que les requêtes Elasticsearch
+ * (sans les agrégations : les bougies sont vides).
+ */
+public class InMemoryElasticsearchService extends ElasticsearchService {
+
+    private final Map<String, NavigableMap<LocalDateTime, ExchangeRateData>> snapshots = new ConcurrentHashMap<>();
+
+    @Value("${exchange-rate.history.page-size:100}")
+    private int defaultPageSize;
+
+    @Value("${exchange-rate.history.max-page-size:1000}")
+    private int maxPageSize;
+
+    public InMemoryElasticsearchService(MeterRegistry meterRegistry) {
+        super(null, null, meterRegistry, null);
+    }
+
+    @Override
+    public void saveExchangeRate(ExchangeRateData exchangeRateData) {
+        snapshots.computeIfAbsent(exchangeRateData.getBaseCurrency(), base -> new ConcurrentSkipListMap<>())
+                .put(exchangeRateData.getTimestamp(), exchangeRateData);
+    }
+
+    @Override
+    public Optional<ExchangeRateData> findLatestByBaseCurrency(String baseCurrency) {
+        return Optional.ofNullable(series(baseCurrency).lastEntry()).map(Map.Entry::getValue);
+    }
+
+    @Override
+    public Optional<ExchangeRateData> findLatestAt(String baseCurrency, LocalDateTime asOf) {
+        return Optional.ofNullable(series(baseCurrency).floorEntry(asOf)).map(Map.Entry::getValue);
+    }
+
+    /**
+     * Le curseur est le timestamp du dernier élément de la page précédente
+     */
+    @Override
+    public HistoryPage findHistoryPage(String baseCurrency, LocalDateTime from, LocalDateTime to,
+                                       String cursor, Integer size, Collection<String> targetCurrencies) {
+        int pageSize = Math.min(size != null && size > 0 ? size : defaultPageSize, maxPageSize);
+        LocalDateTime upper = cursor != null ? cursorTimestamp(cursor) : to;
+        List<ExchangeRateData> window = series(baseCurrency)
+                .subMap(from, true, upper, cursor == null)
+                .descendingMap().values().stream()
+                .limit(pageSize + 1L)
+                .toList();
+        if (window.size() <= pageSize) {
+            return new HistoryPage(window, null);
+        }
+        List<ExchangeRateData> page = window.subList(0, pageSize);
+        return new HistoryPage(page, page.get(pageSize - 1).getTimestamp().toString());
+    }
+
+    @Override
+    public long streamHistory(String baseCurrency, LocalDateTime from, LocalDateTime to,
+                              Collection<String> targetCurrencies, Consumer<ExchangeRateData> consumer) {
+        long count = 0;
+        for (ExchangeRateData data : series(baseCurrency).subMap(from, true, to, true).descendingMap().values()) {
+            consumer.accept(data);
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public List<RateCandle> findCandles(String baseCurrency, String targetCurrency, LocalDateTime from,
+                                        LocalDateTime to, String interval) {
+        return List.of();
+    }
+
+    @Override
+    public List<RateCandle> findInverseCandles(String baseCurrency, String targetCurrency, LocalDateTime from,
+                                               LocalDateTime to, String interval) {
+        return List.of();
+    }
+
+    @Override
+    public List<ExchangeRateData> findRecentExchangesRates() {
+        LocalDateTime yesterday = LocalDateTime.now().minusDays(1);
+        return snapshots.values().stream()
+                .flatMap(series -> series.tailMap(yesterday, false).values().stream())
+                .sorted(Comparator.comparing(ExchangeRateData::getTimestamp).reversed())
+                .limit(50)
+                .toList();
+    }
+
+    @Override
+    public long countAll() {
+        return snapshots.values().stream().mapToLong(Map::size).sum();
+    }
+
+    private static LocalDateTime cursorTimestamp(String cursor) {
+        try {
+            return LocalDateTime.parse(cursor);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid history cursor: " + cursor, e);
+        }
+    }
+
+    private NavigableMap<LocalDateTime, ExchangeRateData> series(String baseCurrency) {
+        return snapshots.getOrDefault(baseCurrency, new ConcurrentSkipListMap<>());
+    }
+}
@@ -0,0 +1,355 @@
+package com.ensitech.exchangerateproxy.loadtest;
+
+import com.ensitech.exchangerateproxy.ExchangeRateProxyApplication;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.kafka.test.EmbeddedKafkaKraftBroker;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Tir de charge reproductible de la proxy, sans service externe : bouchon local de l'API de taux
+ * ({@link StubExchangeRateApi}), Kafka embarqué de spring-kafka-test et Elasticsearch remplacé
+ * par {@link InMemoryElasticsearchService}.
+ * <p>
+ * Les endpoints sont chargés l'un après l'autre par {@code concurrency} clients en boucle fermée
+ * (une requête à la fois par client). Après la chauffe, le débit et les latences p50/p99/p999
+ * de chaque endpoint sont affichés puis écrits en JSON dans {@code output}.
+ * <p>
+ * Arguments {@code option=valeur} (voir {@link Options}) ; les arguments {@code --propriété=valeur}
+ * sont transmis à l'application.
+ */
+public final class LoadTestRunner {
+
+    private static final String API = "/api/exchange-rates";
+
+    private LoadTestRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+
+        EmbeddedKafkaKraftBroker broker = new EmbeddedKafkaKraftBroker(1, 1);
+        broker.afterPropertiesSet();
+        try (StubExchangeRateApi upstream = new StubExchangeRateApi(options.upstreamLatency(),
+                     options.upstreamJitter(), options.upstreamUpdate(), options.currencies()).start();
+             ConfigurableApplicationContext context = startProxy(options, broker.getBrokersAsString(), upstream);
+             HttpClient client = HttpClient.newBuilder()
+                     .version(HttpClient.Version.HTTP_1_1)
+                     .executor(Executors.newVirtualThreadPerTaskExecutor())
+                     .build()) {
+
+            String api = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + API;
+            awaitLatestRates(client, api, options.currencies(), Duration.ofSeconds(60));
+
+            List<EndpointResult> results = new ArrayList<>();
+            for (Scenario scenario : scenarios(api, options)) {
+                if (options.endpoints().contains(scenario.name())) {
+                    System.out.printf("Running %s: %d clients, %s warmup, %s measured%n",
+                            scenario.name(), options.concurrency(), options.warmup(), options.duration());
+                    results.add(run(client, scenario, options));
+                }
+            }
+
+            print(results, upstream.calls(), context.getBean(InMemoryElasticsearchService.class).countAll());
+            write(options, results);
+        } finally {
+            broker.destroy();
+        }
+    }
+
+    /**
+     * Démarre la proxy sur un port libre, branchée sur le bouchon et le broker embarqué.
+     * Les propriétés du tir priment sur application.yml ; celles passées en argument priment sur tout.
+     */
+    private static ConfigurableApplicationContext startProxy(Options options, String brokers,
+                                                             StubExchangeRateApi upstream) {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("server.port", "0");
+        properties.put("exchange-rate.api.url", upstream.url());
+        properties.put("exchange-rate.api.default-base-currency", options.currencies().getFirst());
+        properties.put("exchange-rate.scheduler.currencies", String.join(",", options.currencies()));
+        properties.put("exchange-rate.scheduler.fixed-rate", String.valueOf(options.upstreamUpdate().toMillis()));
+        properties.put("exchange-rate.scheduler.initial-delay", "0");
+        properties.put("exchange-rate.kafka.topic", "exchange-rates");
+        properties.put("spring.kafka.bootstrap-servers", brokers);
+        properties.put("spring.kafka.consumer.group-id", "exchange-rate-loadtest");
+        properties.put("spring.kafka.consumer.auto-offset-reset", "earliest");
+        properties.put("spring.kafka.consumer.key-deserializer",
+                "org.apache.kafka.common.serialization.StringDeserializer");
+        properties.put("spring.kafka.consumer.value-deserializer",
+                "com.ensitech.exchangerateproxy.kafka.serialization.ExchangeRateWireDeserializer");
+        properties.put("spring.kafka.producer.key-serializer",
+                "org.apache.kafka.common.serialization.StringSerializer");
+        properties.put("spring.kafka.producer.value-serializer",
+                "com.ensitech.exchangerateproxy.kafka.serialization.ExchangeRateWireSerializer");
+        properties.put("spring.kafka.listener.ack-mode", "manual");
+        // Aucun Elasticsearch : seul le gestionnaire d'index tente de s'y connecter, et échoue aussitôt
+        properties.put("spring.elasticsearch.uris", "http://127.0.0.1:1");
+        properties.put("management.health.elasticsearch.enabled", "false");
+        properties.put("spring.mvc.async.request-timeout", "10s");
+        properties.put("logging.level.root", "WARN");
+        properties.putAll(options.properties());
+
+        SpringApplication application = new SpringApplication(ExchangeRateProxyApplication.class);
+        // Remplaçant en mémoire d'Elasticsearch, pré-rempli de l'historique servi par le bouchon
+        application.addInitializers(context -> ((GenericApplicationContext) context).registerBean(
+                InMemoryElasticsearchService.class,
+                () -> {
+                    InMemoryElasticsearchService store =
+                            new InMemoryElasticsearchService(context.getBean(MeterRegistry.class));
+                    upstream.history(options.currencies(), options.history(), options.historyStep())
+                            .forEach(store::saveExchangeRate);
+                    return store;
+                },
+                definition -> definition.setPrimary(true)));
+
+        return application.run(properties.entrySet().stream()
+                .map(property -> "--" + property.getKey() + "=" + property.getValue())
+                .toArray(String[]::new));
+    }
+
+    /**
+     * Attend que le premier cycle planifié ait alimenté le cache de chaque devise
+     */
+    private static void awaitLatestRates(HttpClient client, String api, List<String> currencies, Duration timeout)
+            throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        Set<String> pending = new LinkedHashSet<>(currencies);
+        while (!pending.isEmpty() && System.nanoTime() < deadline) {
+            for (String currency : List.copyOf(pending)) {
+                HttpResponse<Void> response = client.send(get(api, "/" + currency + "/latest"),
+                        HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() == 200) {
+                    pending.remove(currency);
+                }
+            }
+            if (!pending.isEmpty()) {
+                Thread.sleep(200);
+            }
+        }
+        if (!pending.isEmpty()) {
+            System.out.printf("No latest rates for %s after %s, starting anyway%n", pending, timeout);
+        }
+    }
+
+    private static List<Scenario> scenarios(String api, Options options) {
+        List<String> currencies = options.currencies();
+        long historySeconds = Math.max(1, options.history().toSeconds());
+        return List.of(
+                new Scenario("current", random -> get(api, "/" + pick(currencies, random))),
+                new Scenario("latest", random -> get(api, "/" + pick(currencies, random) + "/latest")),
+                new Scenario("rate", random -> get(api,
+                        "/" + pick(currencies, random) + "/rate/" + pick(currencies, random))),
+                new Scenario("rate-at", random -> get(api,
+                        "/" + pick(currencies, random) + "/rate/" + pick(currencies, random) + "?at="
+                                + LocalDateTime.now().minusSeconds(random.nextLong(historySeconds)).withNano(0))),
+                new Scenario("history", random -> get(api, "/" + pick(currencies, random) + "/history?size=100")),
+                new Scenario("convert", random -> HttpRequest.newBuilder(URI.create(api + "/convert"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(conversionBatch(currencies, random,
+                                options.batchSize())))
+                        .build()));
+    }
+
+    /**
+     * Charge un endpoint : chaque client envoie sa requête suivante dès la réponse reçue.
+     * Seules les requêtes parties après la chauffe sont mesurées.
+     */
+    private static EndpointResult run(HttpClient client, Scenario scenario, Options options)
+            throws InterruptedException {
+        Histogram latencies = new ConcurrentHistogram(3);
+        LongAdder errors = new LongAdder();
+        long measureFrom = System.nanoTime() + options.warmup().toNanos();
+        long measureUntil = measureFrom + options.duration().toNanos();
+
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < options.concurrency(); i++) {
+                clients.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (System.nanoTime() < measureUntil) {
+                        HttpRequest request = scenario.request().apply(random);
+                        long start = System.nanoTime();
+                        boolean success;
+                        try {
+                            success = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() < 400;
+                        } catch (IOException e) {
+                            success = false;
+                        }
+                        if (start >= measureFrom) {
+                            if (success) {
+                                latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                            } else {
+                                errors.increment();
+                            }
+                        }
+                    }
+                    return null;
+                });
+            }
+        }
+
+        double seconds = options.duration().toNanos() / 1e9;
+        return new EndpointResult(scenario.name(), latencies.getTotalCount(), errors.sum(),
+                latencies.getTotalCount() / seconds,
+                millis(latencies.getValueAtPercentile(50)),
+                millis(latencies.getValueAtPercentile(99)),
+                millis(latencies.getValueAtPercentile(99.9)),
+                millis(latencies.getMaxValue()));
+    }
+
+    private static void print(List<EndpointResult> results, long upstreamCalls, long storedSnapshots) {
+        System.out.printf("%n%-10s %10s %8s %10s %9s %9s %9s %9s%n",
+                "endpoint", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        for (EndpointResult result : results) {
+            System.out.printf("%-10s %10d %8d %10.1f %9.2f %9.2f %9.2f %9.2f%n",
+                    result.endpoint(), result.requests(), result.errors(), result.throughput(),
+                    result.p50(), result.p99(), result.p999(), result.max());
+        }
+        System.out.printf("%nUpstream calls: %d, snapshots stored: %d%n", upstreamCalls, storedSnapshots);
+    }
+
+    private static void write(Options options, List<EndpointResult> results) throws IOException {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("timestamp", LocalDateTime.now());
+        report.put("options", options);
+        report.put("results", results);
+
+        Path output = options.output().toAbsolutePath();
+        Files.createDirectories(output.getParent());
+        new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .disable(SerializationFeature.WRITE_DURATIONS_AS_TIMESTAMPS)
+                .writerWithDefaultPrettyPrinter()
+                .writeValue(output.toFile(), report);
+        System.out.printf("Results written to %s%n", output);
+    }
+
+    private static HttpRequest get(String api, String path) {
+        return HttpRequest.newBuilder(URI.create(api + path)).GET().build();
+    }
+
+    private static String pick(List<String> currencies, ThreadLocalRandom random) {
+        return currencies.get(random.nextInt(currencies.size()));
+    }
+
+    private static String conversionBatch(List<String> currencies, ThreadLocalRandom random, int size) {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append("{\"amount\":").append(BigDecimal.valueOf(random.nextLong(1, 1_000_000), 2))
+                    .append(",\"from\":\"").append(pick(currencies, random))
+                    .append("\",\"to\":\"").append(pick(currencies, random))
+                    .append("\"}");
+        }
+        return body.append(']').toString();
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private record Scenario(String name, Function<ThreadLocalRandom, HttpRequest> request) {
+    }
+
+    record EndpointResult(String endpoint, long requests, long errors, double throughput,
+                          double p50, double p99, double p999, double max) {
+    }
+
+    /**
+     * Options du tir : {@code concurrency}, {@code warmup}, {@code duration}, {@code endpoints},
+     * {@code currencies}, latence du bouchon ({@code upstream-latency}, {@code upstream-jitter},
+     * {@code upstream-update}), historique pré-chargé ({@code history}, {@code history-step}),
+     * taille des lots de conversion ({@code batch-size}) et fichier de résultats ({@code output})
+     */
+    record Options(int concurrency, Duration warmup, Duration duration, Set<String> endpoints,
+                   List<String> currencies, Duration upstreamLatency, Duration upstreamJitter,
+                   Duration upstreamUpdate, Duration history, Duration historyStep, int batchSize,
+                   Path output, Map<String, String> properties) {
+
+        private static final List<String> KEYS = List.of("concurrency", "warmup", "duration", "endpoints",
+                "currencies", "upstream-latency", "upstream-jitter", "upstream-update", "history", "history-step",
+                "batch-size", "output");
+
+        static Options parse(String[] args) {
+            Map<String, String> values = new HashMap<>();
+            Map<String, String> properties = new LinkedHashMap<>();
+            for (String arg : args) {
+                int separator = arg.indexOf('=');
+                if (separator < 0) {
+                    throw new IllegalArgumentException("Expected option=value, got " + arg);
+                }
+                String key = arg.substring(0, separator);
+                String value = arg.substring(separator + 1);
+                if (key.startsWith("--")) {
+                    properties.put(key.substring(2), value);
+                } else if (KEYS.contains(key)) {
+                    values.put(key, value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + key + ", expected one of " + KEYS);
+                }
+            }
+
+            return new Options(
+                    Integer.parseInt(values.getOrDefault("concurrency", "64")),
+                    duration(values, "warmup", "5s"),
+                    duration(values, "duration", "20s"),
+                    new LinkedHashSet<>(list(values.getOrDefault("endpoints",
+                            "current,latest,rate,rate-at,history,convert"))),
+                    list(values.getOrDefault("currencies", "USD,EUR,GBP,JPY,CHF,CAD,AUD")),
+                    duration(values, "upstream-latency", "50ms"),
+                    duration(values, "upstream-jitter", "50ms"),
+                    duration(values, "upstream-update", "10s"),
+                    duration(values, "history", "24h"),
+                    duration(values, "history-step", "5m"),
+                    Integer.parseInt(values.getOrDefault("batch-size", "100")),
+                    Path.of(values.getOrDefault("output", "target/loadtest-result.json")),
+                    properties);
+        }
+
+        private static Duration duration(Map<String, String> values, String key, String defaultValue) {
+            return DurationStyle.detectAndParse(values.getOrDefault(key, defaultValue));
+        }
+
+        private static List<String> list(String value) {
+            return Arrays.stream(value.split(","))
+                    .map(String::trim)
+                    .filter(item -> !item.isEmpty())
+                    .toList();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.ensitech.exchangerateproxy.loadtest;
+
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import com.ensitech.exchangerateproxy.model.ExternalApiResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Currency;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bouchon local de l'API exchangerate-api.com ({@code GET /v4/latest/{base}}).
+ * <p>
+ * Chaque réponse est retardée de {@code latency} plus un aléa uniforme entre 0 et {@code jitter}.
+ * Les taux sont déterministes : ils dérivent légèrement à chaque intervalle de mise à jour,
+ * ce qui permet de générer un historique cohérent avec les réponses servies.
+ */
+public class StubExchangeRateApi implements AutoCloseable {
+
+    private static final String PATH = "/v4/latest";
+    private static final int CURRENCY_COUNT = 160;
+
+    private final Duration latency;
+    private final Duration jitter;
+    private final Duration updateInterval;
+
+    private final Map<String, BigDecimal> usdRates;
+    private final Map<String, Double> phases = new LinkedHashMap<>();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final LongAdder calls = new LongAdder();
+
+    // Réponses sérialisées de l'intervalle courant, par devise de base
+    private volatile CachedTick cached = new CachedTick(-1, Map.of());
+
+    private HttpServer server;
+
+    public StubExchangeRateApi(Duration latency, Duration jitter, Duration updateInterval,
+                               Collection<String> requiredCurrencies) {
+        this.latency = latency;
+        this.jitter = jitter;
+        this.updateInterval = updateInterval;
+        this.usdRates = usdRates(requiredCurrencies);
+        Random random = new Random(20250525L);
+        usdRates.keySet().forEach(code -> phases.put(code, random.nextDouble() * Math.PI * 2));
+    }
+
+    public StubExchangeRateApi start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(PATH, this::handle);
+        server.setExecutor(executor);
+        server.start();
+        return this;
+    }
+
+    /**
+     * Valeur à donner à {@code exchange-rate.api.url}
+     */
+    public String url() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + PATH;
+    }
+
+    public long calls() {
+        return calls.sum();
+    }
+
+    /**
+     * Snapshot tel que la proxy l'aurait enregistré à une date donnée, pour pré-remplir l'historique
+     */
+    public ExchangeRateData snapshot(String baseCurrency, LocalDateTime at) {
+        long tick = at.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() / updateInterval.toMillis();
+        ExchangeRateData data = ExchangeRateData.builder()
+                .baseCurrency(baseCurrency)
+                .timestamp(at)
+                .dateUnix(tick * updateInterval.toMillis() / 1000)
+                .rates(rates(baseCurrency, tick))
+                .source("API")
+                .provider("loadtest-stub")
+                .build();
+        data.generateId();
+        return data;
+    }
+
+    /**
+     * Historique régulier de {@code step} en {@code step} sur {@code span}, pour chaque devise
+     */
+    public List<ExchangeRateData> history(Collection<String> baseCurrencies, Duration span, Duration step) {
+        List<ExchangeRateData> snapshots = new ArrayList<>();
+        if (span.isZero() || step.isZero()) {
+            return snapshots;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        for (LocalDateTime at = now.minus(span); at.isBefore(now); at = at.plus(step)) {
+            for (String baseCurrency : baseCurrencies) {
+                snapshots.add(snapshot(baseCurrency, at));
+            }
+        }
+        return snapshots;
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+        }
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        calls.increment();
+        try (exchange) {
+            String baseCurrency = exchange.getRequestURI().getPath().substring(PATH.length()).replace("/", "");
+            byte[] body = body(baseCurrency);
+            pause();
+            if (body == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        }
+    }
+
+    private void pause() {
+        long delay = latency.toMillis();
+        if (!jitter.isZero()) {
+            delay += ThreadLocalRandom.current().nextLong(jitter.toMillis() + 1);
+        }
+        if (delay <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private byte[] body(String baseCurrency) {
+        if (!usdRates.containsKey(baseCurrency)) {
+            return null;
+        }
+        long tick = System.currentTimeMillis() / updateInterval.toMillis();
+        CachedTick current = cached;
+        if (current.tick() != tick) {
+            current = new CachedTick(tick, new ConcurrentHashMap<>());
+            cached = current;
+        }
+        return current.bodies().computeIfAbsent(baseCurrency, base -> serialize(base, tick));
+    }
+
+    private byte[] serialize(String baseCurrency, long tick) {
+        long updatedAt = tick * updateInterval.toMillis() / 1000;
+        ExternalApiResponse response = new ExternalApiResponse();
+        response.setProvider("loadtest-stub");
+        response.setTerms("https://www.exchangerate-api.com/terms");
+        response.setBase(baseCurrency);
+        response.setDate(LocalDate.ofInstant(Instant.ofEpochSecond(updatedAt), ZoneOffset.UTC).toString());
+        response.setTimeLastUpdated(updatedAt);
+        response.setRates(rates(baseCurrency, tick));
+        try {
+            return objectMapper.writeValueAsBytes(response);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not serialize stub response for " + baseCurrency, e);
+        }
+    }
+
+    /**
+     * Taux d'une devise de base : table USD dérivant de quelques pour mille, puis ramenée à la base
+     */
+    private Map<String, BigDecimal> rates(String baseCurrency, long tick) {
+        BigDecimal base = drifted(baseCurrency, tick);
+        Map<String, BigDecimal> rates = new LinkedHashMap<>();
+        usdRates.keySet().forEach(code -> rates.put(code, code.equals(baseCurrency)
+                ? BigDecimal.ONE
+                : drifted(code, tick).divide(base, 6, RoundingMode.HALF_EVEN)));
+        return rates;
+    }
+
+    private BigDecimal drifted(String code, long tick) {
+        if (code.equals("USD")) {
+            return BigDecimal.ONE;
+        }
+        double drift = 1 + 0.002 * Math.sin(tick * 0.7 + phases.get(code));
+        return usdRates.get(code).multiply(BigDecimal.valueOf(drift)).setScale(8, RoundingMode.HALF_EVEN);
+    }
+
+    /**
+     * ~160 devises ISO avec des ordres de grandeur proches de ceux de l'API externe
+     */
+    private static Map<String, BigDecimal> usdRates(Collection<String> requiredCurrencies) {
+        List<String> codes = new ArrayList<>(requiredCurrencies);
+        Currency.getAvailableCurrencies().stream()
+                .map(Currency::getCurrencyCode)
+                .sorted()
+                .filter(code -> !codes.contains(code))
+                .limit(Math.max(0, CURRENCY_COUNT - codes.size()))
+                .forEach(codes::add);
+
+        Random random = new Random(20250525L);
+        Map<String, BigDecimal> rates = new LinkedHashMap<>();
+        rates.put("USD", BigDecimal.ONE);
+        for (String code : codes) {
+            double magnitude = Math.pow(10, random.nextDouble() * 5 - 0.5);
+            rates.putIfAbsent(code, BigDecimal.valueOf(magnitude).setScale(4, RoundingMode.HALF_UP));
+        }
+        rates.put("EUR", new BigDecimal("0.92"));
+        rates.put("JPY", new BigDecimal("151.32"));
+        return rates;
+    }
+
+    private record CachedTick(long tick, Map<String, byte[]> bodies) {
+    }
+}
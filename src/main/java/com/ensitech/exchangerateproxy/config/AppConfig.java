@@ -1,13 +1,34 @@
 package com.ensitech.exchangerateproxy.config;
 
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
 import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.config.TopicConfig;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.kafka.DefaultKafkaProducerFactoryCustomizer;
+import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.kafka.config.TopicBuilder;
 import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.client.RestTemplate;
 
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
 
 @Configuration
 @EnableScheduling
@@ -15,12 +36,119 @@ public class AppConfig {
     @Value("${exchange-rate.kafka.topic}")
     private String topicName;
 
+    @Value("${exchange-rate.kafka.partitions:3}")
+    private int partitions;
+
+    @Value("${exchange-rate.kafka.delta-topic:exchange-rates-delta}")
+    private String deltaTopicName;
+
+    @Value("${exchange-rate.kafka.latest-topic:exchange-rates-latest}")
+    private String latestTopicName;
+
+    // Réglages du producteur, appliqués sauf s'ils sont définis dans spring.kafka.producer
+    @Value("${exchange-rate.kafka.producer.linger:20ms}")
+    private Duration producerLinger;
+
+    @Value("${exchange-rate.kafka.producer.batch-size:256KB}")
+    private DataSize producerBatchSize;
+
+    @Value("${exchange-rate.kafka.producer.compression:zstd}")
+    private String producerCompression;
+
+    // Temps maximal de blocage d'un envoi (métadonnées indisponibles, tampon plein)
+    @Value("${exchange-rate.kafka.producer.max-block:5s}")
+    private Duration producerMaxBlock;
+
+    // Client HTTP de l'API externe : pool de connexions et délais
+    @Value("${exchange-rate.upstream.max-connections:50}")
+    private int maxConnections;
+
+    @Value("${exchange-rate.upstream.max-connections-per-route:20}")
+    private int maxConnectionsPerRoute;
+
+    @Value("${exchange-rate.upstream.connect-timeout:2s}")
+    private Duration connectTimeout;
+
+    @Value("${exchange-rate.upstream.read-timeout:5s}")
+    private Duration readTimeout;
+
+    // Attente maximale d'une connexion libre dans le pool
+    @Value("${exchange-rate.upstream.pool-timeout:1s}")
+    private Duration poolTimeout;
+
+    @Value("${exchange-rate.upstream.keep-alive:30s}")
+    private Duration keepAlive;
+
+    @Value("${exchange-rate.upstream.idle-eviction:60s}")
+    private Duration idleEviction;
+
+    /**
+     * Pool de connexions keep-alive vers l'API externe
+     */
+    @Bean
+    public PoolingHttpClientConnectionManager upstreamConnectionManager() {
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(connectTimeout))
+                        .setSocketTimeout(Timeout.of(readTimeout))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .build())
+                .build();
+    }
+
+    @Bean
+    public CloseableHttpClient upstreamHttpClient(PoolingHttpClientConnectionManager upstreamConnectionManager) {
+        return HttpClients.custom()
+                .setConnectionManager(upstreamConnectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.of(poolTimeout))
+                        .setResponseTimeout(Timeout.of(readTimeout))
+                        .setConnectionKeepAlive(TimeValue.of(keepAlive))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.of(idleEviction))
+                .build();
+    }
+
+    /**
+     * Configuration du RestTemplate pour les appels API externes.
+     * Construit par le RestTemplateBuilder pour être instrumenté (http.client.requests).
+     */
+    @Bean
+    public RestTemplate restTemplate(RestTemplateBuilder restTemplateBuilder, CloseableHttpClient upstreamHttpClient) {
+        return restTemplateBuilder
+                .requestFactory(() -> new HttpComponentsClientHttpRequestFactory(upstreamHttpClient))
+                .build();
+    }
+
+    /**
+     * Métriques du pool : connexions louées, disponibles et requêtes en attente
+     */
+    @Bean
+    public MeterBinder upstreamConnectionPoolMetrics(PoolingHttpClientConnectionManager upstreamConnectionManager) {
+        return new PoolingHttpClientConnectionManagerMetricsBinder(upstreamConnectionManager, "exchangerate-upstream");
+    }
+
     /**
-     * Configuration du RestTemplate pour les appels API externes
+     * Producteur Kafka orienté débit : envois regroupés par lots et compressés (les snapshots sont
+     * volumineux et très redondants), livraison idempotente et acquittement de tous les réplicas
      */
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public DefaultKafkaProducerFactoryCustomizer exchangeRateProducerTuning() {
+        return producerFactory -> {
+            Map<String, Object> tuning = new HashMap<>();
+            tuning.put(ProducerConfig.LINGER_MS_CONFIG, (int) producerLinger.toMillis());
+            tuning.put(ProducerConfig.BATCH_SIZE_CONFIG, (int) producerBatchSize.toBytes());
+            tuning.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, producerCompression);
+            tuning.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+            tuning.put(ProducerConfig.ACKS_CONFIG, "all");
+            tuning.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, 5);
+            tuning.put(ProducerConfig.MAX_BLOCK_MS_CONFIG, producerMaxBlock.toMillis());
+            tuning.keySet().removeAll(producerFactory.getConfigurationProperties().keySet());
+            producerFactory.updateConfigs(tuning);
+        };
     }
 
     /**
@@ -29,10 +157,37 @@ public class AppConfig {
     @Bean
     public NewTopic exchangeRatesTopic() {
         return TopicBuilder.name(topicName)
-                .partitions(3)
+                .partitions(partitions)
                 .replicas(1)
                 .build();
     }
 
+    /**
+     * Topic des deltas (taux modifiés uniquement), créé si la publication des deltas est activée
+     */
+    @Bean
+    @ConditionalOnProperty(name = "exchange-rate.delta.enabled", havingValue = "true")
+    public NewTopic exchangeRatesDeltaTopic() {
+        return TopicBuilder.name(deltaTopicName)
+                .partitions(partitions)
+                .replicas(1)
+                .build();
+    }
 
+    /**
+     * Topic compacté du dernier snapshot par devise de base : Kafka ne conserve que
+     * la dernière valeur de chaque clé, relue en entier au démarrage de chaque instance
+     */
+    @Bean
+    @ConditionalOnProperty(name = "exchange-rate.kafka.latest.enabled", havingValue = "true", matchIfMissing = true)
+    public NewTopic exchangeRatesLatestTopic() {
+        return TopicBuilder.name(latestTopicName)
+                .partitions(partitions)
+                .replicas(1)
+                .compact()
+                // Segments courts pour que le nettoyage ne laisse pas s'accumuler les anciennes versions
+                .config(TopicConfig.SEGMENT_MS_CONFIG, String.valueOf(Duration.ofHours(1).toMillis()))
+                .config(TopicConfig.MIN_CLEANABLE_DIRTY_RATIO_CONFIG, "0.1")
+                .build();
+    }
 }
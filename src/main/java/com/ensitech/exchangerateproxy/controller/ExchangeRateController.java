@@ -1,20 +1,53 @@
 package com.ensitech.exchangerateproxy.controller;
 
 import co.elastic.clients.util.VisibleForTesting;
+import com.ensitech.exchangerateproxy.kafka.consumer.FetchCoordinator;
+import com.ensitech.exchangerateproxy.model.ConversionRequest;
+import com.ensitech.exchangerateproxy.model.ConversionResult;
+import com.ensitech.exchangerateproxy.model.CurrencyCodes;
 import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import com.ensitech.exchangerateproxy.model.RateCandle;
 import com.ensitech.exchangerateproxy.service.ElasticsearchService;
 import com.ensitech.exchangerateproxy.service.ExchangeRateService;
+import com.ensitech.exchangerateproxy.service.HistoryPage;
+import com.ensitech.exchangerateproxy.service.LatestRateCache;
+import com.ensitech.exchangerateproxy.service.RateConversionService;
+import com.ensitech.exchangerateproxy.service.RateHistoryService;
+import com.ensitech.exchangerateproxy.service.RateStreamBroadcaster;
+import com.ensitech.exchangerateproxy.service.ServedRates;
+import com.ensitech.exchangerateproxy.service.UpstreamCircuitBreaker;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("api/exchange-rates")
@@ -22,36 +55,70 @@ import java.util.Optional;
 @Slf4j
 public class ExchangeRateController {
 
+    // En-tête signalant un snapshot servi pendant une indisponibilité de l'API externe
+    static final String STALE_HEADER = "X-Rates-Stale";
+
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     private final ExchangeRateService exchangeRateService;
     private final ElasticsearchService elasticsearchService;
+    private final LatestRateCache latestRateCache;
+    private final UpstreamCircuitBreaker upstreamCircuitBreaker;
+    private final RateStreamBroadcaster rateStreamBroadcaster;
+    private final RateConversionService rateConversionService;
+    private final RateHistoryService rateHistoryService;
+    private final SnapshotResponseCache snapshotResponses;
+    private final ObjectMapper objectMapper;
+    private final FetchCoordinator fetchCoordinator;
 
     /**
      * Endpoint pour get les tx de change actuels
      * avec GET : /api/exchange-rates/{baseCurrency}
+     * Traité en asynchrone : le thread Tomcat est libéré pendant l'appel à l'API externe.
+     * Réponse conditionnelle : 304 si l'ETag (identifiant du snapshot) correspond à If-None-Match.
      */
     @GetMapping("/{baseCurrency}")
-    public ResponseEntity<ExchangeRateData> getCurrentRates(@PathVariable String baseCurrency){
+    public CompletableFuture<ResponseEntity<byte[]>> getCurrentRates(@PathVariable String baseCurrency){
         log.info("Request for current exchange rates with base currency: {}", baseCurrency);
 
-        Optional<ExchangeRateData> exchangeRates = exchangeRateService.fetchExchangeRates(baseCurrency.toUpperCase());
+        return exchangeRateService.serveExchangeRates(CurrencyCodes.normalize(baseCurrency))
+                .thenApply(served -> served
+                        .map(this::toResponse)
+                        .orElse(ResponseEntity.notFound().build()));
+    }
 
-        return exchangeRates
-                .map(ResponseEntity::ok)
-                .orElse(ResponseEntity.notFound().build());
+    /**
+     * Un snapshot périmé est signalé par l'en-tête X-Rates-Stale et son âge (Age),
+     * et ne doit pas être réutilisé sans revalidation
+     */
+    private ResponseEntity<byte[]> toResponse(ServedRates served) {
+        if (!served.stale()) {
+            return snapshotResponses.ok(served.data());
+        }
+        ResponseEntity.BodyBuilder response = snapshotResponses.conditional(served.data(), null)
+                .cacheControl(CacheControl.noCache())
+                .header(STALE_HEADER, "true");
+        LocalDateTime timestamp = served.data().getTimestamp();
+        if (timestamp != null) {
+            long age = Math.max(0, Duration.between(timestamp, LocalDateTime.now()).toSeconds());
+            response.header(HttpHeaders.AGE, Long.toString(age));
+        }
+        return response.body(snapshotResponses.body(served.data()));
     }
 
     /**
      * Endpoint pour récupérer les derniers taux depuis Elasticsearch
      * GET /api/exchange-rates/{baseCurrency}/latest
+     * Servi depuis le cache des derniers taux lorsqu'il est alimenté, avec ETag et Last-Modified.
      */
     @GetMapping("/{baseCurrency}/latest")
-    public ResponseEntity<ExchangeRateData> getLatestRates(@PathVariable String baseCurrency) {
-        log.info("Request for latest stored exchange rates with base currency: {}", baseCurrency);
+    public ResponseEntity<byte[]> getLatestRates(@PathVariable String baseCurrency) {
+        log.debug("Request for latest stored exchange rates with base currency: {}", baseCurrency);
 
-        Optional<ExchangeRateData> exchangeRates = exchangeRateService.getLatestExchangeRates(baseCurrency.toUpperCase());
+        Optional<ExchangeRateData> exchangeRates = exchangeRateService.getLatestExchangeRates(CurrencyCodes.normalize(baseCurrency));
 
         return exchangeRates
-                .map(ResponseEntity::ok)
+                .map(snapshotResponses::ok)
                 .orElse(ResponseEntity.notFound().build());
     }
 
@@ -64,20 +131,22 @@ public class ExchangeRateController {
             @PathVariable String baseCurrency,
             @PathVariable String targetCurrency) {
 
-        log.info("Request for specific rate: {} to {}", baseCurrency, targetCurrency);
+        log.debug("Request for specific rate: {} to {}", baseCurrency, targetCurrency);
 
-        Optional<ExchangeRateData> exchangeRates = exchangeRateService.getLatestExchangeRates(baseCurrency.toUpperCase());
+        String base = CurrencyCodes.normalize(baseCurrency);
+        String target = CurrencyCodes.normalize(targetCurrency);
+        Optional<ExchangeRateData> exchangeRates = exchangeRateService.getLatestExchangeRates(base);
 
         if (exchangeRates.isPresent()) {
-            BigDecimal rate = exchangeRates.get().getRateFor(targetCurrency.toUpperCase());
+            BigDecimal rate = exchangeRates.get().getRateFor(target);
             if (rate != null) {
                 Map<String, Object> response = Map.of(
-                        "baseCurrency", baseCurrency.toUpperCase(),
-                        "targetCurrency", targetCurrency.toUpperCase(),
+                        "baseCurrency", base,
+                        "targetCurrency", target,
                         "rate", rate,
                         "timestamp", exchangeRates.get().getTimestamp()
                 );
-                return ResponseEntity.ok(response);
+                return snapshotResponses.conditional(exchangeRates.get(), target).body(response);
             }
         }
 
@@ -85,14 +154,37 @@ public class ExchangeRateController {
     }
 
     /**
-     * Endpoint pour récupérer l'historique des taux
-     * GET /api/exchange-rates/{baseCurrency}/history
+     * Endpoint pour récupérer le taux en vigueur à une date
+     * GET /api/exchange-rates/{baseCurrency}/rate/{targetCurrency}?at=2026-03-14T10:32:00
+     * Servi depuis l'historique en mémoire sur la fenêtre de rétention, puis depuis Elasticsearch.
+     */
+    @GetMapping(value = "/{baseCurrency}/rate/{targetCurrency}", params = "at")
+    public ResponseEntity<ConversionResult> getRateAt(
+            @PathVariable String baseCurrency,
+            @PathVariable String targetCurrency,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime at) {
+
+        log.debug("Request for rate {} to {} as of {}", baseCurrency, targetCurrency, at);
+
+        ConversionResult result = rateConversionService.rateAt(baseCurrency, targetCurrency, at);
+        return result.getError() == null
+                ? ResponseEntity.ok(result)
+                : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Endpoint pour récupérer l'historique des taux, par pages
+     * GET /api/exchange-rates/{baseCurrency}/history?cursor=&size=&target=
+     * Le curseur de la page suivante est renvoyé dans l'en-tête X-Next-Cursor.
      */
     @GetMapping("/{baseCurrency}/history")
     public ResponseEntity<List<ExchangeRateData>> getHistoricalRates(
             @PathVariable String baseCurrency,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
-            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size,
+            @RequestParam(required = false) String target) {
 
         log.info("Request for historical rates for {}: from {} to {}", baseCurrency, from, to);
 
@@ -103,10 +195,191 @@ public class ExchangeRateController {
             to = LocalDateTime.now();
         }
 
-        List<ExchangeRateData> historicalRates = elasticsearchService.findByBaseCurrencyAndDateRange(
-                baseCurrency.toUpperCase(), from, to);
+        HistoryPage page;
+        try {
+            page = rateHistoryService.findHistoryPage(CurrencyCodes.normalize(baseCurrency), from, to,
+                    cursor, size, target != null ? CurrencyCodes.normalize(target) : null);
+        } catch (IllegalArgumentException e) {
+            log.warn(e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.nextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.nextCursor());
+        }
+        return response.body(page.items());
+    }
+
+    /**
+     * Endpoint pour récupérer l'historique d'un taux en bougies (ouverture, plus haut, plus bas, clôture, moyenne)
+     * GET /api/exchange-rates/{baseCurrency}/history?interval=1h&target=EUR
+     * Calculé par agrégation Elasticsearch : la réponse dépend du nombre d'intervalles, pas de snapshots.
+     * Pour une devise dérivée du pivot, seule la cible pivot est disponible.
+     */
+    @GetMapping(value = "/{baseCurrency}/history", params = "interval")
+    public ResponseEntity<List<RateCandle>> getHistoricalCandles(
+            @PathVariable String baseCurrency,
+            @RequestParam String interval,
+            @RequestParam String target,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+
+        log.info("Request for {} candles of {}/{}: from {} to {}", interval, baseCurrency, target, from, to);
+
+        if (from == null) {
+            from = LocalDateTime.now().minusDays(7); // Par défaut, dernière semaine
+        }
+        if (to == null) {
+            to = LocalDateTime.now();
+        }
+
+        try {
+            return ResponseEntity.ok(rateHistoryService.findCandles(CurrencyCodes.normalize(baseCurrency),
+                    CurrencyCodes.normalize(target), from, to, interval));
+        } catch (IllegalArgumentException e) {
+            log.warn(e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Endpoint pour exporter tout l'historique d'une plage en NDJSON (un snapshot par ligne),
+     * transmis au fil de la lecture sans le charger en mémoire
+     * GET /api/exchange-rates/{baseCurrency}/history/stream?target=
+     */
+    @GetMapping(value = "/{baseCurrency}/history/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamHistoricalRates(
+            @PathVariable String baseCurrency,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) String target) {
+
+        log.info("Request for historical rates stream for {}: from {} to {}", baseCurrency, from, to);
+
+        String base = CurrencyCodes.normalize(baseCurrency);
+        String targetCurrency = target != null ? CurrencyCodes.normalize(target) : null;
+        LocalDateTime start = from != null ? from : LocalDateTime.now().minusDays(7);
+        LocalDateTime end = to != null ? to : LocalDateTime.now();
+
+        StreamingResponseBody body = output -> {
+            long count = rateHistoryService.streamHistory(base, start, end, targetCurrency, data -> {
+                try {
+                    output.write(objectMapper.writeValueAsBytes(data));
+                    output.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            log.debug("Streamed {} historical snapshots for {}", count, base);
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
+
+    /**
+     * Endpoint d'abonnement aux nouveaux taux, poussés en Server-Sent Events dès leur réception
+     * GET /api/exchange-rates/stream?base=EUR,USD&target=GBP&mode=snapshot|delta
+     * Sans filtre, tous les snapshots sont diffusés ; en mode delta, seuls les taux modifiés le sont.
+     */
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamRates(
+            @RequestParam(required = false) List<String> base,
+            @RequestParam(required = false) List<String> target,
+            @RequestParam(defaultValue = "snapshot") String mode) {
+
+        RateStreamBroadcaster.Mode streamMode;
+        try {
+            streamMode = RateStreamBroadcaster.Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            log.warn("Unknown rate stream mode: {}", mode);
+            return ResponseEntity.badRequest().build();
+        }
+
+        return rateStreamBroadcaster.subscribe(normalizeAll(base), normalizeAll(target), streamMode)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+    }
+
+    private static Set<String> normalizeAll(List<String> currencies) {
+        if (currencies == null) {
+            return Set.of();
+        }
+        return currencies.stream()
+                .filter(currency -> !currency.isBlank())
+                .map(CurrencyCodes::normalize)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * Endpoint de conversion par lot
+     * POST /api/exchange-rates/convert  [{"amount": 10, "from": "EUR", "to": "USD", "asOf": "..."}, ...]
+     * Toutes les lignes d'une même date de valeur utilisent le même snapshot.
+     */
+    @PostMapping(value = "/convert", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<ConversionResult>> convert(@RequestBody List<ConversionRequest> requests) {
+        log.info("Batch conversion of {} amounts", requests.size());
+
+        try {
+            return ResponseEntity.ok(rateConversionService.convertAll(requests));
+        } catch (IllegalArgumentException e) {
+            log.warn(e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Conversion par lot en flux NDJSON : une demande par ligne en entrée, un résultat par ligne en sortie,
+     * lus et écrits au fil de l'eau quelle que soit la taille du lot
+     * POST /api/exchange-rates/convert  (Content-Type: application/x-ndjson)
+     */
+    @PostMapping(value = "/convert", consumes = MediaType.APPLICATION_NDJSON_VALUE,
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> convertStream(InputStream input) {
+        log.info("Streaming batch conversion requested");
+
+        RateConversionService.Converter converter = rateConversionService.newConverter();
+        ObjectReader reader = objectMapper.readerFor(ConversionRequest.class);
+        ObjectWriter writer = objectMapper.writerFor(ConversionResult.class);
+
+        StreamingResponseBody body = output -> {
+            long count = 0;
+            long lineNumber = 0;
+            // Lecture ligne par ligne : une ligne illisible donne un résultat en erreur sans interrompre le flux
+            try (BufferedReader lines = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = lines.readLine()) != null) {
+                    lineNumber++;
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    output.write(writer.writeValueAsBytes(convertLine(converter, reader, line, lineNumber)));
+                    output.write('\n');
+                    count++;
+                }
+            }
+            log.debug("Streamed {} conversions", count);
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
 
-        return ResponseEntity.ok(historicalRates);
+    private static ConversionResult convertLine(RateConversionService.Converter converter, ObjectReader reader,
+                                                String line, long lineNumber) {
+        ConversionRequest request;
+        try {
+            request = reader.readValue(line);
+        } catch (JsonProcessingException e) {
+            log.debug("Unparsable conversion request on line {}: {}", lineNumber, e.getOriginalMessage());
+            return ConversionResult.builder()
+                    .error("Invalid conversion request on line " + lineNumber + ": " + e.getOriginalMessage())
+                    .build();
+        }
+        return converter.convert(request);
     }
 
     /**
@@ -129,13 +402,22 @@ public class ExchangeRateController {
     public ResponseEntity<ExchangeRateData> refreshRates(@PathVariable String baseCurrency) {
         log.info("Manual refresh requested for currency: {}", baseCurrency);
 
-        Optional<ExchangeRateData> exchangeRates = exchangeRateService.fetchExchangeRates(baseCurrency.toUpperCase());
+        Optional<ExchangeRateData> exchangeRates = exchangeRateService.refreshExchangeRates(CurrencyCodes.normalize(baseCurrency));
 
         return exchangeRates
                 .map(ResponseEntity::ok)
                 .orElse(ResponseEntity.badRequest().build());
     }
 
+    /**
+     * Endpoint pour consulter les statistiques du cache des derniers taux
+     * GET /api/exchange-rates/cache/stats
+     */
+    @GetMapping("/cache/stats")
+    public ResponseEntity<Map<String, Object>> getCacheStats() {
+        return ResponseEntity.ok(latestRateCache.getStats());
+    }
+
     /**
      * Endpoint de santé pour vérifier le statut du service
      * GET /api/exchange-rates/health
@@ -147,6 +429,9 @@ public class ExchangeRateController {
         Map<String, Object> health = Map.of(
                 "status", "UP",
                 "totalStoredRates", totalDocuments,
+                "upstreamCircuit", upstreamCircuitBreaker.getStats(),
+                "streamSubscribers", rateStreamBroadcaster.getSubscriberCount(),
+                "fetchCoordination", fetchCoordinator.getStats(),
                 "timestamp", LocalDateTime.now()
         );
 
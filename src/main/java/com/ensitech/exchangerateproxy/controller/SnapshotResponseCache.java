@@ -0,0 +1,90 @@
+package com.ensitech.exchangerateproxy.controller;
+
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Réponses HTTP conditionnelles pour les snapshots de taux.
+ * <p>
+ * L'ETag (fort) est l'identifiant du snapshot et Last-Modified sa date : une requête dont l'en-tête
+ * If-None-Match correspond reçoit un 304 sans corps. Le JSON de chaque snapshot est sérialisé
+ * une seule fois puis réutilisé tant que le snapshot de la devise ne change pas.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class SnapshotResponseCache {
+
+    private final ObjectMapper objectMapper;
+
+    // Par défaut, l'intervalle de rafraîchissement du scheduler
+    @Value("${exchange-rate.http.max-age:${exchange-rate.scheduler.fixed-rate:60000}}")
+    private Duration maxAge;
+
+    // Dernier corps sérialisé par devise de base
+    private final Map<String, SerializedSnapshot> bodiesByBaseCurrency = new ConcurrentHashMap<>();
+
+    /**
+     * Réponse 200 avec le JSON pré-sérialisé du snapshot et ses en-têtes de validation
+     */
+    public ResponseEntity<byte[]> ok(ExchangeRateData data) {
+        return conditional(data, null).body(body(data));
+    }
+
+    /**
+     * En-têtes de validation et de cache d'une représentation du snapshot ; la variante distingue
+     * les représentations partielles (ex : un seul taux)
+     */
+    public ResponseEntity.BodyBuilder conditional(ExchangeRateData data, String variant) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .cacheControl(CacheControl.maxAge(maxAge).cachePublic());
+        if (data.getId() != null) {
+            response.eTag(variant != null ? data.getId() + "/" + variant : data.getId());
+        }
+        if (data.getTimestamp() != null) {
+            response.lastModified(data.getTimestamp().atZone(ZoneId.systemDefault()));
+        }
+        return response;
+    }
+
+    /**
+     * JSON du snapshot, réutilisé tant que l'identifiant du dernier snapshot de la devise est le même
+     */
+    public byte[] body(ExchangeRateData data) {
+        SerializedSnapshot cached = bodiesByBaseCurrency.get(data.getBaseCurrency());
+        if (cached != null && data.getId() != null && Objects.equals(cached.id(), data.getId())) {
+            return cached.body();
+        }
+
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(data);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (data.getId() != null && data.getBaseCurrency() != null) {
+            bodiesByBaseCurrency.put(data.getBaseCurrency(), new SerializedSnapshot(data.getId(), body));
+            log.trace("Serialized response body for snapshot {}", data.getId());
+        }
+        return body;
+    }
+
+    private record SerializedSnapshot(String id, byte[] body) {
+    }
+}
@@ -1,75 +1,122 @@
 package com.ensitech.exchangerateproxy.kafka.consumer;
 
 import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import com.ensitech.exchangerateproxy.service.LatestRateCache;
+import com.ensitech.exchangerateproxy.service.RateHistoryStore;
+import com.ensitech.exchangerateproxy.service.RateStreamBroadcaster;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.support.Acknowledgment;
-import org.springframework.kafka.support.KafkaHeaders;
-import org.springframework.messaging.handler.annotation.Header;
-import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Service;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class ExchangeRateKafkaConsumer {
 
+    // Principales devises surveillées
+    private static final Set<String> MAIN_CURRENCIES = Set.of("EUR", "GBP", "JPY", "CHF", "CAD", "AUD", "CNY");
+
+    private final LatestRateCache latestRateCache;
+
+    private final MeterRegistry meterRegistry;
+
+    private final RateStreamBroadcaster rateStreamBroadcaster;
+
+    private final RateHistoryStore rateHistoryStore;
+
     /**
-     * Consommateur Kafka pour traiter les messages de taux de change
+     * Consommateur Kafka par lots : tous les enregistrements d'un poll
+     * sont traités puis acquittés en une seule fois.
+     * La concurrence correspond au nombre de partitions du topic.
      */
-    @KafkaListener(topics = "${exchange-rate.kafka.topic}", groupId = "${spring.kafka.consumer.group-id}")
-    public void consume(@Payload ExchangeRateData exchangeRateData,
-                        @Header(KafkaHeaders.RECEIVED_KEY) String key,
-                        @Header(KafkaHeaders.RECEIVED_TOPIC) String topic,
-                        @Header(KafkaHeaders.RECEIVED_PARTITION) int partition,
-                        @Header(KafkaHeaders.OFFSET) long offset,
+    @KafkaListener(topics = "${exchange-rate.kafka.topic}",
+            groupId = "${spring.kafka.consumer.group-id}",
+            concurrency = "${exchange-rate.kafka.consumer.concurrency:${exchange-rate.kafka.partitions:3}}",
+            batch = "true")
+    public void consume(List<ConsumerRecord<String, ExchangeRateData>> records,
                         Acknowledgment acknowledgment) {
 
-        try {
-            log.info("Received exchange rate data from Kafka - Topic: {}, Partition: {}, Offset: {}, Key: {}",
-                    topic, partition, offset, key);
-            log.debug("Exchange rate data: Base currency: {}, Rates count: {}, Timestamp: {}",
-                    exchangeRateData.getBaseCurrency(),
-                    exchangeRateData.getRates() != null ? exchangeRateData.getRates().size() : 0,
-                    exchangeRateData.getTimestamp());
+        log.debug("Received batch of {} exchange rate records from Kafka", records.size());
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        Timer lagTimer = Timer.builder("exchangerate.kafka.consumer.lag")
+                .description("Delay between record production and consumption")
+                .register(meterRegistry);
 
-            processExchangeRateData(exchangeRateData);
+        // Seul le snapshot le plus récent de chaque devise est utile au cache
+        Map<String, ExchangeRateData> newestByCurrency = new LinkedHashMap<>();
+        for (ConsumerRecord<String, ExchangeRateData> record : records) {
+            if (record.timestamp() > 0) {
+                lagTimer.record(Math.max(0, now - record.timestamp()), TimeUnit.MILLISECONDS);
+            }
+            try {
+                ExchangeRateData exchangeRateData = record.value();
+                if (processExchangeRateData(exchangeRateData)) {
+                    newestByCurrency.put(exchangeRateData.getBaseCurrency(), exchangeRateData);
+                    // L'historique en mémoire conserve tous les snapshots, pas seulement le dernier
+                    rateHistoryStore.record(exchangeRateData);
+                }
+            } catch (Exception e) {
+                log.error("Error processing exchange rate record - Partition: {}, Offset: {}: {}",
+                        record.partition(), record.offset(), e.getMessage(), e);
+            }
+        }
+        newestByCurrency.values().forEach(latestRateCache::put);
+        // Diffusion aux abonnés du flux temps réel, après mise à jour du cache
+        newestByCurrency.values().forEach(rateStreamBroadcaster::publish);
 
-            // Acquittement manuel du message
-            acknowledgment.acknowledge();
+        Timer.builder("exchangerate.kafka.consumer.batch")
+                .description("Processing time of a consumed batch")
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        meterRegistry.counter("exchangerate.kafka.consumer.records").increment(records.size());
 
-        } catch (Exception e) {
-            log.error("Error processing exchange rate data: {}", e.getMessage(), e);
-        }
+        // Acquittement manuel du lot
+        acknowledgment.acknowledge();
     }
 
     /**
-     * Traite les données de taux de change reçues
+     * Traite les données de taux de change reçues.
+     * Retourne false si le message ne contient aucun taux exploitable.
      */
-    private void processExchangeRateData(ExchangeRateData exchangeRateData) {
-
-        log.info("Processing exchange rate data for currency: {}", exchangeRateData.getBaseCurrency());
+    boolean processExchangeRateData(ExchangeRateData exchangeRateData) {
 
         // Vérification de la validité des données
-        if (exchangeRateData.getRates() == null || exchangeRateData.getRates().isEmpty()) {
+        if (exchangeRateData == null || exchangeRateData.getBaseCurrency() == null
+                || exchangeRateData.getRates() == null || exchangeRateData.getRates().isEmpty()) {
             log.warn("Received exchange rate data with no rates");
-            return;
+            return false;
         }
 
-        // Usage de stream API
-        exchangeRateData.getRates().entrySet().stream()
-                .filter(entry -> isMainCurrency(entry.getKey()))
-                .forEach(entry ->
-                        log.debug("Rate for {}: {}", entry.getKey(), entry.getValue())
-                );
-
+        if (log.isDebugEnabled()) {
+            log.debug("Processing exchange rate data for currency: {}, Rates count: {}, Timestamp: {}",
+                    exchangeRateData.getBaseCurrency(),
+                    exchangeRateData.getRates().size(),
+                    exchangeRateData.getTimestamp());
+            exchangeRateData.getRates().forEach((currency, rate) -> {
+                if (isMainCurrency(currency)) {
+                    log.debug("Rate for {}: {}", currency, rate);
+                }
+            });
+        }
+        return true;
     }
 
     /**
      * Vérifie si une devise fait partie des principales devises surveillées
      */
     private boolean isMainCurrency(String currency) {
-        return currency.matches("EUR|GBP|JPY|CHF|CAD|AUD|CNY");
+        return MAIN_CURRENCIES.contains(currency);
     }
 }
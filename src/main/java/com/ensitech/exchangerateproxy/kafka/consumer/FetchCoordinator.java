@@ -0,0 +1,260 @@
+package com.ensitech.exchangerateproxy.kafka.consumer;
+
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.utils.Utils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Répartition des devises à récupérer entre les instances de la proxy.
+ * <p>
+ * Chaque instance rejoint un groupe de consommateurs dédié sur le topic des taux : Kafka répartit
+ * les partitions entre les membres du groupe, et une devise appartient à l'instance qui détient
+ * la partition de sa clé (même hachage murmur2 que le producteur). Seule cette instance appelle l'API
+ * externe et publie ; les autres tiennent leur cache à jour depuis le topic compacté des derniers taux.
+ * <p>
+ * Les partitions restent en pause : le groupe ne sert qu'à l'attribution, pas à la lecture.
+ * Une instance sans attribution depuis son démarrage récupère toutes les devises passé {@code settle-timeout}
+ * (délai de formation du groupe) ; seule membre du groupe, elle n'attend pas la fin d'un rééquilibrage.
+ * Sinon, sans attribution pendant plus de {@code fallback-after} (Kafka injoignable), chaque instance
+ * reprend toutes les devises plutôt que de laisser les taux vieillir.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class FetchCoordinator implements SmartLifecycle, MeterBinder {
+
+    private final ConsumerFactory<String, ExchangeRateData> consumerFactory;
+
+    @Value("${exchange-rate.cluster.coordination.enabled:false}")
+    private boolean enabled;
+
+    @Value("${exchange-rate.cluster.coordination.group-id:exchange-rate-fetchers}")
+    private String groupId;
+
+    @Value("${exchange-rate.cluster.coordination.fallback-after:2m}")
+    private Duration fallbackAfter;
+
+    // Délai laissé au groupe pour attribuer les partitions au démarrage
+    @Value("${exchange-rate.cluster.coordination.settle-timeout:10s}")
+    private Duration settleTimeout;
+
+    @Value("${exchange-rate.cluster.coordination.poll-timeout:1s}")
+    private Duration pollTimeout;
+
+    @Value("${exchange-rate.kafka.topic}")
+    private String topic;
+
+    @Value("${exchange-rate.kafka.latest.enabled:true}")
+    private boolean latestTopicEnabled;
+
+    // Partitions attribuées à cette instance ; null tant que l'attribution est inconnue
+    private volatile Set<Integer> ownedPartitions;
+    private volatile int partitionCount;
+    private volatile long unassignedSince = System.nanoTime();
+    // Au moins une attribution reçue depuis le démarrage
+    private volatile boolean everAssigned;
+    // Dernière attribution complète : aucune autre instance dans le groupe
+    private volatile boolean soleMember;
+
+    private volatile boolean running;
+    private volatile Consumer<String, ExchangeRateData> consumer;
+
+    /**
+     * Vrai si une autre instance est chargée de récupérer cette devise.
+     * Avant la première attribution, les devises sont considérées comme prises en charge ailleurs jusqu'à
+     * {@code settle-timeout}, puis par personne. Pendant un rééquilibrage, elles le sont jusqu'à
+     * {@code fallback-after}, sauf si cette instance était seule dans le groupe.
+     */
+    public boolean isOwnedElsewhere(String baseCurrency) {
+        if (!enabled) {
+            return false;
+        }
+        Set<Integer> owned = ownedPartitions;
+        if (owned == null || partitionCount == 0) {
+            return mayBeOwnedElsewhereWhileUnassigned();
+        }
+        return !owned.contains(partitionFor(baseCurrency, partitionCount));
+    }
+
+    private boolean mayBeOwnedElsewhereWhileUnassigned() {
+        long unassignedFor = System.nanoTime() - unassignedSince;
+        if (!everAssigned) {
+            return unassignedFor < settleTimeout.toNanos();
+        }
+        return !soleMember && unassignedFor < fallbackAfter.toNanos();
+    }
+
+    /**
+     * Devises prises en charge par cette instance parmi celles demandées
+     */
+    public Set<String> ownedAmong(Collection<String> currencies) {
+        return currencies.stream()
+                .filter(currency -> !isOwnedElsewhere(currency))
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        if (enabled) {
+            Set<Integer> owned = ownedPartitions;
+            stats.put("groupId", groupId);
+            stats.put("assigned", owned != null);
+            stats.put("ownedPartitions", owned != null ? owned : Set.of());
+            stats.put("partitionCount", partitionCount);
+            stats.put("soleMember", soleMember);
+        }
+        return stats;
+    }
+
+    /**
+     * Partition d'une clé, identique au partitionneur par défaut du producteur Kafka
+     */
+    static int partitionFor(String key, int partitions) {
+        return Utils.toPositive(Utils.murmur2(key.getBytes(StandardCharsets.UTF_8))) % partitions;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        unassignedSince = System.nanoTime();
+        if (enabled) {
+            if (!latestTopicEnabled) {
+                log.warn("Fetch coordination enabled without the latest rates topic: "
+                        + "instances will only see the currencies they fetch themselves");
+            }
+            Thread.ofPlatform().daemon().name("fetch-coordinator").start(this::run);
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        Consumer<String, ExchangeRateData> current = consumer;
+        if (current != null) {
+            current.wakeup();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("exchangerate.cluster.owned.partitions", this,
+                        coordinator -> coordinator.ownedPartitions != null ? coordinator.ownedPartitions.size() : 0)
+                .description("Partitions of the rates topic whose currencies this instance fetches")
+                .register(registry);
+    }
+
+    private void run() {
+        // Membre du groupe sans lecture : pas de validation d'offsets, positions sans importance
+        Properties overrides = new Properties();
+        overrides.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        overrides.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+
+        try (Consumer<String, ExchangeRateData> kafkaConsumer =
+                     consumerFactory.createConsumer(groupId, "fetch-coordinator", null, overrides)) {
+            consumer = kafkaConsumer;
+            kafkaConsumer.subscribe(List.of(topic), new ConsumerRebalanceListener() {
+
+                @Override
+                public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+                    unassigned("revoked", partitions);
+                }
+
+                @Override
+                public void onPartitionsLost(Collection<TopicPartition> partitions) {
+                    unassigned("lost", partitions);
+                }
+
+                @Override
+                public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                    kafkaConsumer.pause(kafkaConsumer.assignment());
+                    assigned(kafkaConsumer);
+                }
+            });
+
+            while (running) {
+                kafkaConsumer.poll(pollTimeout);
+            }
+        } catch (WakeupException e) {
+            log.debug("Fetch coordinator stopped");
+        } catch (Exception e) {
+            log.error("Fetch coordination on {} failed, falling back to fetching every currency after {} ms: {}",
+                    topic, fallbackAfter.toMillis(), e.getMessage(), e);
+        } finally {
+            consumer = null;
+            markUnassigned();
+        }
+    }
+
+    private void assigned(Consumer<String, ExchangeRateData> kafkaConsumer) {
+        List<PartitionInfo> partitionInfos = kafkaConsumer.partitionsFor(topic);
+        partitionCount = partitionInfos != null ? partitionInfos.size() : 0;
+        Set<Integer> owned = kafkaConsumer.assignment().stream()
+                .map(TopicPartition::partition)
+                .collect(Collectors.toCollection(TreeSet::new));
+        soleMember = partitionCount > 0 && owned.size() >= partitionCount;
+        everAssigned = true;
+        ownedPartitions = owned;
+        log.info("Fetch ownership assigned: partitions {} of {} on {}", ownedPartitions, partitionCount, topic);
+    }
+
+    /**
+     * Attribution incomplète : en protocole coopératif, les partitions conservées restent à cette instance
+     */
+    private void unassigned(String reason, Collection<TopicPartition> partitions) {
+        if (partitions.isEmpty()) {
+            return;
+        }
+        Consumer<String, ExchangeRateData> current = consumer;
+        Set<Integer> remaining = current == null ? Set.of() : current.assignment().stream()
+                .filter(partition -> !partitions.contains(partition))
+                .map(TopicPartition::partition)
+                .collect(Collectors.toCollection(TreeSet::new));
+        log.info("Fetch ownership {} for partitions {}", reason, partitions);
+        if (remaining.isEmpty()) {
+            markUnassigned();
+        } else {
+            // Partitions cédées à un autre membre : l'instance n'est plus seule dans le groupe
+            soleMember = false;
+            ownedPartitions = remaining;
+        }
+    }
+
+    private void markUnassigned() {
+        if (ownedPartitions != null) {
+            unassignedSince = System.nanoTime();
+        }
+        ownedPartitions = null;
+    }
+}
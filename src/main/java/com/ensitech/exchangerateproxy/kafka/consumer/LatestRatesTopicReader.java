@@ -0,0 +1,178 @@
+package com.ensitech.exchangerateproxy.kafka.consumer;
+
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import com.ensitech.exchangerateproxy.service.LatestRateCache;
+import com.ensitech.exchangerateproxy.service.RateHistoryStore;
+import com.ensitech.exchangerateproxy.service.RateStreamBroadcaster;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.RecordDeserializationException;
+import org.apache.kafka.common.errors.WakeupException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lecture du topic compacté des derniers taux, sur toutes ses partitions et sans groupe de consommateurs :
+ * chaque instance reconstruit au démarrage le cache des derniers taux (une valeur par devise),
+ * puis le maintient à jour au fil des publications.
+ * <p>
+ * Le démarrage attend la fin de la relecture (dans la limite de {@code warmup-timeout}) avant
+ * l'ouverture du serveur web : les premières requêtes sont servies depuis le cache, sans Elasticsearch.
+ */
+@Component
+@ConditionalOnProperty(name = "exchange-rate.kafka.latest.enabled", havingValue = "true", matchIfMissing = true)
+@RequiredArgsConstructor
+@Slf4j
+public class LatestRatesTopicReader implements SmartLifecycle {
+
+    private final ConsumerFactory<String, ExchangeRateData> consumerFactory;
+
+    private final LatestRateCache latestRateCache;
+
+    private final RateStreamBroadcaster rateStreamBroadcaster;
+
+    private final RateHistoryStore rateHistoryStore;
+
+    @Value("${exchange-rate.kafka.latest-topic:exchange-rates-latest}")
+    private String topic;
+
+    @Value("${exchange-rate.kafka.latest.warmup-timeout:30s}")
+    private Duration warmupTimeout;
+
+    @Value("${exchange-rate.kafka.latest.poll-timeout:1s}")
+    private Duration pollTimeout;
+
+    private final CountDownLatch restored = new CountDownLatch(1);
+
+    private volatile boolean running;
+    private volatile Consumer<String, ExchangeRateData> consumer;
+    private Thread reader;
+
+    @Override
+    public void start() {
+        running = true;
+        reader = Thread.ofPlatform().daemon().name("latest-rates-reader").start(this::run);
+        try {
+            if (!restored.await(warmupTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                log.warn("Latest rates not restored from {} within {} ms, starting with a partial cache",
+                        topic, warmupTimeout.toMillis());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        Consumer<String, ExchangeRateData> current = consumer;
+        if (current != null) {
+            current.wakeup();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Avant le serveur web, pour que la relecture soit terminée quand le trafic arrive
+     */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 2048;
+    }
+
+    public boolean isRestored() {
+        return restored.getCount() == 0;
+    }
+
+    private void run() {
+        // Lecture depuis le début, sans validation d'offsets : le groupe n'est pas utilisé
+        Properties overrides = new Properties();
+        overrides.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        overrides.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+
+        try (Consumer<String, ExchangeRateData> kafkaConsumer =
+                     consumerFactory.createConsumer(null, "latest-rates", null, overrides)) {
+            consumer = kafkaConsumer;
+
+            List<PartitionInfo> partitionInfos = kafkaConsumer.partitionsFor(topic);
+            if (partitionInfos == null || partitionInfos.isEmpty()) {
+                log.warn("Latest rates topic {} not found, skipping warm start", topic);
+                return;
+            }
+            List<TopicPartition> partitions = partitionInfos.stream()
+                    .map(info -> new TopicPartition(topic, info.partition()))
+                    .toList();
+            kafkaConsumer.assign(partitions);
+            kafkaConsumer.seekToBeginning(partitions);
+            Map<TopicPartition, Long> endOffsets = kafkaConsumer.endOffsets(partitions);
+
+            long start = System.nanoTime();
+            long restoredRecords = 0;
+            while (running) {
+                try {
+                    for (ConsumerRecord<String, ExchangeRateData> record : kafkaConsumer.poll(pollTimeout)) {
+                        apply(record.value());
+                        restoredRecords++;
+                    }
+                } catch (RecordDeserializationException e) {
+                    log.error("Skipping unreadable record at {}@{}: {}",
+                            e.topicPartition(), e.offset(), e.getMessage());
+                    kafkaConsumer.seek(e.topicPartition(), e.offset() + 1);
+                }
+
+                if (!isRestored() && caughtUp(kafkaConsumer, endOffsets)) {
+                    restored.countDown();
+                    log.info("Restored latest rates from {} records of {} in {} ms", restoredRecords, topic,
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                }
+            }
+        } catch (WakeupException e) {
+            log.debug("Latest rates reader stopped");
+        } catch (Exception e) {
+            log.error("Error reading latest rates topic {}: {}", topic, e.getMessage(), e);
+        } finally {
+            consumer = null;
+            restored.countDown();
+        }
+    }
+
+    /**
+     * Met à jour le cache ; une fois la relecture terminée, les nouveaux snapshots sont aussi diffusés
+     * (les doublons avec le consommateur principal sont ignorés par le diffuseur)
+     */
+    private void apply(ExchangeRateData data) {
+        // Valeur nulle : suppression de la clé dans le topic compacté
+        if (data == null || data.getBaseCurrency() == null || data.getRates() == null) {
+            return;
+        }
+        latestRateCache.put(data);
+        rateHistoryStore.record(data);
+        if (isRestored()) {
+            rateStreamBroadcaster.publish(data);
+        }
+    }
+
+    private static boolean caughtUp(Consumer<?, ?> kafkaConsumer, Map<TopicPartition, Long> endOffsets) {
+        return endOffsets.entrySet().stream()
+                .allMatch(end -> kafkaConsumer.position(end.getKey()) >= end.getValue());
+    }
+}
@@ -0,0 +1,237 @@
+package com.ensitech.exchangerateproxy.kafka.producer;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publication Kafka découplée du cycle de récupération des taux.
+ * <p>
+ * Les messages sont déposés dans une outbox bornée, vidée par un thread dédié : un broker lent
+ * ou indisponible ne bloque jamais l'appelant. Un snapshot complet n'est jamais envoyé si un snapshot plus récent
+ * a entre-temps été publié pour la même clé (topic et devise) : il est ignoré à l'envoi comme à la reprise.
+ * Les autres messages (deltas) ne se cumulent pas et sont toujours envoyés.
+ * Outbox pleine, les snapshots ainsi remplacés sont retirés en premier ; à défaut, le plus ancien est abandonné.
+ * Un envoi en échec après les tentatives du producteur est reprogrammé.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ExchangeRatePublisher implements MeterBinder {
+
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${exchange-rate.kafka.outbox.capacity:1000}")
+    private int capacity;
+
+    @Value("${exchange-rate.kafka.outbox.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${exchange-rate.kafka.outbox.retry-backoff:1s}")
+    private Duration retryBackoff;
+
+    private BlockingQueue<OutboxEntry> outbox;
+
+    // Dernière séquence publiée par topic et clé, pour ne pas renvoyer un message dépassé
+    private final Map<String, Long> latestSequenceByKey = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final ExecutorService sender =
+            Executors.newSingleThreadExecutor(Thread.ofVirtual().name("kafka-outbox").factory());
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder superseded = new LongAdder();
+
+    @PostConstruct
+    void start() {
+        outbox = new ArrayBlockingQueue<>(capacity);
+        sender.execute(this::drain);
+    }
+
+    /**
+     * Dépose un message dans l'outbox, sans jamais bloquer ; il est envoyé même si d'autres messages
+     * suivent pour la même clé
+     */
+    public void publish(String topic, String key, Object value) {
+        enqueue(new OutboxEntry(topic, key, value, sequence.incrementAndGet(), false, 1));
+    }
+
+    /**
+     * Dépose un snapshot complet dans l'outbox, sans jamais bloquer : remplacé par un snapshot plus récent
+     * de la même clé, il n'est plus envoyé
+     */
+    public void publishSnapshot(String topic, String key, Object value) {
+        long entrySequence = sequence.incrementAndGet();
+        latestSequenceByKey.put(topic + '/' + key, entrySequence);
+        enqueue(new OutboxEntry(topic, key, value, entrySequence, true, 1));
+    }
+
+    private void enqueue(OutboxEntry entry) {
+        while (!outbox.offer(entry)) {
+            if (outbox.removeIf(this::isSuperseded)) {
+                continue;
+            }
+            OutboxEntry oldest = outbox.poll();
+            if (oldest != null) {
+                dropped.increment();
+                log.warn("Kafka outbox full, dropping oldest message for {} on {}", oldest.key(), oldest.topic());
+            }
+        }
+    }
+
+    /**
+     * Nombre de messages en attente d'envoi
+     */
+    public int pending() {
+        return outbox.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("exchangerate.kafka.outbox.size", this, ExchangeRatePublisher::pending)
+                .description("Messages waiting in the Kafka outbox")
+                .register(registry);
+        FunctionCounter.builder("exchangerate.kafka.outbox.dropped", dropped, LongAdder::sum)
+                .description("Messages dropped because the Kafka outbox was full")
+                .register(registry);
+        FunctionCounter.builder("exchangerate.kafka.outbox.retried", retried, LongAdder::sum)
+                .description("Kafka sends rescheduled after a delivery failure")
+                .register(registry);
+        FunctionCounter.builder("exchangerate.kafka.outbox.failed", failed, LongAdder::sum)
+                .description("Messages abandoned after the last delivery attempt")
+                .register(registry);
+        FunctionCounter.builder("exchangerate.kafka.outbox.superseded", superseded, LongAdder::sum)
+                .description("Messages not sent because a newer message was published for the same key")
+                .register(registry);
+    }
+
+    /**
+     * Envoie les messages restants avant l'arrêt du producteur
+     */
+    @PreDestroy
+    void shutdown() {
+        sender.shutdownNow();
+        List<OutboxEntry> remaining = new ArrayList<>();
+        outbox.drainTo(remaining);
+        remaining.forEach(this::send);
+        if (!remaining.isEmpty()) {
+            kafkaTemplate.flush();
+            log.info("Flushed {} pending Kafka messages on shutdown", remaining.size());
+        }
+    }
+
+    private void drain() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                send(outbox.take());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void send(OutboxEntry entry) {
+        if (isSuperseded(entry)) {
+            superseded.increment();
+            log.debug("Skipping Kafka send to {} for {}, superseded by a newer message", entry.topic(), entry.key());
+            return;
+        }
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            kafkaTemplate.send(entry.topic(), entry.key(), entry.value())
+                    .whenComplete((result, error) -> {
+                        sample.stop(sendTimer(entry.topic(), error));
+                        if (error != null) {
+                            onFailure(entry, error);
+                        }
+                    });
+        } catch (Exception e) {
+            sample.stop(sendTimer(entry.topic(), e));
+            onFailure(entry, e);
+        }
+    }
+
+    private void onFailure(OutboxEntry entry, Throwable error) {
+        if (isSuperseded(entry)) {
+            superseded.increment();
+            log.warn("Kafka send to {} failed for {}, superseded by a newer message: {}",
+                    entry.topic(), entry.key(), error.getMessage());
+            return;
+        }
+        if (entry.attempt() >= maxAttempts) {
+            failed.increment();
+            log.error("Kafka send to {} failed for {} after {} attempts: {}",
+                    entry.topic(), entry.key(), entry.attempt(), error.getMessage());
+            return;
+        }
+
+        retried.increment();
+        log.warn("Kafka send to {} failed for {} (attempt {}), retrying: {}",
+                entry.topic(), entry.key(), entry.attempt(), error.getMessage());
+        // Reprise différée, hors du thread d'envoi et du callback du producteur
+        long delay = retryBackoff.toMillis() * entry.attempt();
+        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> {
+            if (!outbox.offer(entry.nextAttempt())) {
+                dropped.increment();
+                log.warn("Kafka outbox full, dropping retry for {} on {}", entry.key(), entry.topic());
+            }
+        });
+    }
+
+    /**
+     * Vrai pour un snapshot dont un plus récent a été publié pour le même topic et la même clé
+     */
+    private boolean isSuperseded(OutboxEntry entry) {
+        if (!entry.replaceable()) {
+            return false;
+        }
+        Long latest = latestSequenceByKey.get(entry.topic() + '/' + entry.key());
+        return latest != null && latest > entry.sequence();
+    }
+
+    /**
+     * Latence d'envoi Kafka, de l'appel à l'acquittement du broker
+     */
+    private Timer sendTimer(String topic, Throwable error) {
+        return Timer.builder("exchangerate.kafka.send")
+                .description("Kafka send latency until broker acknowledgement")
+                .tag("topic", topic)
+                .tag("outcome", error == null ? "success" : "failure")
+                .register(meterRegistry);
+    }
+
+    private record OutboxEntry(String topic, String key, Object value, long sequence, boolean replaceable,
+                               int attempt) {
+
+        OutboxEntry nextAttempt() {
+            return new OutboxEntry(topic, key, value, sequence, replaceable, attempt + 1);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.ensitech.exchangerateproxy.kafka.serialization;
+
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import org.apache.kafka.common.errors.SerializationException;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Format binaire compact pour ExchangeRateData.
+ * <p>
+ * Les taux sont écrits sous forme d'un tableau ordonné par index de devise
+ * (dictionnaire fixe ci-dessous), chaque valeur étant un long mis à l'échelle
+ * (valeur non mise à l'échelle + échelle du BigDecimal), donc sans perte.
+ * Les devises absentes du dictionnaire sont écrites en clair.
+ * <p>
+ * Disposition : magic (2 octets) | version | id | baseCurrency | source | provider
+ * | timestamp | dateUnix | nombre de taux | taux...
+ * Chaque taux commence par l'écart d'index avec la devise précédente (0 = code en clair).
+ * Entiers en varint (zigzag pour les valeurs signées), chaînes en UTF-8 préfixées par leur longueur.
+ */
+public final class ExchangeRateBinaryCodec {
+
+    static final byte MAGIC_0 = 'X';
+    static final byte MAGIC_1 = 'R';
+    static final byte VERSION = 1;
+
+    // Ne jamais réordonner : les nouvelles devises s'ajoutent en fin de liste
+    private static final String[] CURRENCY_DICTIONARY = {
+            "USD", "EUR", "GBP", "JPY", "CHF", "CAD", "AUD", "CNY", "AED", "AFN",
+            "ALL", "AMD", "ANG", "AOA", "ARS", "AWG", "AZN", "BAM", "BBD", "BDT",
+            "BGN", "BHD", "BIF", "BMD", "BND", "BOB", "BRL", "BSD", "BTN", "BWP",
+            "BYN", "BZD", "CDF", "CLP", "COP", "CRC", "CUP", "CVE", "CZK", "DJF",
+            "DKK", "DOP", "DZD", "EGP", "ERN", "ETB", "FJD", "FKP", "FOK", "GEL",
+            "GGP", "GHS", "GIP", "GMD", "GNF", "GTQ", "GYD", "HKD", "HNL", "HRK",
+            "HTG", "HUF", "IDR", "ILS", "IMP", "INR", "IQD", "IRR", "ISK", "JEP",
+            "JMD", "JOD", "KES", "KGS", "KHR", "KID", "KMF", "KRW", "KWD", "KYD",
+            "KZT", "LAK", "LBP", "LKR", "LRD", "LSL", "LYD", "MAD", "MDL", "MGA",
+            "MKD", "MMK", "MNT", "MOP", "MRU", "MUR", "MVR", "MWK", "MXN", "MYR",
+            "MZN", "NAD", "NGN", "NIO", "NOK", "NPR", "NZD", "OMR", "PAB", "PEN",
+            "PGK", "PHP", "PKR", "PLN", "PYG", "QAR", "RON", "RSD", "RUB", "RWF",
+            "SAR", "SBD", "SCR", "SDG", "SEK", "SGD", "SHP", "SLE", "SLL", "SOS",
+            "SRD", "SSP", "STN", "SYP", "SZL", "THB", "TJS", "TMT", "TND", "TOP",
+            "TRY", "TTD", "TVD", "TWD", "TZS", "UAH", "UGX", "UYU", "UZS", "VES",
+            "VND", "VUV", "WST", "XAF", "XCD", "XDR", "XOF", "XPF", "YER", "ZAR",
+            "ZMW", "ZWL", "XCG", "ZWG"
+    };
+
+    private static final Map<String, Integer> DICTIONARY_INDEX = new HashMap<>();
+
+    static {
+        for (int i = 0; i < CURRENCY_DICTIONARY.length; i++) {
+            DICTIONARY_INDEX.put(CURRENCY_DICTIONARY[i], i);
+        }
+    }
+
+    private ExchangeRateBinaryCodec() {
+    }
+
+    /**
+     * Indique si le contenu commence par l'en-tête du format binaire
+     */
+    public static boolean isBinary(byte[] data) {
+        return data != null && data.length >= 3 && data[0] == MAGIC_0 && data[1] == MAGIC_1;
+    }
+
+    public static byte[] encode(ExchangeRateData data) {
+        Writer out = new Writer(512);
+        out.writeByte(MAGIC_0);
+        out.writeByte(MAGIC_1);
+        out.writeByte(VERSION);
+
+        out.writeString(data.getId());
+        out.writeString(data.getBaseCurrency());
+        out.writeString(data.getSource());
+        out.writeString(data.getProvider());
+
+        LocalDateTime timestamp = data.getTimestamp();
+        if (timestamp == null) {
+            out.writeByte(0);
+        } else {
+            out.writeByte(1);
+            out.writeSignedVarLong(timestamp.toEpochSecond(ZoneOffset.UTC));
+            out.writeVarLong(timestamp.getNano());
+        }
+
+        if (data.getDateUnix() == null) {
+            out.writeByte(0);
+        } else {
+            out.writeByte(1);
+            out.writeSignedVarLong(data.getDateUnix());
+        }
+
+        Map<String, BigDecimal> rates = data.getRates();
+        if (rates == null) {
+            out.writeVarLong(0);
+            return out.toByteArray();
+        }
+        out.writeVarLong(rates.size() + 1L);
+
+        List<Map.Entry<String, BigDecimal>> entries = new ArrayList<>(rates.entrySet());
+        entries.sort(Comparator.comparingInt(entry -> dictionaryIndex(entry.getKey())));
+        int previousIndex = -1;
+        for (Map.Entry<String, BigDecimal> entry : entries) {
+            Integer index = DICTIONARY_INDEX.get(entry.getKey());
+            if (index != null) {
+                out.writeVarLong(index - previousIndex);
+                previousIndex = index;
+            } else {
+                out.writeVarLong(0);
+                out.writeString(entry.getKey());
+            }
+            out.writeDecimal(entry.getValue());
+        }
+        return out.toByteArray();
+    }
+
+    public static ExchangeRateData decode(byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (in.get() != MAGIC_0 || in.get() != MAGIC_1) {
+            throw new IllegalArgumentException("Not a binary exchange rate payload");
+        }
+        byte version = in.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported binary exchange rate version: " + version);
+        }
+
+        ExchangeRateData data = new ExchangeRateData();
+        data.setId(readString(in));
+        data.setBaseCurrency(readString(in));
+        data.setSource(readString(in));
+        data.setProvider(readString(in));
+
+        if (in.get() == 1) {
+            long epochSecond = readSignedVarLong(in);
+            int nanos = (int) readVarLong(in);
+            data.setTimestamp(LocalDateTime.ofEpochSecond(epochSecond, nanos, ZoneOffset.UTC));
+        }
+        if (in.get() == 1) {
+            data.setDateUnix(readSignedVarLong(in));
+        }
+
+        long count = readVarLong(in);
+        if (count > 0) {
+            Map<String, BigDecimal> rates = new LinkedHashMap<>((int) (count * 4 / 3) + 1);
+            int previousIndex = -1;
+            for (long i = 1; i < count; i++) {
+                int delta = (int) readVarLong(in);
+                String currency;
+                if (delta == 0) {
+                    currency = readString(in);
+                } else {
+                    previousIndex += delta;
+                    if (previousIndex < 0 || previousIndex >= CURRENCY_DICTIONARY.length) {
+                        // Producteur avec un dictionnaire plus récent que celui de ce consommateur
+                        throw new SerializationException("Currency index " + previousIndex
+                                + " is outside the dictionary of binary format version " + VERSION
+                                + " (" + CURRENCY_DICTIONARY.length + " currencies); the producer uses a newer dictionary");
+                    }
+                    currency = CURRENCY_DICTIONARY[previousIndex];
+                }
+                rates.put(currency, readDecimal(in));
+            }
+            data.setRates(rates);
+        }
+        return data;
+    }
+
+    /**
+     * Devises connues du dictionnaire, dans l'ordre de leur index
+     */
+    static List<String> knownCurrencies() {
+        return List.of(CURRENCY_DICTIONARY);
+    }
+
+    private static int dictionaryIndex(String currency) {
+        return DICTIONARY_INDEX.getOrDefault(currency, Integer.MAX_VALUE);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = (int) readVarLong(in);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static BigDecimal readDecimal(ByteBuffer in) {
+        long header = readSignedVarLong(in);
+        int scale = (int) (header >> 1);
+        if ((header & 1) == 0) {
+            return BigDecimal.valueOf(readSignedVarLong(in), scale);
+        }
+        byte[] magnitude = new byte[(int) readVarLong(in)];
+        in.get(magnitude);
+        return new BigDecimal(new BigInteger(magnitude), scale);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static long readSignedVarLong(ByteBuffer in) {
+        long raw = readVarLong(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    /**
+     * Tampon d'écriture avec encodage varint
+     */
+    private static final class Writer extends ByteArrayOutputStream {
+
+        Writer(int size) {
+            super(size);
+        }
+
+        void writeByte(int b) {
+            write(b);
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeSignedVarLong(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1L);
+            write(bytes, 0, bytes.length);
+        }
+
+        // En-tête = échelle * 2 + 1 si la valeur ne tient pas dans un long
+        void writeDecimal(BigDecimal value) {
+            BigInteger unscaled = value.unscaledValue();
+            if (unscaled.bitLength() < 64) {
+                writeSignedVarLong((long) value.scale() << 1);
+                writeSignedVarLong(unscaled.longValue());
+            } else {
+                writeSignedVarLong(((long) value.scale() << 1) | 1);
+                byte[] magnitude = unscaled.toByteArray();
+                writeVarLong(magnitude.length);
+                write(magnitude, 0, magnitude.length);
+            }
+        }
+    }
+}
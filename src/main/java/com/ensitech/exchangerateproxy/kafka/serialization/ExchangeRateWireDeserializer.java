@@ -0,0 +1,50 @@
+package com.ensitech.exchangerateproxy.kafka.serialization;
+
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Désérialiseur Kafka acceptant les deux formats d'ExchangeRateData.
+ * Le format est choisi par l'en-tête {@code rate-format}, à défaut par l'en-tête magique du contenu :
+ * producteurs JSON et binaires peuvent donc coexister sur le même topic.
+ */
+public class ExchangeRateWireDeserializer implements Deserializer<ExchangeRateData> {
+
+    private final JsonDeserializer<ExchangeRateData> jsonDeserializer =
+            new JsonDeserializer<>(ExchangeRateData.class, false);
+
+    @Override
+    public ExchangeRateData deserialize(String topic, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        if (ExchangeRateBinaryCodec.isBinary(data)) {
+            return ExchangeRateBinaryCodec.decode(data);
+        }
+        return jsonDeserializer.deserialize(topic, data);
+    }
+
+    @Override
+    public ExchangeRateData deserialize(String topic, Headers headers, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        Header format = headers.lastHeader(ExchangeRateWireSerializer.FORMAT_HEADER);
+        if (format != null) {
+            return ExchangeRateWireSerializer.BINARY_FORMAT.equals(new String(format.value(), StandardCharsets.UTF_8))
+                    ? ExchangeRateBinaryCodec.decode(data)
+                    : jsonDeserializer.deserialize(topic, data);
+        }
+        return deserialize(topic, data);
+    }
+
+    @Override
+    public void close() {
+        jsonDeserializer.close();
+    }
+}
@@ -0,0 +1,63 @@
+package com.ensitech.exchangerateproxy.kafka.serialization;
+
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Serializer;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Sérialiseur Kafka sélectionnant le format des ExchangeRateData :
+ * JSON (par défaut) ou binaire compact ({@link ExchangeRateBinaryCodec}).
+ * <p>
+ * Activation : {@code spring.kafka.producer.value-serializer} sur cette classe et
+ * {@code spring.kafka.producer.properties.exchange-rate.wire-format=binary}.
+ * Les autres types de messages restent en JSON.
+ */
+public class ExchangeRateWireSerializer implements Serializer<Object> {
+
+    public static final String WIRE_FORMAT_CONFIG = "exchange-rate.wire-format";
+    public static final String FORMAT_HEADER = "rate-format";
+    public static final String BINARY_FORMAT = "binary";
+
+    private static final byte[] BINARY_FORMAT_BYTES = BINARY_FORMAT.getBytes(StandardCharsets.UTF_8);
+
+    private final JsonSerializer<Object> jsonSerializer = new JsonSerializer<>();
+
+    private boolean binary;
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        Object format = configs.get(WIRE_FORMAT_CONFIG);
+        binary = format != null && BINARY_FORMAT.equalsIgnoreCase(format.toString().trim());
+        jsonSerializer.configure(configs, isKey);
+    }
+
+    @Override
+    public byte[] serialize(String topic, Object data) {
+        if (binary && data instanceof ExchangeRateData exchangeRateData) {
+            return ExchangeRateBinaryCodec.encode(exchangeRateData);
+        }
+        return jsonSerializer.serialize(topic, data);
+    }
+
+    @Override
+    public byte[] serialize(String topic, Headers headers, Object data) {
+        if (binary && data instanceof ExchangeRateData exchangeRateData) {
+            headers.add(FORMAT_HEADER, BINARY_FORMAT_BYTES);
+            return ExchangeRateBinaryCodec.encode(exchangeRateData);
+        }
+        return jsonSerializer.serialize(topic, headers, data);
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    @Override
+    public void close() {
+        jsonSerializer.close();
+    }
+}
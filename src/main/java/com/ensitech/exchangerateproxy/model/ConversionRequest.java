@@ -0,0 +1,28 @@
+package com.ensitech.exchangerateproxy.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Ligne d'une conversion par lot : montant, devise source, devise cible et date de valeur facultative
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ConversionRequest {
+
+    private BigDecimal amount;
+
+    private String from;
+
+    private String to;
+
+    // Taux en vigueur à cette date ; absent = derniers taux connus
+    private LocalDateTime asOf;
+}
@@ -0,0 +1,41 @@
+package com.ensitech.exchangerateproxy.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Résultat d'une ligne de conversion ; en cas d'échec, seul le message d'erreur est renseigné
+ * en plus de la demande
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ConversionResult {
+
+    private BigDecimal amount;
+
+    private String from;
+
+    private String to;
+
+    private LocalDateTime asOf;
+
+    private BigDecimal rate;
+
+    private BigDecimal converted;
+
+    // Snapshot utilisé, identique pour toutes les lignes d'un lot de même date de valeur
+    private String snapshotId;
+
+    private LocalDateTime rateTimestamp;
+
+    private String error;
+}
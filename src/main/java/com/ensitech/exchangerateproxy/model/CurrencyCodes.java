@@ -0,0 +1,89 @@
+package com.ensitech.exchangerateproxy.model;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registre des codes devises, internés en petits identifiants entiers.
+ * Les identifiants sont propres au processus (ne pas les persister ni les transmettre).
+ */
+public final class CurrencyCodes {
+
+    private static final Map<String, Integer> IDS = new ConcurrentHashMap<>();
+
+    private static volatile String[] codes = new String[256];
+
+    private static volatile int size;
+
+    private CurrencyCodes() {
+    }
+
+    /**
+     * Identifiant d'un code déjà connu, ou -1. N'alloue rien si le code est déjà en majuscules.
+     */
+    public static int idOf(String code) {
+        if (code == null) {
+            return -1;
+        }
+        Integer id = IDS.get(code);
+        if (id == null && !isUpperCase(code)) {
+            id = IDS.get(code.toUpperCase(Locale.ROOT));
+        }
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Identifiant d'un code, attribué à la première rencontre
+     */
+    public static int intern(String code) {
+        int id = idOf(code);
+        return id >= 0 ? id : register(normalize(code));
+    }
+
+    public static String codeOf(int id) {
+        return codes[id];
+    }
+
+    /**
+     * Nombre d'identifiants attribués (borne exclusive des identifiants)
+     */
+    public static int count() {
+        return size;
+    }
+
+    /**
+     * Code en majuscules, sans copie s'il l'est déjà
+     */
+    public static String normalize(String code) {
+        String trimmed = code.trim();
+        return isUpperCase(trimmed) ? trimmed : trimmed.toUpperCase(Locale.ROOT);
+    }
+
+    private static synchronized int register(String code) {
+        Integer existing = IDS.get(code);
+        if (existing != null) {
+            return existing;
+        }
+        int id = size;
+        if (id == codes.length) {
+            codes = Arrays.copyOf(codes, codes.length * 2);
+        }
+        // Le code est publié dans le tableau avant de l'être dans la map
+        codes[id] = code;
+        size = id + 1;
+        IDS.put(code, id);
+        return id;
+    }
+
+    private static boolean isUpperCase(String code) {
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
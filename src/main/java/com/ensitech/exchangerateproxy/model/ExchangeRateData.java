@@ -1,13 +1,14 @@
 package com.ensitech.exchangerateproxy.model;
 
-import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.AccessType;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.elasticsearch.annotations.Document;
 import org.springframework.data.elasticsearch.annotations.Field;
 import org.springframework.data.elasticsearch.annotations.FieldType;
+import org.springframework.data.elasticsearch.annotations.WriteTypeHint;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
@@ -16,8 +17,9 @@ import java.util.Map;
 @Data
 @Builder
 @NoArgsConstructor
-@AllArgsConstructor
-@Document(indexName = "exchange-rates")
+// Lecture par alias sur les index partitionnés, créés par ExchangeRateIndexManager
+// (mapping : resources/elasticsearch/exchange-rates-template.json) ; pas de champ _class stocké
+@Document(indexName = "exchange-rates-read", createIndex = false, writeTypeHint = WriteTypeHint.FALSE)
 public class ExchangeRateData {
     @Id
     private String id;
@@ -31,27 +33,62 @@ public class ExchangeRateData {
     @Field(type = FieldType.Long)
     private Long dateUnix;
 
+    // Stocké en RateTable ; la vue Map ne sert qu'aux sérialisations JSON et Elasticsearch
     @Field(type = FieldType.Object)
+    @AccessType(AccessType.Type.PROPERTY)
     private Map<String, BigDecimal> rates;
 
     @Field(type = FieldType.Keyword)
     private String source;
 
-    @Field(type = FieldType.Text)
+    @Field(type = FieldType.Keyword, index = false, docValues = false)
     private String provider;
 
+    // Constructeur du builder : les taux sont convertis en RateTable ici aussi, jamais à la lecture
+    public ExchangeRateData(String id, String baseCurrency, LocalDateTime timestamp, Long dateUnix,
+                            Map<String, BigDecimal> rates, String source, String provider) {
+        this.id = id;
+        this.baseCurrency = baseCurrency;
+        this.timestamp = timestamp;
+        this.dateUnix = dateUnix;
+        setRates(rates);
+        this.source = source;
+        this.provider = provider;
+    }
+
     // Méthode utilitaire pour générer un ID unique
     public void generateId() {
         this.id = baseCurrency + "_" + timestamp.toString().replace(":", "-");
     }
 
-    // Méthode pour obtenir le taux d'une devise spécifique
+    public void setRates(Map<String, BigDecimal> rates) {
+        this.rates = rates != null ? RateTable.of(rates) : null;
+    }
+
+    // Table primitive des taux : toute affectation passe par setRates, la lecture n'écrit rien
+    public RateTable rateTable() {
+        return (RateTable) rates;
+    }
+
+    // Méthode pour obtenir le taux d'une devise spécifique (insensible à la casse)
     public BigDecimal getRateFor(String currency) {
-        return rates != null ? rates.get(currency.toUpperCase()) : null;
+        RateTable table = rateTable();
+        return table != null ? table.get(currency) : null;
     }
 
     // Méthode pour vérifier si une devise est disponible
     public boolean hasCurrency(String currency) {
-        return rates != null && rates.containsKey(currency.toUpperCase());
+        RateTable table = rateTable();
+        return table != null && table.containsKey(currency);
+    }
+
+    /**
+     * Le builder convertit lui aussi les taux en RateTable
+     */
+    public static class ExchangeRateDataBuilder {
+        public ExchangeRateDataBuilder rates(Map<String, BigDecimal> rates) {
+            this.rates = rates != null ? RateTable.of(rates) : null;
+            return this;
+        }
     }
 }
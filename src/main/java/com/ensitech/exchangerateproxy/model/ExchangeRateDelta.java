@@ -0,0 +1,44 @@
+package com.ensitech.exchangerateproxy.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Événement ne contenant que les taux modifiés depuis le snapshot précédent
+ */
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExchangeRateDelta {
+
+    private String snapshotId;
+
+    private String previousSnapshotId;
+
+    private String baseCurrency;
+
+    private LocalDateTime timestamp;
+
+    private Long dateUnix;
+
+    private Long previousDateUnix;
+
+    // Nouveaux taux et taux dont la valeur a changé
+    private Map<String, BigDecimal> changedRates;
+
+    // Devises qui ne figurent plus dans le snapshot
+    private List<String> removedCurrencies;
+
+    public boolean isEmpty() {
+        return (changedRates == null || changedRates.isEmpty())
+                && (removedCurrencies == null || removedCurrencies.isEmpty());
+    }
+}
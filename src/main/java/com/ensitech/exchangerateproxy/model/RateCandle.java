@@ -0,0 +1,39 @@
+package com.ensitech.exchangerateproxy.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Agrégat d'un taux sur un intervalle : ouverture, plus haut, plus bas, clôture et moyenne
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class RateCandle {
+
+    private String baseCurrency;
+
+    private String targetCurrency;
+
+    // Début de l'intervalle
+    private LocalDateTime start;
+
+    private BigDecimal open;
+
+    private BigDecimal high;
+
+    private BigDecimal low;
+
+    private BigDecimal close;
+
+    private BigDecimal avg;
+
+    // Nombre de snapshots agrégés
+    private long count;
+}
@@ -0,0 +1,226 @@
+package com.ensitech.exchangerateproxy.model;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Table de taux immuable, indexée par identifiant de devise ({@link CurrencyCodes}).
+ * <p>
+ * Chaque taux est stocké sans perte sous forme primitive (valeur non mise à l'échelle
+ * + échelle du BigDecimal) dans des tableaux indexés par identifiant : la recherche est en O(1)
+ * et {@link #doubleValue(int)} n'alloue rien. Le BigDecimal d'un taux n'est créé qu'à sa première
+ * lecture, puis réutilisé. La vue {@link Map} n'est utilisée qu'aux frontières (JSON, Elasticsearch).
+ */
+public final class RateTable extends AbstractMap<String, BigDecimal> {
+
+    private static final byte ABSENT = Byte.MIN_VALUE;
+    private static final byte OVERFLOW = Byte.MAX_VALUE;
+
+    // Identifiants présents, dans l'ordre d'insertion
+    private final int[] currencyIds;
+    private final long[] unscaledValues;
+    private final byte[] scales;
+    // Valeurs ne tenant pas dans un long ou avec une échelle hors bornes, rarement utilisé
+    private final BigDecimal[] overflow;
+
+    // BigDecimal de chaque taux déjà lu ; comme le hash, course bénigne : valeurs immuables et identiques
+    private BigDecimal[] decimals;
+
+    private int hash;
+    private Set<Entry<String, BigDecimal>> entrySet;
+
+    private RateTable(int[] currencyIds, long[] unscaledValues, byte[] scales, BigDecimal[] overflow) {
+        this.currencyIds = currencyIds;
+        this.unscaledValues = unscaledValues;
+        this.scales = scales;
+        this.overflow = overflow;
+    }
+
+    /**
+     * Construit la table à partir d'une map (les valeurs nulles sont ignorées)
+     */
+    public static RateTable of(Map<String, BigDecimal> rates) {
+        if (rates instanceof RateTable table) {
+            return table;
+        }
+
+        int[] ids = new int[rates.size()];
+        int count = 0;
+        int maxId = -1;
+        for (Map.Entry<String, BigDecimal> entry : rates.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) {
+                continue;
+            }
+            int id = CurrencyCodes.intern(entry.getKey());
+            ids[count++] = id;
+            maxId = Math.max(maxId, id);
+        }
+
+        long[] unscaledValues = new long[maxId + 1];
+        byte[] scales = new byte[maxId + 1];
+        Arrays.fill(scales, ABSENT);
+        BigDecimal[] overflow = null;
+
+        int index = 0;
+        for (Map.Entry<String, BigDecimal> entry : rates.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) {
+                continue;
+            }
+            int id = ids[index++];
+            BigDecimal value = entry.getValue();
+            BigInteger unscaled = value.unscaledValue();
+            if (unscaled.bitLength() < 64 && value.scale() > ABSENT && value.scale() < OVERFLOW) {
+                unscaledValues[id] = unscaled.longValue();
+                scales[id] = (byte) value.scale();
+            } else {
+                if (overflow == null) {
+                    overflow = new BigDecimal[maxId + 1];
+                }
+                overflow[id] = value;
+                scales[id] = OVERFLOW;
+            }
+        }
+
+        // Doublons de code (casse différente) : seule la dernière valeur est retenue
+        int[] distinct = Arrays.stream(ids, 0, count).distinct().toArray();
+        return new RateTable(distinct, unscaledValues, scales, overflow);
+    }
+
+    /**
+     * Indique si la table contient un taux pour l'identifiant donné
+     */
+    public boolean contains(int currencyId) {
+        return currencyId >= 0 && currencyId < scales.length && scales[currencyId] != ABSENT;
+    }
+
+    /**
+     * Taux pour un identifiant de devise, ou null
+     */
+    public BigDecimal rate(int currencyId) {
+        if (!contains(currencyId)) {
+            return null;
+        }
+        byte scale = scales[currencyId];
+        if (scale == OVERFLOW) {
+            return overflow[currencyId];
+        }
+        BigDecimal[] cache = decimals;
+        if (cache == null) {
+            cache = new BigDecimal[scales.length];
+            decimals = cache;
+        }
+        BigDecimal value = cache[currencyId];
+        if (value == null) {
+            value = BigDecimal.valueOf(unscaledValues[currencyId], scale);
+            cache[currencyId] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Taux en double, sans allocation ; NaN si la devise est absente
+     */
+    public double doubleValue(int currencyId) {
+        if (!contains(currencyId)) {
+            return Double.NaN;
+        }
+        byte scale = scales[currencyId];
+        if (scale == OVERFLOW) {
+            return overflow[currencyId].doubleValue();
+        }
+        long unscaled = unscaledValues[currencyId];
+        return scale >= 0 && scale < POWERS_OF_TEN.length
+                ? unscaled / POWERS_OF_TEN[scale]
+                : BigDecimal.valueOf(unscaled, scale).doubleValue();
+    }
+
+    public double doubleValue(String currency) {
+        return doubleValue(CurrencyCodes.idOf(currency));
+    }
+
+    /**
+     * Identifiants des devises présentes, dans l'ordre d'insertion
+     */
+    public int currencyIdAt(int index) {
+        return currencyIds[index];
+    }
+
+    /**
+     * Estimation de l'empreinte mémoire de la table, en octets
+     */
+    public long estimatedBytes() {
+        return 64L + 4L * currencyIds.length + 9L * scales.length
+                + (overflow != null ? 8L * overflow.length : 0);
+    }
+
+    @Override
+    public BigDecimal get(Object key) {
+        return key instanceof String currency ? rate(CurrencyCodes.idOf(currency)) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String currency && contains(CurrencyCodes.idOf(currency));
+    }
+
+    @Override
+    public int size() {
+        return currencyIds.length;
+    }
+
+    @Override
+    public Set<Entry<String, BigDecimal>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, BigDecimal>> iterator() {
+                    return new Iterator<>() {
+                        private int index;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < currencyIds.length;
+                        }
+
+                        @Override
+                        public Entry<String, BigDecimal> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            int id = currencyIds[index++];
+                            return new SimpleImmutableEntry<>(CurrencyCodes.codeOf(id), rate(id));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return currencyIds.length;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = super.hashCode();
+            hash = h;
+        }
+        return h;
+    }
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+    };
+}
@@ -1,13 +1,34 @@
 package com.ensitech.exchangerateproxy.scheduler;
 
+import com.ensitech.exchangerateproxy.kafka.consumer.FetchCoordinator;
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import com.ensitech.exchangerateproxy.service.CrossRateEngine;
+import com.ensitech.exchangerateproxy.service.ExchangeRateIndexManager;
 import com.ensitech.exchangerateproxy.service.ExchangeRateService;
+import com.ensitech.exchangerateproxy.service.UpstreamCircuitBreaker;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
 
 @Component
 @RequiredArgsConstructor
@@ -16,11 +37,35 @@ public class ScheduledTasks {
 
     private final ExchangeRateService exchangeRateService;
 
+    private final CrossRateEngine crossRateEngine;
+
+    private final UpstreamCircuitBreaker circuitBreaker;
+
+    private final ExchangeRateIndexManager indexManager;
+
+    private final FetchCoordinator fetchCoordinator;
+
     @Value("${exchange-rate.api.default-base-currency}")
     private String defaultBaseCurrency;
 
     // Liste des principales devises à surveiller
-    private final List<String> mainCurrencies = List.of("USD", "EUR", "GBP", "JPY", "CHF", "CAD", "AUD");
+    @Value("${exchange-rate.scheduler.currencies:USD,EUR,GBP,JPY,CHF,CAD,AUD}")
+    private List<String> mainCurrencies;
+
+    // Récupération en parallèle (threads virtuels) ou séquentielle
+    @Value("${exchange-rate.scheduler.parallel:true}")
+    private boolean parallel;
+
+    @Value("${exchange-rate.scheduler.max-concurrency:4}")
+    private int maxConcurrency;
+
+    @Value("${exchange-rate.scheduler.per-currency-timeout:10s}")
+    private Duration perCurrencyTimeout;
+
+    @Value("${exchange-rate.scheduler.cycle-deadline:45s}")
+    private Duration cycleDeadline;
+
+    private final ExecutorService fetchExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
     /**
      * Tâche programmée pour récupérer les taux de change toutes les minutes
@@ -28,36 +73,147 @@ public class ScheduledTasks {
     @Scheduled(fixedRateString = "${exchange-rate.scheduler.fixed-rate}",
             initialDelayString = "${exchange-rate.scheduler.initial-delay}")
     public void fetchExchangeRatesScheduled() {
-        log.info("Starting scheduled exchange rate fetch");
+        if (!circuitBreaker.allowsRequest()) {
+            log.warn("Upstream circuit is {}, skipping scheduled exchange rate fetch", circuitBreaker.getState());
+            return;
+        }
+        // Avec plusieurs instances, chacune ne récupère que les devises qui lui sont attribuées
+        Set<String> currencies = fetchCoordinator.ownedAmong(currenciesToFetch());
+        if (currencies.isEmpty()) {
+            log.debug("All currencies are fetched by other instances, skipping scheduled fetch");
+            return;
+        }
+        log.info("Starting scheduled exchange rate fetch for {}", currencies);
+        long start = System.nanoTime();
+
+        Map<String, String> report = parallel
+                ? fetchInParallel(currencies)
+                : fetchSequentially(currencies);
 
-        // Récupération pour la devise de base par défaut
-        exchangeRateService.fetchExchangeRates(defaultBaseCurrency);
+        log.info("Completed scheduled exchange rate fetch in {} ms: {}",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), report);
+    }
 
-        // Récupération pour les autres principales devises
+    /**
+     * Devise de base par défaut en premier, puis les autres devises configurées.
+     * En mode taux croisés, toutes se ramènent à la seule devise pivot.
+     */
+    private Set<String> currenciesToFetch() {
+        Set<String> currencies = new LinkedHashSet<>();
+        currencies.add(crossRateEngine.upstreamCurrencyFor(defaultBaseCurrency.trim().toUpperCase()));
         mainCurrencies.stream()
-                .filter(currency -> !currency.equals(defaultBaseCurrency))
-                .forEach(currency -> {
-                    try {
-                        Thread.sleep(100); // Petite pause pour éviter de surcharger l'API
-                        exchangeRateService.fetchExchangeRates(currency);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        log.error("Thread interrupted while fetching rates for {}", currency);
-                    }
-                });
-
-        log.info("Completed scheduled exchange rate fetch");
+                .map(currency -> currency.trim().toUpperCase())
+                .filter(currency -> !currency.isEmpty())
+                .map(crossRateEngine::upstreamCurrencyFor)
+                .forEach(currencies::add);
+        return currencies;
+    }
+
+    private Map<String, String> fetchSequentially(Set<String> currencies) {
+        Map<String, String> report = new LinkedHashMap<>();
+        for (String currency : currencies) {
+            report.put(currency, timedFetch(currency));
+        }
+        return report;
+    }
+
+    /**
+     * Lance toutes les devises en même temps sur des threads virtuels,
+     * avec une concurrence bornée, un délai par devise et une échéance globale
+     */
+    Map<String, String> fetchInParallel(Set<String> currencies) {
+        Semaphore permits = new Semaphore(Math.max(1, maxConcurrency));
+        Map<String, Future<String>> tasks = currencies.stream()
+                .collect(Collectors.toMap(currency -> currency,
+                        currency -> fetchExecutor.submit(() -> fetchWithPermit(currency, permits)),
+                        (first, second) -> first,
+                        LinkedHashMap::new));
+
+        long deadline = System.nanoTime() + cycleDeadline.toNanos();
+        Map<String, String> report = new LinkedHashMap<>();
+        tasks.forEach((currency, task) -> {
+            long remaining = deadline - System.nanoTime();
+            try {
+                report.put(currency, task.get(Math.max(0, remaining), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                task.cancel(true);
+                log.warn("Cycle deadline reached before {} was fetched", currency);
+                report.put(currency, "DEADLINE");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                task.cancel(true);
+                report.put(currency, "INTERRUPTED");
+            } catch (ExecutionException e) {
+                log.error("Scheduled fetch failed for {}: {}", currency, e.getCause().getMessage());
+                report.put(currency, "ERROR");
+            }
+        });
+        return report;
+    }
+
+    private String fetchWithPermit(String currency, Semaphore permits) throws InterruptedException {
+        permits.acquire();
+        try {
+            Future<String> fetch = fetchExecutor.submit(() -> timedFetch(currency));
+            try {
+                return fetch.get(perCurrencyTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                fetch.cancel(true);
+                log.warn("Fetch for {} exceeded {} ms, skipping it for this cycle",
+                        currency, perCurrencyTimeout.toMillis());
+                return "TIMEOUT";
+            } catch (InterruptedException e) {
+                // Tâche annulée à l'échéance du cycle : l'appel en cours est interrompu avec elle
+                fetch.cancel(true);
+                Thread.currentThread().interrupt();
+                return "INTERRUPTED";
+            } catch (ExecutionException e) {
+                log.error("Fetch for {} failed: {}", currency, e.getCause().getMessage());
+                return "ERROR";
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private String timedFetch(String currency) {
+        long start = System.nanoTime();
+        Optional<ExchangeRateData> result = exchangeRateService.fetchExchangeRates(currency);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.debug("Fetched {} in {} ms", currency, elapsedMs);
+        return (result.isPresent() ? "OK " : "EMPTY ") + elapsedMs + "ms";
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        fetchExecutor.shutdownNow();
+    }
+
+    /**
+     * Bascule de l'alias d'écriture sur la partition du jour
+     */
+    @Scheduled(cron = "0 0 0 * * *") // Tous les jours à minuit
+    public void rolloverIndices() {
+        try {
+            indexManager.rollover(LocalDateTime.now());
+        } catch (Exception e) {
+            log.error("Index rollover failed: {}", e.getMessage(), e);
+        }
     }
 
     /**
-     * Tâche de nettoyage quotidien des anciennes données (optionnel)
+     * Tâche de nettoyage quotidien des anciennes données :
+     * suppression des partitions hors rétention (sous-échantillonnées au préalable si activé)
      */
     @Scheduled(cron = "0 0 2 * * *") // Tous les jours à 2h du matin
     public void dailyCleanup() {
         log.info("Starting daily cleanup task");
-        // Ici vous pourriez ajouter une logique pour supprimer les anciennes données
-        // si nécessaire pour optimiser l'espace de stockage
-        log.info("Daily cleanup completed");
+        try {
+            List<String> dropped = indexManager.applyRetention(LocalDateTime.now());
+            log.info("Daily cleanup completed, {} indices dropped: {}", dropped.size(), dropped);
+        } catch (Exception e) {
+            log.error("Daily cleanup failed: {}", e.getMessage(), e);
+        }
     }
 
     /**
@@ -69,4 +225,4 @@ public class ScheduledTasks {
         // Ici vous pourriez ajouter des statistiques, alertes, etc.
         log.info("Weekly monitoring completed");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,139 @@
+package com.ensitech.exchangerateproxy.service;
+
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import jakarta.annotation.PostConstruct;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Calcule les taux croisés à partir d'un snapshot pivot (ex : USD) :
+ * taux(base -> cible) = taux(pivot -> cible) / taux(pivot -> base).
+ * Un seul appel à l'API externe suffit ainsi pour toutes les devises de base.
+ */
+@Component
+@Slf4j
+public class CrossRateEngine {
+
+    @Getter
+    @Value("${exchange-rate.cross-rate.enabled:true}")
+    private boolean enabled;
+
+    @Getter
+    @Value("${exchange-rate.api.default-base-currency}")
+    private String pivotCurrency;
+
+    // Nombre de chiffres significatifs conservés pour les taux dérivés
+    @Value("${exchange-rate.cross-rate.precision:12}")
+    private int precision;
+
+    @Value("${exchange-rate.cross-rate.rounding-mode:HALF_EVEN}")
+    private RoundingMode roundingMode;
+
+    @Getter
+    private MathContext mathContext;
+
+    // Snapshots dérivés, recalculés uniquement lorsque le pivot change
+    private final Map<String, DerivedSnapshot> derivedByBaseCurrency = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() {
+        pivotCurrency = pivotCurrency.trim().toUpperCase();
+        mathContext = new MathContext(precision, roundingMode);
+        log.info("Cross-rate engine {} with pivot {} ({})", enabled ? "enabled" : "disabled", pivotCurrency, mathContext);
+    }
+
+    /**
+     * Devise à demander à l'API externe pour servir une devise de base
+     */
+    public String upstreamCurrencyFor(String baseCurrency) {
+        return enabled ? pivotCurrency : baseCurrency;
+    }
+
+    /**
+     * Taux croisé entre deux devises à partir du snapshot pivot
+     */
+    public Optional<BigDecimal> crossRate(ExchangeRateData pivot, String baseCurrency, String targetCurrency) {
+        BigDecimal pivotToTarget = pivot.getRateFor(targetCurrency);
+        if (pivotToTarget == null) {
+            return Optional.empty();
+        }
+        if (baseCurrency.equals(pivot.getBaseCurrency())) {
+            return Optional.of(pivotToTarget);
+        }
+        BigDecimal pivotToBase = pivot.getRateFor(baseCurrency);
+        if (pivotToBase == null || pivotToBase.signum() == 0) {
+            return Optional.empty();
+        }
+        return Optional.of(pivotToTarget.divide(pivotToBase, mathContext));
+    }
+
+    /**
+     * Snapshot complet pour une devise de base, dérivé du snapshot pivot
+     */
+    public Optional<ExchangeRateData> derive(ExchangeRateData pivot, String baseCurrency) {
+        if (baseCurrency.equals(pivot.getBaseCurrency())) {
+            return Optional.of(pivot);
+        }
+
+        DerivedSnapshot cached = derivedByBaseCurrency.get(baseCurrency);
+        if (cached != null && Objects.equals(cached.pivotId(), pivot.getId())) {
+            return Optional.of(cached.data());
+        }
+
+        Optional<ExchangeRateData> derived = compute(pivot, baseCurrency, null);
+        derived.ifPresent(data -> derivedByBaseCurrency.put(baseCurrency, new DerivedSnapshot(pivot.getId(), data)));
+        return derived;
+    }
+
+    /**
+     * Snapshot dérivé d'un snapshot pivot historique, sans passer par le cache (qui ne garde
+     * que le dernier pivot par devise). Avec une devise cible, seul ce taux est calculé.
+     */
+    public Optional<ExchangeRateData> deriveHistorical(ExchangeRateData pivot, String baseCurrency,
+                                                       String targetCurrency) {
+        if (baseCurrency.equals(pivot.getBaseCurrency())) {
+            return Optional.of(pivot);
+        }
+        return compute(pivot, baseCurrency, targetCurrency);
+    }
+
+    private Optional<ExchangeRateData> compute(ExchangeRateData pivot, String baseCurrency, String targetCurrency) {
+        BigDecimal pivotToBase = pivot.getRateFor(baseCurrency);
+        if (pivotToBase == null || pivotToBase.signum() == 0) {
+            return Optional.empty();
+        }
+
+        Map<String, BigDecimal> rates = new LinkedHashMap<>();
+        if (targetCurrency != null) {
+            crossRate(pivot, baseCurrency, targetCurrency).ifPresent(rate -> rates.put(targetCurrency, rate));
+        } else {
+            pivot.getRates().forEach((currency, pivotToTarget) -> rates.put(currency,
+                    currency.equals(baseCurrency) ? BigDecimal.ONE : pivotToTarget.divide(pivotToBase, mathContext)));
+        }
+
+        ExchangeRateData derived = ExchangeRateData.builder()
+                .baseCurrency(baseCurrency)
+                .timestamp(pivot.getTimestamp())
+                .dateUnix(pivot.getDateUnix())
+                .rates(rates)
+                .source("CROSS_" + pivot.getBaseCurrency())
+                .provider(pivot.getProvider())
+                .build();
+        derived.generateId();
+        return Optional.of(derived);
+    }
+
+    private record DerivedSnapshot(String pivotId, ExchangeRateData data) {
+    }
+}
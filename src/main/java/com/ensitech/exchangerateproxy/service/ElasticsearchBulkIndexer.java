@@ -0,0 +1,232 @@
+package com.ensitech.exchangerateproxy.service;
+
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.BulkFailureException;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.query.IndexQuery;
+import org.springframework.data.elasticsearch.core.query.IndexQueryBuilder;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indexation asynchrone (write-behind) des taux de change dans Elasticsearch.
+ * Les documents sont mis en file puis envoyés par l'API bulk, par taille ou par délai,
+ * en dehors du thread appelant.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ElasticsearchBulkIndexer {
+
+    private final ElasticsearchOperations elasticsearchOperations;
+
+    private final MeterRegistry meterRegistry;
+
+    private final ExchangeRateIndexManager indexManager;
+
+    @Value("${exchange-rate.elasticsearch.bulk.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${exchange-rate.elasticsearch.bulk.batch-size:500}")
+    private int batchSize;
+
+    @Value("${exchange-rate.elasticsearch.bulk.flush-interval:1s}")
+    private Duration flushInterval;
+
+    // Attente maximale de l'appelant lorsque la file est pleine
+    @Value("${exchange-rate.elasticsearch.bulk.offer-timeout:50ms}")
+    private Duration offerTimeout;
+
+    @Value("${exchange-rate.elasticsearch.bulk.max-retries:3}")
+    private int maxRetries;
+
+    @Value("${exchange-rate.elasticsearch.bulk.retry-backoff:200ms}")
+    private Duration retryBackoff;
+
+    private BlockingQueue<ExchangeRateData> queue;
+    private Thread worker;
+    private volatile boolean running;
+
+    private Timer flushTimer;
+    private Counter indexedDocuments;
+    private Counter failedDocuments;
+    private Counter rejectedDocuments;
+
+    @PostConstruct
+    void start() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        Gauge.builder("exchangerate.es.bulk.queue.depth", queue, BlockingQueue::size)
+                .description("Documents waiting to be bulk indexed")
+                .register(meterRegistry);
+        flushTimer = Timer.builder("exchangerate.es.bulk.flush")
+                .description("Bulk flush latency, retries included")
+                .register(meterRegistry);
+        indexedDocuments = documentCounter("indexed");
+        failedDocuments = documentCounter("failed");
+        rejectedDocuments = documentCounter("rejected");
+
+        running = true;
+        worker = Thread.ofPlatform().name("es-bulk-indexer").daemon().start(this::run);
+        log.info("Elasticsearch bulk indexer started (batch size {}, flush interval {} ms, capacity {})",
+                batchSize, flushInterval.toMillis(), queueCapacity);
+    }
+
+    /**
+     * Met un document en file d'indexation.
+     * Retourne false si la file est restée pleine au-delà du délai d'attente.
+     */
+    public boolean enqueue(ExchangeRateData exchangeRateData) {
+        try {
+            if (queue.offer(exchangeRateData, offerTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        rejectedDocuments.increment();
+        log.warn("Bulk indexing queue full, dropping document {}", exchangeRateData.getId());
+        return false;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    private void run() {
+        List<ExchangeRateData> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                ExchangeRateData first = queue.poll(flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                long flushDeadline = System.nanoTime() + flushInterval.toNanos();
+                while (batch.size() < batchSize) {
+                    long remaining = flushDeadline - System.nanoTime();
+                    ExchangeRateData next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                flush(batch);
+            } catch (InterruptedException e) {
+                flush(batch);
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Unexpected error in bulk indexer: {}", e.getMessage(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Envoie un lot via l'API bulk en ne réessayant que les documents en échec
+     */
+    private void flush(List<ExchangeRateData> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<ExchangeRateData> pending = batch;
+
+        for (int attempt = 0; !pending.isEmpty(); attempt++) {
+            int sent = pending.size();
+            try {
+                elasticsearchOperations.bulkIndex(toIndexQueries(pending), ExchangeRateData.class);
+                indexedDocuments.increment(sent);
+                pending = List.of();
+            } catch (BulkFailureException e) {
+                Set<String> failedIds = e.getFailedDocuments().keySet();
+                List<ExchangeRateData> failed = pending.stream()
+                        .filter(data -> failedIds.contains(data.getId()))
+                        .toList();
+                indexedDocuments.increment(sent - failed.size());
+                log.warn("Bulk indexing partially failed: {} of {} documents", failed.size(), sent);
+                pending = failed;
+            } catch (Exception e) {
+                log.warn("Bulk indexing of {} documents failed: {}", sent, e.getMessage());
+            }
+
+            if (!pending.isEmpty()) {
+                if (attempt >= maxRetries) {
+                    failedDocuments.increment(pending.size());
+                    log.error("Giving up indexing {} documents after {} retries", pending.size(), maxRetries);
+                    break;
+                }
+                if (!sleepBeforeRetry(attempt)) {
+                    failedDocuments.increment(pending.size());
+                    break;
+                }
+            }
+        }
+
+        flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        log.trace("Flushed {} documents to Elasticsearch", batch.size());
+    }
+
+    /**
+     * Les documents sont écrits via l'alias d'écriture, qui désigne la partition courante
+     */
+    private List<IndexQuery> toIndexQueries(List<ExchangeRateData> documents) {
+        String target = indexManager.writeAlias();
+        return documents.stream()
+                .map(data -> new IndexQueryBuilder()
+                        .withId(data.getId())
+                        .withObject(data)
+                        .withIndex(target)
+                        .build())
+                .toList();
+    }
+
+    private boolean sleepBeforeRetry(int attempt) {
+        try {
+            Thread.sleep(retryBackoff.toMillis() << Math.min(attempt, 6));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private Counter documentCounter(String result) {
+        return Counter.builder("exchangerate.es.bulk.documents")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        try {
+            worker.join(flushInterval.toMillis() * 2 + 5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            log.warn("Bulk indexer stopped with {} documents not indexed", queue.size());
+        }
+    }
+}
@@ -1,35 +1,118 @@
 package com.ensitech.exchangerateproxy.service;
 
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregate;
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregation;
+import co.elastic.clients.elasticsearch._types.aggregations.CalendarInterval;
+import co.elastic.clients.elasticsearch._types.aggregations.DateHistogramAggregation;
+import co.elastic.clients.elasticsearch._types.aggregations.DateHistogramBucket;
+import co.elastic.clients.elasticsearch._types.aggregations.TopMetrics;
 import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import com.ensitech.exchangerateproxy.model.RateCandle;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.elasticsearch.client.elc.ElasticsearchAggregations;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
 import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
 import org.springframework.data.elasticsearch.core.SearchHit;
 import org.springframework.data.elasticsearch.core.SearchHits;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
 import org.springframework.data.elasticsearch.core.query.Criteria;
 import org.springframework.data.elasticsearch.core.query.CriteriaQuery;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilterBuilder;
+import org.springframework.data.elasticsearch.core.query.Query;
+import org.springframework.data.elasticsearch.core.query.RuntimeField;
 import org.springframework.stereotype.Service;
 
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class ElasticsearchService {
 
+    private static final String CANDLES = "candles";
+
+    // Champ runtime des bougies inversées (1/taux), calculé à la requête
+    static final String INVERSE_RATE = "inverse_rate";
+
+    private static final Map<String, CalendarInterval> CALENDAR_INTERVALS = Map.of(
+            "1w", CalendarInterval.Week,
+            "1M", CalendarInterval.Month,
+            "1q", CalendarInterval.Quarter,
+            "1y", CalendarInterval.Year);
+
+    // Même ordre que le tri de l'index (exchange-rates-template.json) : Elasticsearch peut arrêter
+    // la recherche d'une devise au premier document trouvé
+    private static final Sort INDEX_SORT = Sort.by(Sort.Order.asc("baseCurrency"), Sort.Order.desc("timestamp"));
+
+    private static final Pattern FIXED_INTERVAL = Pattern.compile("\\d+(ms|s|m|h|d)");
+
     private final ElasticsearchOperations elasticsearchOperations;
 
+    private final ElasticsearchBulkIndexer bulkIndexer;
+
+    private final MeterRegistry meterRegistry;
+
+    private final ExchangeRateIndexManager indexManager;
+
+    @Value("${exchange-rate.history.page-size:100}")
+    private int defaultPageSize;
+
+    @Value("${exchange-rate.history.max-page-size:1000}")
+    private int maxPageSize;
+
+    // Taille des lots lus depuis Elasticsearch pour l'export en flux
+    @Value("${exchange-rate.history.stream-batch-size:1000}")
+    private int streamBatchSize;
+
+    @Value("${exchange-rate.history.pit-keep-alive:1m}")
+    private Duration pitKeepAlive;
+
+    @Value("${exchange-rate.history.max-candles:5000}")
+    private long maxCandles;
+
+    // Profondeur de recherche du dernier snapshot antérieur à une date de valeur
+    @Value("${exchange-rate.history.as-of-lookback:7d}")
+    private Duration asOfLookback;
+
+    /**
+     * Met le document en file d'indexation bulk, sans attendre Elasticsearch
+     */
     public void saveExchangeRate(ExchangeRateData exchangeRateData) {
+        Timer.Sample sample = Timer.start(meterRegistry);
         try {
-            elasticsearchOperations.save(exchangeRateData);
-            log.trace("Saved exchange rate data to Elastic Search : {}",
-                    exchangeRateData.getId());
+            boolean queued = bulkIndexer.enqueue(exchangeRateData);
+            sample.stop(operationTimer("save", queued ? "success" : "rejected"));
+            if (queued) {
+                log.trace("Queued exchange rate data for Elastic Search : {}",
+                        exchangeRateData.getId());
+            }
         } catch (Exception e) {
+            sample.stop(operationTimer("save", "error"));
             log.error(e.getMessage(), e);
         }
     }
@@ -38,9 +121,12 @@ public class ElasticsearchService {
         try {
             Criteria criteria = new Criteria("baseCurrency").is(baseCurrency);
             CriteriaQuery query = new CriteriaQuery(criteria)
-                    .setPageable(PageRequest.of(0, 1, Sort.by(Sort.Direction.DESC, "timestamp")));
+                    .setPageable(PageRequest.of(0, 1, INDEX_SORT));
+            // Tri identique à celui de l'index et sans comptage : la recherche s'arrête au premier document
+            query.setTrackTotalHits(false);
 
-            SearchHits<ExchangeRateData> searchHits = elasticsearchOperations.search(query, ExchangeRateData.class);
+            SearchHits<ExchangeRateData> searchHits = timed("latest",
+                    () -> elasticsearchOperations.search(query, ExchangeRateData.class));
 
             return searchHits.getSearchHits().stream()
                     .findFirst()
@@ -53,32 +139,315 @@ public class ElasticsearchService {
     }
 
     /**
-     * Trouve les taux de change dans une plage de dates
+     * Dernier snapshot d'une devise de base à une date donnée (le plus récent antérieur ou égal),
+     * recherché dans les partitions couvrant la profondeur configurée
      */
-    public List <ExchangeRateData> findByBaseCurrencyAndDateRange(
-            String baseCurrency,
-            LocalDateTime from,
-            LocalDateTime to)
-    {
+    public Optional<ExchangeRateData> findLatestAt(String baseCurrency, LocalDateTime asOf) {
         try {
             Criteria criteria = new Criteria("baseCurrency").is(baseCurrency)
-                    .and(new Criteria("timestamp").between(from, to));
-
+                    .and(new Criteria("timestamp").lessThanEqual(asOf));
             CriteriaQuery query = new CriteriaQuery(criteria)
-                    .setPageable(PageRequest.of(0, 100, Sort.by(Sort.Direction.DESC, "timestamp")));
+                    .setPageable(PageRequest.of(0, 1, INDEX_SORT));
+            query.setTrackTotalHits(false);
 
-            SearchHits<ExchangeRateData> searchHits = elasticsearchOperations.search(query, ExchangeRateData.class);
+            IndexCoordinates indices = indexManager.readIndicesFor(asOf.minus(asOfLookback), asOf);
+            SearchHits<ExchangeRateData> searchHits = timed("as-of",
+                    () -> elasticsearchOperations.search(query, ExchangeRateData.class, indices));
 
             return searchHits.getSearchHits().stream()
-                    .map(SearchHit::getContent)
-                    .collect(Collectors.toList());
+                    .findFirst()
+                    .map(SearchHit::getContent);
+
+        } catch (Exception e) {
+            log.error("Error finding exchange rates for {} as of {}: {}", baseCurrency, asOf, e.getMessage(), e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Page d'historique, du plus récent au plus ancien, reprise après le curseur de la page précédente
+     * (search_after sur le timestamp, unique pour une devise de base). Avec des devises cibles,
+     * seuls ces taux sont chargés depuis Elasticsearch.
+     */
+    public HistoryPage findHistoryPage(
+            String baseCurrency,
+            LocalDateTime from,
+            LocalDateTime to,
+            String cursor,
+            Integer size,
+            Collection<String> targetCurrencies)
+    {
+        List<Object> searchAfter = cursor != null ? decodeCursor(cursor) : null;
+        int pageSize = Math.min(size != null && size > 0 ? size : defaultPageSize, maxPageSize);
+
+        try {
+            // Un document de plus que la page pour savoir s'il existe une suite
+            CriteriaQuery query = historyQuery(baseCurrency, from, to, targetCurrencies, pageSize + 1);
+            if (searchAfter != null) {
+                query.setSearchAfter(searchAfter);
+            }
+
+            IndexCoordinates indices = indexManager.readIndicesFor(from, to);
+            SearchHits<ExchangeRateData> searchHits = timed("history",
+                    () -> elasticsearchOperations.search(query, ExchangeRateData.class, indices));
+
+            List<SearchHit<ExchangeRateData>> hits = searchHits.getSearchHits();
+            if (hits.size() <= pageSize) {
+                return new HistoryPage(hits.stream().map(SearchHit::getContent).toList(), null);
+            }
+            List<SearchHit<ExchangeRateData>> page = hits.subList(0, pageSize);
+            return new HistoryPage(page.stream().map(SearchHit::getContent).toList(),
+                    encodeCursor(page.get(pageSize - 1).getSortValues()));
 
         } catch (Exception e) {
             log.error("Error finding exchange rates by date range: {}", e.getMessage(), e);
+            return new HistoryPage(List.of(), null);
+        }
+    }
+
+    /**
+     * Parcourt tout l'historique d'une plage par lots, sur un point-in-time avec search_after :
+     * chaque document est transmis au consommateur puis oublié, la mémoire reste constante.
+     * Retourne le nombre de documents transmis.
+     */
+    public long streamHistory(
+            String baseCurrency,
+            LocalDateTime from,
+            LocalDateTime to,
+            Collection<String> targetCurrencies,
+            Consumer<ExchangeRateData> consumer)
+    {
+        String pointInTime = elasticsearchOperations.openPointInTime(
+                indexManager.readIndicesFor(from, to), pitKeepAlive);
+        long count = 0;
+        try {
+            List<Object> searchAfter = null;
+            while (true) {
+                CriteriaQuery query = historyQuery(baseCurrency, from, to, targetCurrencies, streamBatchSize);
+                query.setPointInTime(new Query.PointInTime(pointInTime, pitKeepAlive));
+                if (searchAfter != null) {
+                    query.setSearchAfter(searchAfter);
+                }
+
+                SearchHits<ExchangeRateData> searchHits = timed("history",
+                        () -> elasticsearchOperations.search(query, ExchangeRateData.class));
+                if (searchHits.getPointInTimeId() != null) {
+                    pointInTime = searchHits.getPointInTimeId();
+                }
+
+                List<SearchHit<ExchangeRateData>> hits = searchHits.getSearchHits();
+                for (SearchHit<ExchangeRateData> hit : hits) {
+                    consumer.accept(hit.getContent());
+                }
+                count += hits.size();
+                if (hits.size() < streamBatchSize) {
+                    return count;
+                }
+                searchAfter = hits.get(hits.size() - 1).getSortValues();
+            }
+        } finally {
+            try {
+                elasticsearchOperations.closePointInTime(pointInTime);
+            } catch (Exception e) {
+                log.warn("Could not close point in time after streaming {} documents: {}", count, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Historique d'un taux réduit à une bougie par intervalle (date_histogram côté Elasticsearch) :
+     * seules les agrégations sont transférées, pas les snapshots.
+     * L'intervalle est fixe (30s, 5m, 1h, 1d...) ou calendaire (1w, 1M, 1q, 1y).
+     */
+    public List<RateCandle> findCandles(
+            String baseCurrency,
+            String targetCurrency,
+            LocalDateTime from,
+            LocalDateTime to,
+            String interval)
+    {
+        return candles(baseCurrency, "rates." + targetCurrency, List.of(), baseCurrency, targetCurrency,
+                from, to, interval);
+    }
+
+    /**
+     * Bougies du taux inverse, cible -> base, lues sur la série de la base : toutes les agrégations portent
+     * sur un champ runtime 1/taux, la moyenne est donc bien celle des taux inversés (et non l'inverse
+     * de la moyenne). Sert aux devises dérivées du pivot, qui n'ont pas de série propre.
+     */
+    public List<RateCandle> findInverseCandles(
+            String baseCurrency,
+            String targetCurrency,
+            LocalDateTime from,
+            LocalDateTime to,
+            String interval)
+    {
+        RuntimeField inverseRate = new RuntimeField(INVERSE_RATE, "double",
+                "def rate = doc[params.field]; if (rate.size() > 0 && rate.value != 0) { emit(1.0 / rate.value); }",
+                Map.of("field", "rates." + targetCurrency));
+        return candles(baseCurrency, INVERSE_RATE, List.of(inverseRate), targetCurrency, baseCurrency,
+                from, to, interval);
+    }
+
+    private List<RateCandle> candles(String indexedBaseCurrency, String rateField, List<RuntimeField> runtimeFields,
+                                     String baseCurrency, String targetCurrency,
+                                     LocalDateTime from, LocalDateTime to, String interval) {
+        Consumer<DateHistogramAggregation.Builder> bucketing = histogramInterval(interval, from, to);
+
+        try {
+            NativeQuery query = NativeQuery.builder()
+                    .withQuery(q -> q.bool(b -> b
+                            .filter(f -> f.term(t -> t.field("baseCurrency").value(indexedBaseCurrency)))
+                            .filter(f -> f.range(r -> r.date(d -> d.field("timestamp")
+                                    .gte(from.toString())
+                                    .lte(to.toString()))))))
+                    .withAggregation(CANDLES, Aggregation.of(a -> a
+                            .dateHistogram(h -> {
+                                bucketing.accept(h.field("timestamp").minDocCount(1));
+                                return h;
+                            })
+                            .aggregations("low", sub -> sub.min(m -> m.field(rateField)))
+                            .aggregations("high", sub -> sub.max(m -> m.field(rateField)))
+                            .aggregations("avg", sub -> sub.avg(m -> m.field(rateField)))
+                            .aggregations("open", sub -> sub.topMetrics(t -> t
+                                    .metrics(m -> m.field(rateField))
+                                    .sort(o -> o.field(f -> f.field("timestamp").order(SortOrder.Asc)))
+                                    .size(1)))
+                            .aggregations("close", sub -> sub.topMetrics(t -> t
+                                    .metrics(m -> m.field(rateField))
+                                    .sort(o -> o.field(f -> f.field("timestamp").order(SortOrder.Desc)))
+                                    .size(1)))))
+                    .withRuntimeFields(runtimeFields)
+                    .withMaxResults(0)
+                    .withTrackTotalHits(false)
+                    .build();
+
+            IndexCoordinates indices = indexManager.readIndicesFor(from, to);
+            SearchHits<ExchangeRateData> searchHits = timed("candles",
+                    () -> elasticsearchOperations.search(query, ExchangeRateData.class, indices));
+
+            ElasticsearchAggregations aggregations = (ElasticsearchAggregations) searchHits.getAggregations();
+            if (aggregations == null || aggregations.get(CANDLES) == null) {
+                return List.of();
+            }
+            List<DateHistogramBucket> buckets = aggregations.get(CANDLES).aggregation().getAggregate()
+                    .dateHistogram().buckets().array();
+
+            List<RateCandle> candles = new ArrayList<>(buckets.size());
+            for (DateHistogramBucket bucket : buckets) {
+                candles.add(toCandle(bucket, rateField, baseCurrency, targetCurrency));
+            }
+            return candles;
+
+        } catch (Exception e) {
+            log.error("Error computing {} candles for {}/{}: {}", interval, baseCurrency, targetCurrency, e.getMessage(), e);
             return List.of();
         }
     }
 
+    /**
+     * Bougie d'un intervalle de l'histogramme, à partir des sous-agrégations open/high/low/close/avg
+     */
+    static RateCandle toCandle(DateHistogramBucket bucket, String rateField, String baseCurrency,
+                               String targetCurrency) {
+        Map<String, Aggregate> metrics = bucket.aggregations();
+        return RateCandle.builder()
+                .baseCurrency(baseCurrency)
+                .targetCurrency(targetCurrency)
+                .start(LocalDateTime.ofInstant(Instant.ofEpochMilli(bucket.key()), ZoneOffset.UTC))
+                .open(topMetric(metrics.get("open"), rateField))
+                .high(decimal(metrics.get("high").max().value()))
+                .low(decimal(metrics.get("low").min().value()))
+                .close(topMetric(metrics.get("close"), rateField))
+                .avg(decimal(metrics.get("avg").avg().value()))
+                .count(bucket.docCount())
+                .build();
+    }
+
+    /**
+     * Intervalle de l'histogramme ; refuse un intervalle inconnu, nul ou produisant trop de bougies
+     */
+    Consumer<DateHistogramAggregation.Builder> histogramInterval(String interval,
+                                                              LocalDateTime from, LocalDateTime to) {
+        if (interval == null || interval.isBlank()) {
+            throw new IllegalArgumentException("Missing candle interval");
+        }
+        CalendarInterval calendar = CALENDAR_INTERVALS.get(interval);
+        if (calendar != null) {
+            return histogram -> histogram.calendarInterval(calendar);
+        }
+        if (!FIXED_INTERVAL.matcher(interval).matches()) {
+            throw new IllegalArgumentException("Invalid candle interval: " + interval);
+        }
+        Duration width = DurationStyle.detectAndParse(interval);
+        if (width.isZero()) {
+            throw new IllegalArgumentException("Invalid candle interval: " + interval);
+        }
+        long buckets = Duration.between(from, to).toMillis() / width.toMillis();
+        if (buckets > maxCandles) {
+            throw new IllegalArgumentException("Interval " + interval + " yields " + buckets
+                    + " candles, more than the " + maxCandles + " allowed");
+        }
+        return histogram -> histogram.fixedInterval(t -> t.time(interval));
+    }
+
+    private static BigDecimal topMetric(Aggregate aggregate, String field) {
+        List<TopMetrics> top = aggregate.topMetrics().top();
+        if (top.isEmpty()) {
+            return null;
+        }
+        FieldValue value = top.get(0).metrics().get(field);
+        if (value == null || value.isNull()) {
+            return null;
+        }
+        return value.isLong() ? BigDecimal.valueOf(value.longValue()) : decimal(value.doubleValue());
+    }
+
+    private static BigDecimal decimal(Double value) {
+        return value == null || value.isNaN() || value.isInfinite() ? null : BigDecimal.valueOf(value);
+    }
+
+    private CriteriaQuery historyQuery(String baseCurrency, LocalDateTime from, LocalDateTime to,
+                                       Collection<String> targetCurrencies, int size) {
+        Criteria criteria = new Criteria("baseCurrency").is(baseCurrency)
+                .and(new Criteria("timestamp").between(from, to));
+
+        CriteriaQuery query = new CriteriaQuery(criteria)
+                .setPageable(PageRequest.of(0, size, Sort.by(Sort.Direction.DESC, "timestamp")));
+        query.setTrackTotalHits(false);
+        if (targetCurrencies != null && !targetCurrencies.isEmpty()) {
+            Stream<String> rateFields = targetCurrencies.stream().map(currency -> "rates." + currency);
+            query.addSourceFilter(new FetchSourceFilterBuilder()
+                    .withIncludes(Stream.concat(
+                                    Stream.of("id", "baseCurrency", "timestamp", "dateUnix", "source", "provider"),
+                                    rateFields)
+                            .toArray(String[]::new))
+                    .build());
+        }
+        return query;
+    }
+
+    /**
+     * Curseur opaque : valeurs de tri du dernier document, encodées en base64
+     */
+    static String encodeCursor(List<Object> sortValues) {
+        String joined = sortValues.stream().map(String::valueOf).collect(Collectors.joining(","));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(joined.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static List<Object> decodeCursor(String cursor) {
+        try {
+            String joined = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            List<Object> values = new ArrayList<>();
+            for (String value : joined.split(",")) {
+                values.add(Long.parseLong(value));
+            }
+            return values;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid history cursor: " + cursor, e);
+        }
+    }
+
     /**
      * Trouve tous les taux de change récents (dernières 24h)
      */
@@ -90,7 +459,9 @@ public class ElasticsearchService {
             CriteriaQuery query = new CriteriaQuery(criteria)
                     .setPageable(PageRequest.of(0, 50, Sort.by(Sort.Direction.DESC, "timestamp")));
 
-            SearchHits<ExchangeRateData> searchHits = elasticsearchOperations.search(query, ExchangeRateData.class);
+            IndexCoordinates indices = indexManager.readIndicesFor(yesterday, LocalDateTime.now());
+            SearchHits<ExchangeRateData> searchHits = timed("recent",
+                    () -> elasticsearchOperations.search(query, ExchangeRateData.class, indices));
 
             return searchHits.getSearchHits().stream()
                     .map(SearchHit::getContent)
@@ -107,11 +478,34 @@ public class ElasticsearchService {
      */
     public long countAll() {
         try {
-            return elasticsearchOperations.count(new CriteriaQuery(new Criteria()), ExchangeRateData.class);
+            return timed("count",
+                    () -> elasticsearchOperations.count(new CriteriaQuery(new Criteria()), ExchangeRateData.class));
         } catch (Exception e) {
             log.error("Error counting documents: {}", e.getMessage(), e);
             return 0;
         }
     }
 
+    /**
+     * Mesure la latence d'une opération Elasticsearch, succès comme échec
+     */
+    private <T> T timed(String operation, Supplier<T> call) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            T result = call.get();
+            sample.stop(operationTimer(operation, "success"));
+            return result;
+        } catch (RuntimeException e) {
+            sample.stop(operationTimer(operation, "error"));
+            throw e;
+        }
+    }
+
+    private Timer operationTimer(String operation, String outcome) {
+        return Timer.builder("exchangerate.es.operation")
+                .description("Elasticsearch save (queueing) and query latency")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
 }
@@ -0,0 +1,402 @@
+package com.ensitech.exchangerateproxy.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.IndexInformation;
+import org.springframework.data.elasticsearch.core.IndexOperations;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.index.AliasAction;
+import org.springframework.data.elasticsearch.core.index.AliasActionParameters;
+import org.springframework.data.elasticsearch.core.index.AliasActions;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.Criteria;
+import org.springframework.data.elasticsearch.core.query.CriteriaQuery;
+import org.springframework.data.elasticsearch.core.query.IndexQuery;
+import org.springframework.data.elasticsearch.core.query.IndexQueryBuilder;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Index Elasticsearch partitionnés par période (exchange-rates-yyyy.MM.dd ou exchange-rates-yyyy.MM).
+ * <p>
+ * Chaque document est écrit via l'alias d'écriture, qui désigne la partition courante ; un template
+ * d'index fixe le mapping et rattache toutes les partitions à l'alias de lecture. Les recherches sur
+ * une plage de dates ne ciblent que les partitions concernées, et la rétention supprime des index
+ * entiers, après sous-échantillonnage éventuel dans des index d'archive annuels, supprimés à leur tour
+ * après leur propre rétention.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ExchangeRateIndexManager {
+
+    public static final String INDEX_PREFIX = "exchange-rates-";
+    public static final String READ_ALIAS = "exchange-rates-read";
+    public static final String WRITE_ALIAS = "exchange-rates-write";
+    static final String ARCHIVE_PREFIX = "exchange-rates-archive-";
+
+    // Index unique des versions précédentes, rattaché à l'alias de lecture s'il existe
+    static final String LEGACY_INDEX = "exchange-rates";
+
+    private static final Pattern PARTITION = Pattern.compile("exchange-rates-(\\d{4}\\.\\d{2}(?:\\.\\d{2})?)");
+    private static final Pattern ARCHIVE = Pattern.compile("exchange-rates-archive-(\\d{4})");
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyyy.MM.dd");
+    private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyy.MM");
+
+    // Au-delà, une plage est ciblée par mois puis par année plutôt que partition par partition
+    private static final int MAX_DAY_PATTERNS = 31;
+    private static final int MAX_MONTH_PATTERNS = 24;
+
+    private static final int ARCHIVE_BATCH_SIZE = 500;
+
+    // Mapping explicite : taux en scaled_float (8 décimales), champs jamais recherchés non indexés, tri de l'index
+    static final String TEMPLATE_NAME = "exchange-rates";
+    private static final String TEMPLATE_PATH = "elasticsearch/exchange-rates-template.json";
+
+    public enum Period { DAILY, MONTHLY }
+
+    private final ElasticsearchOperations elasticsearchOperations;
+
+    private final ElasticsearchClient elasticsearchClient;
+
+    @Value("${exchange-rate.elasticsearch.index.period:daily}")
+    private Period period;
+
+    // Âge (fin de la période) au-delà duquel une partition est supprimée
+    @Value("${exchange-rate.elasticsearch.index.retention:90d}")
+    private Duration retention;
+
+    // Âge (fin de l'année) au-delà duquel une archive annuelle est supprimée
+    @Value("${exchange-rate.elasticsearch.index.downsample.retention:730d}")
+    private Duration archiveRetention;
+
+    // Conserve un snapshot par devise et par intervalle avant suppression
+    @Value("${exchange-rate.elasticsearch.index.downsample.enabled:false}")
+    private boolean downsampleEnabled;
+
+    @Value("${exchange-rate.elasticsearch.index.downsample.interval:1h}")
+    private Duration downsampleInterval;
+
+    private final Set<String> knownIndices = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean templateInstalled;
+
+    // Partition désignée par l'alias d'écriture depuis le dernier rollover
+    private volatile String writeIndex;
+
+    private volatile boolean legacyIndexPresent;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        try {
+            rollover(LocalDateTime.now());
+            IndexOperations legacy = elasticsearchOperations.indexOps(IndexCoordinates.of(LEGACY_INDEX));
+            if (legacy.exists()) {
+                legacy.alias(new AliasActions(new AliasAction.Add(AliasActionParameters.builder()
+                        .withIndices(LEGACY_INDEX)
+                        .withAliases(READ_ALIAS)
+                        .build())));
+                legacyIndexPresent = true;
+                log.info("Legacy index {} attached to read alias {}", LEGACY_INDEX, READ_ALIAS);
+            }
+        } catch (Exception e) {
+            log.error("Could not initialise exchange rate indices: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Nom de la partition d'un timestamp
+     */
+    public String indexFor(LocalDateTime timestamp) {
+        return INDEX_PREFIX + (period == Period.DAILY ? DAY : MONTH).format(timestamp);
+    }
+
+    /**
+     * Cible des écritures : l'alias d'écriture, basculé sur la nouvelle partition
+     * dès la première écriture de la période sans attendre le rollover planifié
+     */
+    public String writeAlias() {
+        LocalDateTime now = LocalDateTime.now();
+        if (!indexFor(now).equals(writeIndex)) {
+            synchronized (this) {
+                if (!indexFor(now).equals(writeIndex)) {
+                    rollover(now);
+                }
+            }
+        }
+        return WRITE_ALIAS;
+    }
+
+    /**
+     * Index à interroger pour une plage de dates : un motif par partition couverte,
+     * regroupés par mois ou par année pour les longues plages. Sans plage, l'alias de lecture.
+     */
+    public IndexCoordinates readIndicesFor(LocalDateTime from, LocalDateTime to) {
+        if (from == null || to == null || from.isAfter(to)) {
+            return IndexCoordinates.of(READ_ALIAS);
+        }
+
+        // Les motifs se terminent par * : une partition absente ne provoque pas d'erreur.
+        // Un document est écrit dans la partition courante à son indexation : celui daté
+        // de la fin d'une période peut se trouver dans la partition suivante.
+        Set<String> patterns = new LinkedHashSet<>();
+        LocalDateTime end = to.plusDays(1);
+        LocalDate firstDay = from.toLocalDate();
+        LocalDate lastDay = end.toLocalDate();
+        YearMonth firstMonth = YearMonth.from(from);
+        YearMonth lastMonth = YearMonth.from(end);
+        if (period == Period.DAILY && ChronoUnit.DAYS.between(firstDay, lastDay) < MAX_DAY_PATTERNS) {
+            for (LocalDate day = firstDay; !day.isAfter(lastDay); day = day.plusDays(1)) {
+                patterns.add(INDEX_PREFIX + DAY.format(day) + "*");
+            }
+        } else if (ChronoUnit.MONTHS.between(firstMonth, lastMonth) < MAX_MONTH_PATTERNS) {
+            for (YearMonth month = firstMonth; !month.isAfter(lastMonth); month = month.plusMonths(1)) {
+                patterns.add(INDEX_PREFIX + MONTH.format(month) + "*");
+            }
+        } else {
+            for (int year = from.getYear(); year <= end.getYear(); year++) {
+                patterns.add(INDEX_PREFIX + year + ".*");
+            }
+        }
+
+        if (downsampleEnabled) {
+            for (int year = from.getYear(); year <= to.getYear(); year++) {
+                patterns.add(ARCHIVE_PREFIX + year + "*");
+            }
+        }
+        // Données antérieures au partitionnement, filtrées par la requête sur le timestamp
+        if (legacyIndexPresent) {
+            patterns.add(LEGACY_INDEX);
+        }
+        return IndexCoordinates.of(patterns.toArray(String[]::new));
+    }
+
+    /**
+     * Crée la partition courante et y fait pointer l'alias d'écriture
+     */
+    public void rollover(LocalDateTime now) {
+        String current = indexFor(now);
+        ensureIndex(current);
+
+        IndexOperations partitions = elasticsearchOperations.indexOps(IndexCoordinates.of(INDEX_PREFIX + "*"));
+        List<String> holders = partitions.getAliasesForIndex(INDEX_PREFIX + "*").entrySet().stream()
+                .filter(entry -> entry.getValue().stream().anyMatch(alias -> WRITE_ALIAS.equals(alias.getAlias())))
+                .map(Map.Entry::getKey)
+                .toList();
+        if (holders.equals(List.of(current))) {
+            writeIndex = current;
+            return;
+        }
+
+        // Bascule atomique : retrait des anciennes partitions et ajout de la courante en une seule requête
+        List<AliasAction> actions = new ArrayList<>();
+        holders.stream()
+                .filter(index -> !index.equals(current))
+                .forEach(index -> actions.add(new AliasAction.Remove(AliasActionParameters.builder()
+                        .withIndices(index)
+                        .withAliases(WRITE_ALIAS)
+                        .build())));
+        actions.add(new AliasAction.Add(AliasActionParameters.builder()
+                .withIndices(current)
+                .withAliases(WRITE_ALIAS)
+                .withIsWriteIndex(true)
+                .build()));
+        partitions.alias(new AliasActions(actions.toArray(AliasAction[]::new)));
+        writeIndex = current;
+        log.info("Write alias {} now points to {}", WRITE_ALIAS, current);
+    }
+
+    /**
+     * Supprime les partitions entièrement plus anciennes que la rétention,
+     * après sous-échantillonnage si activé, puis les archives annuelles
+     * plus anciennes que leur propre rétention. Retourne les index supprimés.
+     */
+    public List<String> applyRetention(LocalDateTime now) {
+        LocalDateTime cutoff = now.minus(retention);
+        List<String> dropped = new ArrayList<>();
+        List<String> indices = listIndices();
+
+        for (String index : matching(indices, PARTITION)) {
+            LocalDateTime end = partitionEnd(index);
+            if (end == null || end.isAfter(cutoff)) {
+                continue;
+            }
+            if (downsampleEnabled) {
+                long kept = downsample(index);
+                log.info("Downsampled {} to {} snapshots before deletion", index, kept);
+            }
+            elasticsearchOperations.indexOps(IndexCoordinates.of(index)).delete();
+            knownIndices.remove(index);
+            dropped.add(index);
+            log.info("Dropped index {} (retention {})", index, retention);
+        }
+
+        // Les archives sont supprimées même si le sous-échantillonnage a été désactivé depuis
+        LocalDateTime archiveCutoff = now.minus(archiveRetention);
+        for (String archive : matching(indices, ARCHIVE)) {
+            if (archiveEnd(archive).isAfter(archiveCutoff)) {
+                continue;
+            }
+            elasticsearchOperations.indexOps(IndexCoordinates.of(archive)).delete();
+            knownIndices.remove(archive);
+            dropped.add(archive);
+            log.info("Dropped archive {} (retention {})", archive, archiveRetention);
+        }
+        return dropped;
+    }
+
+    /**
+     * Fin (exclusive) de la période couverte par une partition, ou null si le nom n'en est pas une
+     */
+    static LocalDateTime partitionEnd(String index) {
+        Matcher matcher = PARTITION.matcher(index);
+        if (!matcher.matches()) {
+            return null;
+        }
+        String suffix = matcher.group(1);
+        return suffix.length() == 10
+                ? LocalDate.parse(suffix, DAY).plusDays(1).atStartOfDay()
+                : YearMonth.parse(suffix, MONTH).plusMonths(1).atDay(1).atStartOfDay();
+    }
+
+    /**
+     * Fin (exclusive) de l'année couverte par une archive
+     */
+    static LocalDateTime archiveEnd(String archive) {
+        Matcher matcher = ARCHIVE.matcher(archive);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Not an archive index: " + archive);
+        }
+        return LocalDate.of(Integer.parseInt(matcher.group(1)) + 1, 1, 1).atStartOfDay();
+    }
+
+    private List<String> listIndices() {
+        return elasticsearchOperations.indexOps(IndexCoordinates.of(INDEX_PREFIX + "*")).getInformation().stream()
+                .map(IndexInformation::getName)
+                .sorted()
+                .toList();
+    }
+
+    private static List<String> matching(List<String> indices, Pattern pattern) {
+        return indices.stream()
+                .filter(name -> pattern.matcher(name).matches())
+                .toList();
+    }
+
+    private void ensureIndex(String index) {
+        if (knownIndices.contains(index)) {
+            return;
+        }
+        synchronized (knownIndices) {
+            if (knownIndices.contains(index)) {
+                return;
+            }
+            ensureTemplate();
+            // Paramètres, mapping et alias de lecture viennent du template
+            IndexOperations indexOps = elasticsearchOperations.indexOps(IndexCoordinates.of(index));
+            if (!indexOps.exists()) {
+                indexOps.create();
+                log.info("Created index {}", index);
+            }
+            knownIndices.add(index);
+        }
+    }
+
+    /**
+     * Installe (ou met à jour) le template des partitions et archives, une fois par démarrage
+     */
+    private void ensureTemplate() {
+        if (templateInstalled) {
+            return;
+        }
+        try (InputStream json = new ClassPathResource(TEMPLATE_PATH).getInputStream()) {
+            elasticsearchClient.indices().putIndexTemplate(request -> request.name(TEMPLATE_NAME).withJson(json));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not install index template " + TEMPLATE_NAME, e);
+        }
+        templateInstalled = true;
+        log.info("Index template {} installed", TEMPLATE_NAME);
+    }
+
+    /**
+     * Copie dans l'archive annuelle le dernier snapshot de chaque devise par intervalle.
+     * Le parcours est trié par devise puis par date : la mémoire reste constante.
+     */
+    private long downsample(String index) {
+        CriteriaQuery query = new CriteriaQuery(new Criteria())
+                .setPageable(PageRequest.of(0, ARCHIVE_BATCH_SIZE,
+                        Sort.by("baseCurrency").ascending().and(Sort.by("timestamp").ascending())));
+
+        List<IndexQuery> batch = new ArrayList<>(ARCHIVE_BATCH_SIZE);
+        long kept = 0;
+        ExchangeRateData last = null;
+        long lastBucket = 0;
+        try (SearchHitsIterator<ExchangeRateData> hits =
+                     elasticsearchOperations.searchForStream(query, ExchangeRateData.class, IndexCoordinates.of(index))) {
+            while (hits.hasNext()) {
+                ExchangeRateData data = hits.next().getContent();
+                long bucket = bucketOf(data.getTimestamp());
+                if (last != null && (bucket != lastBucket || !last.getBaseCurrency().equals(data.getBaseCurrency()))) {
+                    batch.add(toArchiveQuery(last));
+                    kept++;
+                    if (batch.size() >= ARCHIVE_BATCH_SIZE) {
+                        elasticsearchOperations.bulkIndex(batch, ExchangeRateData.class);
+                        batch.clear();
+                    }
+                }
+                last = data;
+                lastBucket = bucket;
+            }
+        }
+        if (last != null) {
+            batch.add(toArchiveQuery(last));
+            kept++;
+        }
+        if (!batch.isEmpty()) {
+            elasticsearchOperations.bulkIndex(batch, ExchangeRateData.class);
+        }
+        return kept;
+    }
+
+    private IndexQuery toArchiveQuery(ExchangeRateData data) {
+        String archive = ARCHIVE_PREFIX + data.getTimestamp().getYear();
+        ensureIndex(archive);
+        return new IndexQueryBuilder()
+                .withId(data.getId())
+                .withObject(data)
+                .withIndex(archive)
+                .build();
+    }
+
+    private long bucketOf(LocalDateTime timestamp) {
+        long epochMillis = timestamp.toInstant(ZoneOffset.UTC).toEpochMilli();
+        return Math.floorDiv(epochMillis, Math.max(1, downsampleInterval.toMillis()));
+    }
+}
@@ -1,17 +1,33 @@
 package com.ensitech.exchangerateproxy.service;
 
+import com.ensitech.exchangerateproxy.kafka.consumer.FetchCoordinator;
+import com.ensitech.exchangerateproxy.kafka.producer.ExchangeRatePublisher;
 import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import com.ensitech.exchangerateproxy.model.ExchangeRateDelta;
 import com.ensitech.exchangerateproxy.model.ExternalApiResponse;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 // TODO : Réaliser le service ExchangeRateService.java
 
@@ -20,54 +36,279 @@ import java.util.Optional;
 @Slf4j
 public class ExchangeRateService {
 
-    private final KafkaTemplate<String, ExchangeRateData> kafkaTemplate;
+    private final ExchangeRatePublisher publisher;
 
     private final RestTemplate restTemplate;
 
     private final ElasticsearchService elasticsearchService;
 
+    private final LatestRateCache latestRateCache;
+
+    private final CrossRateEngine crossRateEngine;
+
+    private final SnapshotChangeDetector changeDetector;
+
+    private final MeterRegistry meterRegistry;
+
+    private final UpstreamCircuitBreaker circuitBreaker;
+
+    private final FetchCoordinator fetchCoordinator;
+
     @Value("${exchange-rate.api.url}")
     private String apiUrl;
 
     @Value("${exchange-rate.kafka.topic}")
     private String kafkaTopic;
 
+    // Fenêtre pendant laquelle le dernier résultat est servi sans rappeler l'API
+    @Value("${exchange-rate.fetch.freshness-window:5s}")
+    private Duration freshnessWindow;
+
+    // Publication optionnelle des seuls taux modifiés
+    @Value("${exchange-rate.delta.enabled:false}")
+    private boolean deltaEnabled;
+
+    @Value("${exchange-rate.kafka.delta-topic:exchange-rates-delta}")
+    private String deltaTopic;
+
+    // Topic compacté du dernier snapshot par devise, relu au démarrage de chaque instance
+    @Value("${exchange-rate.kafka.latest.enabled:true}")
+    private boolean latestTopicEnabled;
+
+    @Value("${exchange-rate.kafka.latest-topic:exchange-rates-latest}")
+    private String latestTopic;
+
+    // Au-delà de ce délai, le dernier snapshot connu est servi pendant que l'appel se poursuit
+    @Value("${exchange-rate.upstream.stale-after:500ms}")
+    private Duration staleAfter;
+
+    // Attente maximale du snapshot d'une devise récupérée par une autre instance
+    @Value("${exchange-rate.cluster.coordination.owner-wait:3s}")
+    private Duration ownerWait;
+
+    // Devises étiquetées telles quelles dans les métriques ; les autres sont regroupées sous "other"
+    @Value("${exchange-rate.scheduler.currencies:USD,EUR,GBP,JPY,CHF,CAD,AUD}")
+    private List<String> configuredCurrencies;
+
+    private final SingleFlight<String, Optional<ExchangeRateData>> upstreamCalls = new SingleFlight<>();
+
+    // Dernier appel à l'API externe par devise, même si les taux n'avaient pas changé
+    private final Map<String, LocalDateTime> lastUpstreamCheck = new ConcurrentHashMap<>();
+
+    // Appels asynchrones : un thread virtuel par appel, borné par le pool de connexions HTTP
+    private final ExecutorService upstreamExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @PostConstruct
+    void registerMetrics() {
+        Gauge.builder("exchangerate.upstream.inflight", upstreamCalls, SingleFlight::inFlightCount)
+                .description("Upstream calls currently in flight")
+                .register(meterRegistry);
+        FunctionCounter.builder("exchangerate.upstream.shared", upstreamCalls, SingleFlight::getSharedCalls)
+                .description("Callers served by an upstream call already in flight")
+                .register(meterRegistry);
+    }
+
     /**
-     * Récupère les taux de change pour une devise de base donnée
+     * Récupère les taux de change pour une devise de base donnée.
+     * Un résultat encore frais est servi directement, sinon l'appel
+     * est partagé avec les requêtes concurrentes sur la même devise.
+     * En mode taux croisés, seul le pivot est demandé à l'API externe.
+     * Une devise récupérée par une autre instance est lue depuis le topic des derniers taux.
      */
     public Optional<ExchangeRateData> fetchExchangeRates(String baseCurrency) {
+        String upstreamCurrency = crossRateEngine.upstreamCurrencyFor(baseCurrency);
+        if (fetchCoordinator.isOwnedElsewhere(upstreamCurrency)) {
+            return followOwner(upstreamCurrency).join()
+                    .flatMap(data -> crossRateEngine.derive(data, baseCurrency));
+        }
+
+        Optional<ExchangeRateData> snapshot = findFresh(upstreamCurrency);
+        if (snapshot.isPresent()) {
+            log.debug("Serving fresh exchange rates for {} without upstream call", upstreamCurrency);
+        } else {
+            snapshot = callUpstream(upstreamCurrency);
+        }
+        return snapshot.flatMap(data -> crossRateEngine.derive(data, baseCurrency));
+    }
+
+    /**
+     * Variante non bloquante de fetchExchangeRates : l'appel à l'API externe
+     * s'exécute hors du thread appelant, qui peut être libéré immédiatement.
+     */
+    public CompletableFuture<Optional<ExchangeRateData>> fetchExchangeRatesAsync(String baseCurrency) {
+        String upstreamCurrency = crossRateEngine.upstreamCurrencyFor(baseCurrency);
+
+        CompletableFuture<Optional<ExchangeRateData>> snapshot;
+        if (fetchCoordinator.isOwnedElsewhere(upstreamCurrency)) {
+            return followOwner(upstreamCurrency)
+                    .thenApply(data -> data.flatMap(value -> crossRateEngine.derive(value, baseCurrency)));
+        }
+        Optional<ExchangeRateData> fresh = findFresh(upstreamCurrency);
+        if (fresh.isPresent()) {
+            log.debug("Serving fresh exchange rates for {} without upstream call", upstreamCurrency);
+            snapshot = CompletableFuture.completedFuture(fresh);
+        } else if (!circuitBreaker.allowsRequest()) {
+            snapshot = CompletableFuture.completedFuture(Optional.empty());
+        } else {
+            snapshot = upstreamCalls.submit(upstreamCurrency,
+                    () -> CompletableFuture.supplyAsync(() -> fetchFromUpstream(upstreamCurrency), upstreamExecutor));
+        }
+        return snapshot.thenApply(data -> data.flatMap(value -> crossRateEngine.derive(value, baseCurrency)));
+    }
+
+    /**
+     * Taux à servir à un client : données fraîches si possible, sinon le dernier snapshot connu
+     * marqué comme périmé, dès que le circuit est ouvert, que l'appel échoue ou qu'il dépasse stale-after.
+     * L'appel externe en cours n'est pas annulé : il met le cache à jour en arrière-plan.
+     */
+    public CompletableFuture<Optional<ServedRates>> serveExchangeRates(String baseCurrency) {
+        CompletableFuture<Optional<ServedRates>> live = fetchExchangeRatesAsync(baseCurrency)
+                .thenApply(result -> result.map(data -> new ServedRates(data, false)));
+
+        Optional<ServedRates> stale = latestRateCache.peek(crossRateEngine.upstreamCurrencyFor(baseCurrency))
+                .flatMap(data -> crossRateEngine.derive(data, baseCurrency))
+                .map(data -> new ServedRates(data, true));
+        if (stale.isEmpty()) {
+            return live;
+        }
+        return live.thenApply(result -> result.or(() -> stale))
+                .completeOnTimeout(stale, staleAfter.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Force l'appel à l'API externe, en le partageant avec les appels déjà en cours.
+     * Seule l'instance chargée de la devise l'appelle ; les autres servent le snapshot de cette instance.
+     */
+    public Optional<ExchangeRateData> refreshExchangeRates(String baseCurrency) {
+        String upstreamCurrency = crossRateEngine.upstreamCurrencyFor(baseCurrency);
+        Optional<ExchangeRateData> snapshot = fetchCoordinator.isOwnedElsewhere(upstreamCurrency)
+                ? followOwner(upstreamCurrency).join()
+                : callUpstream(upstreamCurrency);
+        return snapshot.flatMap(data -> crossRateEngine.derive(data, baseCurrency));
+    }
+
+    /**
+     * Devise récupérée par une autre instance : ni appel à l'API externe ni publication, pour ne pas
+     * concurrencer les snapshots du propriétaire. Son dernier snapshot arrive par le topic des derniers taux ;
+     * s'il n'est pas encore en cache, il est attendu au plus owner-wait.
+     */
+    private CompletableFuture<Optional<ExchangeRateData>> followOwner(String baseCurrency) {
+        Optional<ExchangeRateData> followed = latestRateCache.peek(baseCurrency);
+        if (followed.isPresent()) {
+            return CompletableFuture.completedFuture(followed);
+        }
+        log.debug("Waiting for the owner's exchange rates for {}", baseCurrency);
+        return latestRateCache.awaitSnapshot(baseCurrency, ownerWait);
+    }
+
+    private Optional<ExchangeRateData> callUpstream(String baseCurrency) {
+        return upstreamCalls.submit(baseCurrency,
+                () -> CompletableFuture.completedFuture(fetchFromUpstream(baseCurrency))).join();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        upstreamExecutor.shutdownNow();
+    }
+
+    private Optional<ExchangeRateData> findFresh(String baseCurrency) {
+        if (freshnessWindow.isZero() || freshnessWindow.isNegative()) {
+            return Optional.empty();
+        }
+        LocalDateTime threshold = LocalDateTime.now().minus(freshnessWindow);
+        LocalDateTime lastCheck = lastUpstreamCheck.get(baseCurrency);
+        boolean checkedRecently = lastCheck != null && lastCheck.isAfter(threshold);
+        return latestRateCache.peek(baseCurrency)
+                .filter(data -> checkedRecently
+                        || (data.getTimestamp() != null && data.getTimestamp().isAfter(threshold)));
+    }
+
+    private Optional<ExchangeRateData> fetchFromUpstream(String baseCurrency) {
+        Timer.Sample sample = Timer.start(meterRegistry);
         try {
+            if (!circuitBreaker.tryAcquire()) {
+                log.debug("Upstream circuit open, skipping call for {}", baseCurrency);
+                sample.stop(upstreamTimer(baseCurrency, "rejected"));
+                return Optional.empty();
+            }
             log.info("Fetching exchange rates for base currency: {}", baseCurrency);
 
             String url = apiUrl + "/" + baseCurrency;
-            ExternalApiResponse response = restTemplate.getForObject(url, ExternalApiResponse.class);
+            long callStart = System.nanoTime();
+            ExternalApiResponse response;
+            try {
+                response = restTemplate.getForObject(url, ExternalApiResponse.class);
+            } catch (RuntimeException e) {
+                circuitBreaker.onFailure();
+                throw e;
+            }
 
             if (response != null && response.getRates() != null) {
+                circuitBreaker.onSuccess(Duration.ofNanos(System.nanoTime() - callStart));
                 ExchangeRateData exchangeRateData = convertToExchangeRateData(response);
+                lastUpstreamCheck.put(baseCurrency, exchangeRateData.getTimestamp());
+
+                // Snapshot identique au précédent : ni republication ni réindexation
+                SnapshotChangeDetector.Change change = changeDetector.evaluate(exchangeRateData);
+                if (!change.changed()) {
+                    log.debug("Exchange rates for {} unchanged since {}, skipping publication",
+                            baseCurrency, change.previous().getId());
+                    sample.stop(upstreamTimer(baseCurrency, "unchanged"));
+                    return Optional.of(change.previous());
+                }
 
                 // Publier sur Kafka
-                publishToKafka(exchangeRateData);
+                publishToKafka(kafkaTopic, exchangeRateData);
+                if (latestTopicEnabled) {
+                    publishToKafka(latestTopic, exchangeRateData);
+                }
+                change.optionalDelta().ifPresent(this::publishDelta);
 
                 // Sauvegarder dans Elasticsearch
                 elasticsearchService.saveExchangeRate(exchangeRateData);
 
+                latestRateCache.put(exchangeRateData);
+
                 log.info("Successfully processed exchange rates for {}", baseCurrency);
+                sample.stop(upstreamTimer(baseCurrency, "changed"));
                 return Optional.of(exchangeRateData);
             }
 
             log.warn("No exchange rate data received for currency: {}", baseCurrency);
+            circuitBreaker.onFailure();
+            sample.stop(upstreamTimer(baseCurrency, "empty"));
             return Optional.empty();
 
         } catch (Exception e) {
             log.error("Error fetching exchange rates for currency {}: {}", baseCurrency, e.getMessage(), e);
+            sample.stop(upstreamTimer(baseCurrency, "error"));
             return Optional.empty();
         }
     }
 
+    private Timer upstreamTimer(String baseCurrency, String outcome) {
+        return Timer.builder("exchangerate.upstream.fetch")
+                .description("Upstream API call latency, processing included")
+                .tag("currency", currencyTag(baseCurrency))
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Valeur du tag devise : une devise configurée ou déjà validée par l'API externe (présente dans le cache),
+     * sinon "other", pour qu'un code arbitraire reçu d'un client ne crée pas de nouvelle série de métriques
+     */
+    private String currencyTag(String baseCurrency) {
+        if (configuredCurrencies != null && configuredCurrencies.contains(baseCurrency)) {
+            return baseCurrency;
+        }
+        return latestRateCache.peek(baseCurrency).isPresent() ? baseCurrency : "other";
+    }
+
     /**
      * Convertit la réponse de l'API externe en modèle interne
      */
-    private ExchangeRateData convertToExchangeRateData(ExternalApiResponse response) {
+    static ExchangeRateData convertToExchangeRateData(ExternalApiResponse response) {
         ExchangeRateData data = ExchangeRateData.builder()
                 .baseCurrency(response.getBase())
                 .timestamp(LocalDateTime.now())
@@ -82,22 +323,44 @@ public class ExchangeRateService {
     }
 
     /**
-     * Publie les données sur Kafka
+     * Publie les données sur Kafka, avec la devise de base pour clé ; l'envoi est asynchrone
+     * et ne bloque pas le cycle de récupération
      */
-    private void publishToKafka(ExchangeRateData exchangeRateData) {
-        try {
-            kafkaTemplate.send(kafkaTopic, exchangeRateData.getBaseCurrency(), exchangeRateData);
-            log.debug("Published exchange rate data to Kafka topic: {}", kafkaTopic);
-        } catch (Exception e) {
-            log.error("Error publishing to Kafka: {}", e.getMessage(), e);
+    private void publishToKafka(String topic, ExchangeRateData exchangeRateData) {
+        publisher.publishSnapshot(topic, exchangeRateData.getBaseCurrency(), exchangeRateData);
+        log.debug("Queued exchange rate data {} for Kafka topic: {}", exchangeRateData.getId(), topic);
+    }
+
+    /**
+     * Publie sur le topic des deltas les seuls taux modifiés
+     */
+    private void publishDelta(ExchangeRateDelta delta) {
+        if (!deltaEnabled || delta.isEmpty()) {
+            return;
         }
+        publisher.publish(deltaTopic, delta.getBaseCurrency(), delta);
+        log.debug("Queued {} changed rates for {} for Kafka topic: {}",
+                delta.getChangedRates().size(), delta.getBaseCurrency(), deltaTopic);
     }
 
     /**
-     * Récupère les taux de change depuis Elasticsearch
+     * Récupère les derniers taux de change, depuis le cache mémoire
+     * ou depuis Elasticsearch en cas d'absence
      */
     public Optional<ExchangeRateData> getLatestExchangeRates(String baseCurrency) {
-        return elasticsearchService.findLatestByBaseCurrency(baseCurrency);
+        return findLatestSnapshot(crossRateEngine.upstreamCurrencyFor(baseCurrency))
+                .flatMap(data -> crossRateEngine.derive(data, baseCurrency));
+    }
+
+    private Optional<ExchangeRateData> findLatestSnapshot(String baseCurrency) {
+        Optional<ExchangeRateData> cached = latestRateCache.get(baseCurrency);
+        if (cached.isPresent()) {
+            return cached;
+        }
+
+        Optional<ExchangeRateData> stored = elasticsearchService.findLatestByBaseCurrency(baseCurrency);
+        stored.ifPresent(latestRateCache::put);
+        return stored;
     }
 
 }
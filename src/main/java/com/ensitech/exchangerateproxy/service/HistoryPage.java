@@ -0,0 +1,11 @@
+package com.ensitech.exchangerateproxy.service;
+
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+
+import java.util.List;
+
+/**
+ * Page d'historique et curseur de la page suivante (null s'il n'y en a plus)
+ */
+public record HistoryPage(List<ExchangeRateData> items, String nextCursor) {
+}
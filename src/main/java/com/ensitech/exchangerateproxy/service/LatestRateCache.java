@@ -0,0 +1,147 @@
+package com.ensitech.exchangerateproxy.service;
+
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache mémoire des derniers taux de change connus, par devise de base.
+ * Alimenté par le service (fetch) et par le consommateur Kafka,
+ * il évite une recherche Elasticsearch à chaque lecture.
+ */
+@Component
+@Slf4j
+public class LatestRateCache implements MeterBinder {
+
+    private final Map<String, ExchangeRateData> latestByBaseCurrency = new ConcurrentHashMap<>();
+
+    // Attentes du prochain snapshot par devise, complétées par put
+    private final Map<String, CompletableFuture<ExchangeRateData>> awaited = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder updates = new LongAdder();
+
+    /**
+     * Retourne le dernier snapshot connu pour une devise de base
+     */
+    public Optional<ExchangeRateData> get(String baseCurrency) {
+        ExchangeRateData data = latestByBaseCurrency.get(baseCurrency);
+        if (data != null) {
+            hits.increment();
+            return Optional.of(data);
+        }
+        misses.increment();
+        return Optional.empty();
+    }
+
+    /**
+     * Lecture sans impact sur les statistiques, pour un usage interne
+     */
+    public Optional<ExchangeRateData> peek(String baseCurrency) {
+        return Optional.ofNullable(latestByBaseCurrency.get(baseCurrency));
+    }
+
+    /**
+     * Tous les snapshots en cache, sans impact sur les statistiques
+     */
+    public List<ExchangeRateData> snapshots() {
+        return List.copyOf(latestByBaseCurrency.values());
+    }
+
+    /**
+     * Enregistre un snapshot s'il est plus récent que celui déjà en cache
+     */
+    public void put(ExchangeRateData exchangeRateData) {
+        if (exchangeRateData == null || exchangeRateData.getBaseCurrency() == null) {
+            return;
+        }
+        ExchangeRateData latest = latestByBaseCurrency.merge(exchangeRateData.getBaseCurrency(), exchangeRateData,
+                (current, candidate) -> isNewer(candidate, current) ? candidate : current);
+        updates.increment();
+        CompletableFuture<ExchangeRateData> waiting = awaited.remove(exchangeRateData.getBaseCurrency());
+        if (waiting != null) {
+            waiting.complete(latest);
+        }
+        log.trace("Cached exchange rate data for {}", exchangeRateData.getBaseCurrency());
+    }
+
+    /**
+     * Snapshot d'une devise dès qu'il est en cache, ou vide au bout du délai
+     */
+    public CompletableFuture<Optional<ExchangeRateData>> awaitSnapshot(String baseCurrency, Duration timeout) {
+        CompletableFuture<ExchangeRateData> next = awaited.computeIfAbsent(baseCurrency,
+                currency -> new CompletableFuture<>());
+        // Snapshot arrivé avant l'enregistrement de l'attente
+        peek(baseCurrency).ifPresent(next::complete);
+        return next.thenApply(Optional::of)
+                .completeOnTimeout(Optional.empty(), timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((result, error) -> awaited.remove(baseCurrency, next));
+    }
+
+    /**
+     * Statistiques du cache : hits, misses et âge de chaque entrée
+     */
+    public Map<String, Object> getStats() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        long total = hitCount + missCount;
+
+        LocalDateTime now = LocalDateTime.now();
+        Map<String, Long> ageSeconds = new TreeMap<>();
+        latestByBaseCurrency.forEach((currency, data) -> {
+            if (data.getTimestamp() != null) {
+                ageSeconds.put(currency, Duration.between(data.getTimestamp(), now).toSeconds());
+            }
+        });
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", latestByBaseCurrency.size());
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRatio", total == 0 ? 0.0 : (double) hitCount / total);
+        stats.put("updates", updates.sum());
+        stats.put("ageSeconds", ageSeconds);
+        return stats;
+    }
+
+    /**
+     * Expose les statistiques du cache sous forme de métriques
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("exchangerate.cache.gets", hits, LongAdder::sum)
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("exchangerate.cache.gets", misses, LongAdder::sum)
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("exchangerate.cache.puts", updates, LongAdder::sum)
+                .register(registry);
+        Gauge.builder("exchangerate.cache.size", latestByBaseCurrency, Map::size)
+                .register(registry);
+    }
+
+    private boolean isNewer(ExchangeRateData candidate, ExchangeRateData current) {
+        if (current.getTimestamp() == null) {
+            return true;
+        }
+        return candidate.getTimestamp() != null && !candidate.getTimestamp().isBefore(current.getTimestamp());
+    }
+}
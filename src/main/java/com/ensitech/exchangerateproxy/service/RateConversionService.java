@@ -0,0 +1,186 @@
+package com.ensitech.exchangerateproxy.service;
+
+import com.ensitech.exchangerateproxy.model.ConversionRequest;
+import com.ensitech.exchangerateproxy.model.ConversionResult;
+import com.ensitech.exchangerateproxy.model.CurrencyCodes;
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Conversion de montants par lot.
+ * <p>
+ * Chaque lot utilise un {@link Converter} : le snapshot d'une devise (le pivot lorsque les taux croisés
+ * sont actifs) est résolu à la première ligne qui en a besoin puis réutilisé pour toutes les dates
+ * de valeur de son intervalle de validité connu, de sorte que les lignes d'une même période sont
+ * converties avec le même snapshot, sans requête supplémentaire. La mémoire d'un lot est bornée.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class RateConversionService {
+
+    private final ExchangeRateService exchangeRateService;
+    private final ElasticsearchService elasticsearchService;
+    private final CrossRateEngine crossRateEngine;
+    private final RateHistoryStore rateHistoryStore;
+
+    // Taille maximale d'un lot JSON, chargé en mémoire ; au-delà, utiliser le format NDJSON
+    @Value("${exchange-rate.convert.max-batch-size:10000}")
+    private int maxBatchSize;
+
+    // Nombre maximal de snapshots historiques mémorisés par lot
+    @Value("${exchange-rate.convert.max-memoized-snapshots:1024}")
+    private int maxMemoizedSnapshots;
+
+    /**
+     * Convertit un lot complet ; les lignes en erreur sont signalées individuellement
+     */
+    public List<ConversionResult> convertAll(List<ConversionRequest> requests) {
+        if (requests.size() > maxBatchSize) {
+            throw new IllegalArgumentException("Batch of " + requests.size()
+                    + " conversions exceeds the maximum of " + maxBatchSize + ", use NDJSON streaming");
+        }
+        Converter converter = newConverter();
+        return requests.stream().map(converter::convert).toList();
+    }
+
+    /**
+     * Taux en vigueur à une date pour une paire de devises
+     */
+    public ConversionResult rateAt(String baseCurrency, String targetCurrency, LocalDateTime at) {
+        return newConverter().convert(new ConversionRequest(BigDecimal.ONE, baseCurrency, targetCurrency, at));
+    }
+
+    /**
+     * Nouveau convertisseur pour un lot ; non thread-safe, à utiliser par un seul thread
+     */
+    public Converter newConverter() {
+        return new Converter();
+    }
+
+    public final class Converter {
+
+        // Dernier snapshot par devise demandée à l'API, résolu une fois par lot
+        private final Map<String, Optional<ExchangeRateData>> latest = new HashMap<>();
+
+        // Snapshots historiques résolus pendant le lot, par devise puis date du snapshot
+        private final Map<String, NavigableMap<LocalDateTime, ResolvedSnapshot>> resolved = new HashMap<>();
+
+        // Dates de valeur sans snapshot
+        private final Set<SnapshotKey> missing = new HashSet<>();
+
+        private int memoized;
+
+        private Converter() {
+        }
+
+        public ConversionResult convert(ConversionRequest request) {
+            ConversionResult.ConversionResultBuilder result = ConversionResult.builder()
+                    .amount(request.getAmount())
+                    .from(request.getFrom())
+                    .to(request.getTo())
+                    .asOf(request.getAsOf());
+
+            if (request.getAmount() == null || request.getFrom() == null || request.getTo() == null) {
+                return result.error("amount, from and to are required").build();
+            }
+
+            String from = CurrencyCodes.normalize(request.getFrom());
+            String to = CurrencyCodes.normalize(request.getTo());
+            result.from(from).to(to);
+
+            Optional<ExchangeRateData> snapshot = snapshot(crossRateEngine.upstreamCurrencyFor(from), request.getAsOf());
+            if (snapshot.isEmpty()) {
+                return result.error("No exchange rates available for " + from).build();
+            }
+
+            Optional<BigDecimal> rate = from.equals(to)
+                    ? Optional.of(BigDecimal.ONE)
+                    : crossRateEngine.crossRate(snapshot.get(), from, to);
+            if (rate.isEmpty()) {
+                return result.error("No exchange rate from " + from + " to " + to).build();
+            }
+
+            return result
+                    .rate(rate.get())
+                    .converted(request.getAmount().multiply(rate.get(), crossRateEngine.getMathContext()))
+                    .snapshotId(snapshot.get().getId())
+                    .rateTimestamp(snapshot.get().getTimestamp())
+                    .build();
+        }
+
+        private Optional<ExchangeRateData> snapshot(String baseCurrency, LocalDateTime asOf) {
+            if (asOf == null) {
+                return latest.computeIfAbsent(baseCurrency, exchangeRateService::getLatestExchangeRates);
+            }
+            // Historique en mémoire d'abord : recherche sans requête ni mémorisation par date
+            Optional<ExchangeRateData> inMemory = rateHistoryStore.floor(baseCurrency, asOf);
+            if (inMemory.isPresent()) {
+                return inMemory;
+            }
+
+            // Un snapshot résolu pour une date reste valable pour toute date comprise entre
+            // son propre timestamp et la plus tardive des dates pour lesquelles il a été trouvé
+            Map.Entry<LocalDateTime, ResolvedSnapshot> floor = resolved
+                    .getOrDefault(baseCurrency, Collections.emptyNavigableMap())
+                    .floorEntry(asOf);
+            if (floor != null && !asOf.isAfter(floor.getValue().validUntil())) {
+                return Optional.of(floor.getValue().snapshot());
+            }
+            SnapshotKey key = new SnapshotKey(baseCurrency, asOf);
+            if (missing.contains(key)) {
+                return Optional.empty();
+            }
+
+            log.debug("Resolving {} snapshot as of {} for conversion batch", baseCurrency, asOf);
+            Optional<ExchangeRateData> found = elasticsearchService.findLatestAt(baseCurrency, asOf);
+            remember(key, found);
+            return found;
+        }
+
+        private void remember(SnapshotKey key, Optional<ExchangeRateData> found) {
+            // Lot aux dates de valeur très dispersées : on repart de zéro plutôt que de grossir sans fin
+            if (memoized >= maxMemoizedSnapshots) {
+                resolved.clear();
+                missing.clear();
+                memoized = 0;
+            }
+            if (found.isEmpty()) {
+                missing.add(key);
+                memoized++;
+                return;
+            }
+            ExchangeRateData snapshot = found.get();
+            NavigableMap<LocalDateTime, ResolvedSnapshot> series =
+                    resolved.computeIfAbsent(key.baseCurrency(), currency -> new TreeMap<>());
+            ResolvedSnapshot previous = series.get(snapshot.getTimestamp());
+            if (previous == null) {
+                series.put(snapshot.getTimestamp(), new ResolvedSnapshot(snapshot, key.asOf()));
+                memoized++;
+            } else if (key.asOf().isAfter(previous.validUntil())) {
+                series.put(snapshot.getTimestamp(), new ResolvedSnapshot(snapshot, key.asOf()));
+            }
+        }
+    }
+
+    private record ResolvedSnapshot(ExchangeRateData snapshot, LocalDateTime validUntil) {
+    }
+
+    private record SnapshotKey(String baseCurrency, LocalDateTime asOf) {
+    }
+}
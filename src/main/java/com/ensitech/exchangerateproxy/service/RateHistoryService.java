@@ -0,0 +1,102 @@
+package com.ensitech.exchangerateproxy.service;
+
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import com.ensitech.exchangerateproxy.model.RateCandle;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Historique des taux pour n'importe quelle devise de base.
+ * <p>
+ * Lorsque les taux croisés sont actifs, seul le pivot est récupéré et indexé : l'historique
+ * d'une autre devise est lu sur la série du pivot, et chaque snapshot est dérivé à la volée.
+ * Les curseurs restent ceux de la série pivot (même timestamp que le snapshot dérivé).
+ */
+@Service
+@RequiredArgsConstructor
+public class RateHistoryService {
+
+    private final ElasticsearchService elasticsearchService;
+    private final CrossRateEngine crossRateEngine;
+
+    /**
+     * Page d'historique, du plus récent au plus ancien. Avec une devise cible, seul ce taux est renvoyé.
+     */
+    public HistoryPage findHistoryPage(String baseCurrency, LocalDateTime from, LocalDateTime to,
+                                       String cursor, Integer size, String targetCurrency) {
+        String upstreamCurrency = crossRateEngine.upstreamCurrencyFor(baseCurrency);
+        HistoryPage page = elasticsearchService.findHistoryPage(upstreamCurrency, from, to, cursor, size,
+                ratesNeeded(baseCurrency, upstreamCurrency, targetCurrency));
+        if (upstreamCurrency.equals(baseCurrency)) {
+            return page;
+        }
+        List<ExchangeRateData> derived = page.items().stream()
+                .map(pivot -> crossRateEngine.deriveHistorical(pivot, baseCurrency, targetCurrency))
+                .flatMap(Optional::stream)
+                .toList();
+        return new HistoryPage(derived, page.nextCursor());
+    }
+
+    /**
+     * Parcourt tout l'historique d'une plage, snapshot par snapshot, sans le charger en mémoire.
+     * Retourne le nombre de snapshots transmis.
+     */
+    public long streamHistory(String baseCurrency, LocalDateTime from, LocalDateTime to, String targetCurrency,
+                              Consumer<ExchangeRateData> consumer) {
+        String upstreamCurrency = crossRateEngine.upstreamCurrencyFor(baseCurrency);
+        Set<String> rates = ratesNeeded(baseCurrency, upstreamCurrency, targetCurrency);
+        if (upstreamCurrency.equals(baseCurrency)) {
+            return elasticsearchService.streamHistory(baseCurrency, from, to, rates, consumer);
+        }
+        long[] derivedCount = {0};
+        elasticsearchService.streamHistory(upstreamCurrency, from, to, rates, pivot ->
+                crossRateEngine.deriveHistorical(pivot, baseCurrency, targetCurrency).ifPresent(data -> {
+                    consumer.accept(data);
+                    derivedCount[0]++;
+                }));
+        return derivedCount[0];
+    }
+
+    /**
+     * Bougies d'un taux, agrégées par Elasticsearch sur la série indexée.
+     * <p>
+     * Une devise de base dérivée du pivot n'a pas de série propre : vers le pivot, ses bougies sont
+     * agrégées sur l'inverse du taux pivot -> base (1/x), ce qui donne aussi la moyenne exacte des taux
+     * inversés. Les autres paires croisées ne sont pas agrégeables depuis un seul taux et sont refusées.
+     */
+    public List<RateCandle> findCandles(String baseCurrency, String targetCurrency, LocalDateTime from,
+                                        LocalDateTime to, String interval) {
+        String upstreamCurrency = crossRateEngine.upstreamCurrencyFor(baseCurrency);
+        if (upstreamCurrency.equals(baseCurrency)) {
+            return elasticsearchService.findCandles(baseCurrency, targetCurrency, from, to, interval);
+        }
+        if (!upstreamCurrency.equals(targetCurrency)) {
+            throw new IllegalArgumentException("Candles of " + baseCurrency + " are only available against the pivot "
+                    + upstreamCurrency + ", not " + targetCurrency);
+        }
+        return elasticsearchService.findInverseCandles(upstreamCurrency, baseCurrency, from, to, interval);
+    }
+
+    /**
+     * Taux à charger depuis la série demandée : la cible seule, ou la cible et la base à dériver
+     * depuis le pivot ; null pour tous les taux
+     */
+    private static Set<String> ratesNeeded(String baseCurrency, String upstreamCurrency, String targetCurrency) {
+        if (targetCurrency == null) {
+            return null;
+        }
+        Set<String> rates = new LinkedHashSet<>();
+        rates.add(targetCurrency);
+        if (!upstreamCurrency.equals(baseCurrency)) {
+            rates.add(baseCurrency);
+        }
+        return rates;
+    }
+}
@@ -0,0 +1,367 @@
+package com.ensitech.exchangerateproxy.service;
+
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Historique récent des snapshots en mémoire, pour les recherches à une date donnée (« as-of »).
+ * <p>
+ * Chaque devise de base a une série triée : un tableau primitif de timestamps (millisecondes epoch)
+ * et le tableau des snapshots correspondants, dont les taux sont des {@link com.ensitech.exchangerateproxy.model.RateTable}.
+ * La recherche du snapshot en vigueur est une recherche dichotomique sur les timestamps, sans verrou
+ * ni allocation : les lecteurs utilisent une vue immuable de la série, remplacée à chaque écriture.
+ * <p>
+ * La série est alimentée par Kafka et, au démarrage, par Elasticsearch sur la fenêtre de rétention.
+ * Les snapshots plus anciens que la rétention, puis les plus anciens toutes devises confondues
+ * au-delà du budget mémoire, sont évincés.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class RateHistoryStore implements MeterBinder {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Snapshots lus depuis Elasticsearch entre deux fusions dans la série, pendant le chargement initial
+    private static final int BACKFILL_CHUNK_SIZE = 1000;
+
+    // Surcoût estimé d'un snapshot hors table de taux (objet, identifiant, textes, entrée des tableaux)
+    private static final long SNAPSHOT_OVERHEAD_BYTES = 160;
+
+    private final ElasticsearchService elasticsearchService;
+    private final CrossRateEngine crossRateEngine;
+
+    @Value("${exchange-rate.history.memory.enabled:true}")
+    private boolean enabled;
+
+    @Value("${exchange-rate.history.memory.retention:30d}")
+    private Duration retention;
+
+    @Value("${exchange-rate.history.memory.max-size:256MB}")
+    private DataSize maxSize;
+
+    @Value("${exchange-rate.scheduler.currencies:USD,EUR,GBP,JPY,CHF,CAD,AUD}")
+    private List<String> currencies;
+
+    private final Map<String, Series> seriesByBaseCurrency = new ConcurrentHashMap<>();
+
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * Charge depuis Elasticsearch l'historique de la fenêtre de rétention, en arrière-plan
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfill() {
+        if (!enabled) {
+            return;
+        }
+        List<String> baseCurrencies = currencies.stream()
+                .map(currency -> crossRateEngine.upstreamCurrencyFor(currency.trim().toUpperCase()))
+                .distinct()
+                .toList();
+        Thread.ofVirtual().name("rate-history-backfill").start(() -> baseCurrencies.forEach(this::backfill));
+    }
+
+    /**
+     * Charge l'historique d'une devise par lots : chaque lot est fusionné puis le budget mémoire appliqué,
+     * de sorte que la fenêtre de rétention n'est jamais entièrement en mémoire en plus de la série
+     */
+    void backfill(String baseCurrency) {
+        LocalDateTime now = LocalDateTime.now();
+        List<ExchangeRateData> chunk = new ArrayList<>(BACKFILL_CHUNK_SIZE);
+        try {
+            long start = System.nanoTime();
+            long count = elasticsearchService.streamHistory(baseCurrency, now.minus(retention), now, null, data -> {
+                chunk.add(data);
+                if (chunk.size() >= BACKFILL_CHUNK_SIZE) {
+                    load(baseCurrency, chunk);
+                    chunk.clear();
+                }
+            });
+            load(baseCurrency, chunk);
+            log.info("Loaded {} historical snapshots for {} in memory in {} ms", count, baseCurrency,
+                    Duration.ofNanos(System.nanoTime() - start).toMillis());
+        } catch (Exception e) {
+            log.error("Error loading rate history for {}: {}", baseCurrency, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Ajoute un snapshot reçu ; un snapshot déjà connu (même timestamp) est ignoré
+     */
+    public synchronized void record(ExchangeRateData data) {
+        if (!enabled || data == null || data.getBaseCurrency() == null
+                || data.getTimestamp() == null || data.getRates() == null) {
+            return;
+        }
+        String baseCurrency = data.getBaseCurrency();
+        Series series = seriesByBaseCurrency.getOrDefault(baseCurrency, Series.EMPTY);
+        Series updated = series.insert(epochMillis(data.getTimestamp()), data);
+        if (updated != series) {
+            seriesByBaseCurrency.put(baseCurrency, updated);
+            evict();
+        }
+    }
+
+    /**
+     * Fusionne un lot de snapshots d'une devise (les snapshots déjà présents sont conservés)
+     */
+    public synchronized void load(String baseCurrency, Collection<ExchangeRateData> snapshots) {
+        if (!enabled || snapshots.isEmpty()) {
+            return;
+        }
+        List<ExchangeRateData> sorted = snapshots.stream()
+                .filter(data -> data.getTimestamp() != null && data.getRates() != null)
+                .sorted(Comparator.comparing(ExchangeRateData::getTimestamp))
+                .toList();
+        Series series = seriesByBaseCurrency.getOrDefault(baseCurrency, Series.EMPTY);
+        seriesByBaseCurrency.put(baseCurrency, series.merge(sorted));
+        evict();
+    }
+
+    /**
+     * Snapshot en vigueur à une date : le plus récent antérieur ou égal, s'il est en mémoire.
+     * Vide si la date précède le plus ancien snapshot conservé.
+     */
+    public Optional<ExchangeRateData> floor(String baseCurrency, LocalDateTime at) {
+        return Optional.ofNullable(floor(baseCurrency, epochMillis(at)));
+    }
+
+    public ExchangeRateData floor(String baseCurrency, long epochMillis) {
+        Series series = seriesByBaseCurrency.get(baseCurrency);
+        return series != null ? series.floor(epochMillis) : null;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("exchangerate.history.memory.snapshots", this, RateHistoryStore::totalSnapshots)
+                .description("Snapshots held in the in-memory rate history")
+                .register(registry);
+        Gauge.builder("exchangerate.history.memory.bytes", this, RateHistoryStore::totalBytes)
+                .description("Estimated footprint of the in-memory rate history")
+                .register(registry);
+        FunctionCounter.builder("exchangerate.history.memory.evicted", evicted, LongAdder::sum)
+                .description("Snapshots evicted for retention or memory budget")
+                .register(registry);
+    }
+
+    /**
+     * Applique la rétention puis le budget mémoire ; le snapshot en vigueur au début de la fenêtre
+     * est conservé pour répondre aux recherches à cette date
+     */
+    private void evict() {
+        long cutoff = epochMillis(LocalDateTime.now().minus(retention));
+        seriesByBaseCurrency.replaceAll((currency, series) -> {
+            int keepFrom = series.from;
+            while (keepFrom + 1 < series.to && series.timestamps[keepFrom + 1] <= cutoff) {
+                keepFrom++;
+            }
+            evicted.add(keepFrom - series.from);
+            return series.dropFirst(keepFrom - series.from);
+        });
+
+        long budget = maxSize.toBytes();
+        while (totalBytes() > budget) {
+            Map.Entry<String, Series> oldest = null;
+            for (Map.Entry<String, Series> entry : seriesByBaseCurrency.entrySet()) {
+                Series series = entry.getValue();
+                if (series.size() > 1 && (oldest == null
+                        || series.timestamps[series.from] < oldest.getValue().timestamps[oldest.getValue().from])) {
+                    oldest = entry;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            seriesByBaseCurrency.put(oldest.getKey(), oldest.getValue().dropFirst(1));
+            evicted.increment();
+        }
+    }
+
+    private long totalBytes() {
+        return seriesByBaseCurrency.values().stream().mapToLong(series -> series.bytes).sum();
+    }
+
+    private long totalSnapshots() {
+        return seriesByBaseCurrency.values().stream().mapToLong(Series::size).sum();
+    }
+
+    private static long epochMillis(LocalDateTime timestamp) {
+        return timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static long estimateBytes(ExchangeRateData data) {
+        return SNAPSHOT_OVERHEAD_BYTES + data.rateTable().estimatedBytes();
+    }
+
+    /**
+     * Vue immuable d'une série : les entrées [from, to) des tableaux. Un ajout en fin de série écrit
+     * au-delà de {@code to} dans les mêmes tableaux, invisible des vues existantes ; toute autre
+     * insertion recopie les entrées dans de nouveaux tableaux.
+     */
+    private static final class Series {
+
+        static final Series EMPTY = new Series(new long[0], new ExchangeRateData[0], 0, 0, 0);
+
+        final long[] timestamps;
+        final ExchangeRateData[] snapshots;
+        final int from;
+        final int to;
+        // Empreinte estimée des entrées visibles
+        final long bytes;
+
+        Series(long[] timestamps, ExchangeRateData[] snapshots, int from, int to, long bytes) {
+            this.timestamps = timestamps;
+            this.snapshots = snapshots;
+            this.from = from;
+            this.to = to;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Nouvelle série fusionnant des snapshots triés par date ; à timestamp égal, le snapshot
+         * déjà présent est conservé
+         */
+        Series merge(List<ExchangeRateData> sorted) {
+            int capacity = capacityFor(size() + sorted.size());
+            long[] newTimestamps = new long[capacity];
+            ExchangeRateData[] newSnapshots = new ExchangeRateData[capacity];
+            long newBytes = 0;
+            int count = 0;
+            int i = from;
+            int j = 0;
+            while (i < to || j < sorted.size()) {
+                long next = j < sorted.size() ? epochMillis(sorted.get(j).getTimestamp()) : Long.MAX_VALUE;
+                if (i < to && timestamps[i] <= next) {
+                    if (timestamps[i] == next) {
+                        j++;
+                    }
+                    newTimestamps[count] = timestamps[i];
+                    newSnapshots[count] = snapshots[i];
+                    i++;
+                } else if (count > 0 && newTimestamps[count - 1] == next) {
+                    // Doublon dans le lot
+                    j++;
+                    continue;
+                } else {
+                    newTimestamps[count] = next;
+                    newSnapshots[count] = sorted.get(j);
+                    j++;
+                }
+                newBytes += estimateBytes(newSnapshots[count]);
+                count++;
+            }
+            return new Series(newTimestamps, newSnapshots, 0, count, newBytes);
+        }
+
+        int size() {
+            return to - from;
+        }
+
+        /**
+         * Dernier snapshot dont le timestamp est inférieur ou égal à la date, ou null
+         */
+        ExchangeRateData floor(long epochMillis) {
+            int index = floorIndex(epochMillis);
+            return index >= from ? snapshots[index] : null;
+        }
+
+        /**
+         * Série avec le snapshot inséré à sa place, ou cette série si le timestamp est déjà présent
+         */
+        Series insert(long timestamp, ExchangeRateData data) {
+            int previous = floorIndex(timestamp);
+            if (previous >= from && timestamps[previous] == timestamp) {
+                return this;
+            }
+            int position = previous + 1;
+            long size = bytes + estimateBytes(data);
+
+            // Cas courant : ajout en fin de série, sans recopie
+            if (position == to && to < timestamps.length) {
+                timestamps[to] = timestamp;
+                snapshots[to] = data;
+                return new Series(timestamps, snapshots, from, to + 1, size);
+            }
+
+            int count = size() + 1;
+            int capacity = capacityFor(count);
+            long[] newTimestamps = new long[capacity];
+            ExchangeRateData[] newSnapshots = new ExchangeRateData[capacity];
+            int before = position - from;
+            System.arraycopy(timestamps, from, newTimestamps, 0, before);
+            System.arraycopy(snapshots, from, newSnapshots, 0, before);
+            newTimestamps[before] = timestamp;
+            newSnapshots[before] = data;
+            System.arraycopy(timestamps, position, newTimestamps, before + 1, to - position);
+            System.arraycopy(snapshots, position, newSnapshots, before + 1, to - position);
+            return new Series(newTimestamps, newSnapshots, 0, count, size);
+        }
+
+        /**
+         * Série sans ses {@code count} plus anciens snapshots. Les tableaux sont partagés avec les vues
+         * existantes et ne peuvent être effacés : dès que les entrées évincées occupent la moitié
+         * des tableaux, les entrées restantes sont recopiées pour libérer les snapshots évincés.
+         */
+        Series dropFirst(int count) {
+            if (count <= 0) {
+                return this;
+            }
+            long dropped = 0;
+            for (int i = from; i < from + count; i++) {
+                dropped += estimateBytes(snapshots[i]);
+            }
+            int newFrom = from + count;
+            if (newFrom < timestamps.length / 2) {
+                return new Series(timestamps, snapshots, newFrom, to, bytes - dropped);
+            }
+            int remaining = to - newFrom;
+            int capacity = capacityFor(remaining);
+            long[] newTimestamps = new long[capacity];
+            ExchangeRateData[] newSnapshots = new ExchangeRateData[capacity];
+            System.arraycopy(timestamps, newFrom, newTimestamps, 0, remaining);
+            System.arraycopy(snapshots, newFrom, newSnapshots, 0, remaining);
+            return new Series(newTimestamps, newSnapshots, 0, remaining, bytes - dropped);
+        }
+
+        private int floorIndex(long epochMillis) {
+            int low = from;
+            int high = to - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (timestamps[mid] <= epochMillis) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return high;
+        }
+
+        private static int capacityFor(int count) {
+            return Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(count, 1)) << 1);
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package com.ensitech.exchangerateproxy.service;
+
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import com.ensitech.exchangerateproxy.model.ExchangeRateDelta;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Diffusion des nouveaux taux aux abonnés Server-Sent Events, alimentée par le consommateur Kafka.
+ * <p>
+ * Chaque événement est sérialisé une seule fois par combinaison (devise de base, mode, devises cibles)
+ * puis partagé entre les abonnés. Chaque abonné dispose d'une file bornée vidée par son propre
+ * thread virtuel : un client lent ne bloque ni le consommateur Kafka ni les autres abonnés,
+ * et il est déconnecté dès que sa file est pleine.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class RateStreamBroadcaster implements MeterBinder {
+
+    public enum Mode { SNAPSHOT, DELTA }
+
+    private static final Set<ResponseBodyEmitter.DataWithMediaType> HEARTBEAT =
+            SseEmitter.event().comment("heartbeat").build();
+
+    // Marque une combinaison sans événement à envoyer (delta vide après filtrage)
+    private static final Set<ResponseBodyEmitter.DataWithMediaType> NO_EVENT = Set.of();
+
+    private final CrossRateEngine crossRateEngine;
+    private final LatestRateCache latestRateCache;
+    private final ObjectMapper objectMapper;
+
+    @Value("${exchange-rate.stream.max-subscribers:10000}")
+    private int maxSubscribers;
+
+    // Nombre d'événements en attente au-delà duquel un abonné est considéré comme trop lent
+    @Value("${exchange-rate.stream.queue-capacity:32}")
+    private int queueCapacity;
+
+    @Value("${exchange-rate.stream.heartbeat-interval:15s}")
+    private Duration heartbeatInterval;
+
+    @Value("${exchange-rate.stream.timeout:30m}")
+    private Duration timeout;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    // Dernier snapshot diffusé par devise de base, référence des deltas
+    private final Map<String, ExchangeRateData> lastPublished = new ConcurrentHashMap<>();
+
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * Ouvre un abonnement ; des ensembles vides signifient toutes les devises.
+     * Le dernier snapshot connu de chaque devise demandée est envoyé immédiatement.
+     * Retourne vide si le nombre maximal d'abonnés est atteint.
+     */
+    public Optional<SseEmitter> subscribe(Set<String> baseCurrencies, Set<String> targetCurrencies, Mode mode) {
+        if (subscribers.size() >= maxSubscribers) {
+            log.warn("Rejecting rate stream subscription: {} subscribers already connected", subscribers.size());
+            return Optional.empty();
+        }
+
+        SseEmitter emitter = new SseEmitter(timeout.toMillis());
+        Subscriber subscriber = new Subscriber(emitter, Set.copyOf(baseCurrencies), Set.copyOf(targetCurrencies),
+                mode, new ArrayBlockingQueue<>(queueCapacity));
+        emitter.onCompletion(() -> remove(subscriber));
+        emitter.onError(e -> remove(subscriber));
+        subscribers.add(subscriber);
+
+        for (ExchangeRateData snapshot : initialSnapshots(subscriber)) {
+            Set<ResponseBodyEmitter.DataWithMediaType> event = toEvent(snapshot, null, mode, subscriber.targets);
+            if (event != NO_EVENT) {
+                subscriber.queue.offer(event);
+            }
+        }
+        subscriber.sender = senders.submit(() -> drain(subscriber));
+
+        log.debug("Rate stream subscription opened (bases: {}, targets: {}, mode: {})",
+                subscriber.bases, subscriber.targets, mode);
+        return Optional.of(emitter);
+    }
+
+    /**
+     * Diffuse un nouveau snapshot, ainsi que les snapshots croisés demandés par les abonnés
+     * lorsqu'il s'agit du pivot
+     */
+    public void publish(ExchangeRateData snapshot) {
+        String snapshotBase = snapshot.getBaseCurrency();
+        Set<String> bases = new LinkedHashSet<>();
+        bases.add(snapshotBase);
+        boolean pivot = crossRateEngine.isEnabled() && snapshotBase.equals(crossRateEngine.getPivotCurrency());
+        if (pivot) {
+            subscribers.forEach(subscriber -> bases.addAll(subscriber.bases));
+            // Les snapshots dérivés que plus personne ne suit ne servent plus de référence
+            lastPublished.keySet().retainAll(bases);
+        }
+
+        for (String base : bases) {
+            Optional<ExchangeRateData> current = base.equals(snapshotBase)
+                    ? Optional.of(snapshot)
+                    : crossRateEngine.derive(snapshot, base);
+            current.ifPresent(this::publishBase);
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("exchangerate.stream.subscribers", subscribers, Set::size)
+                .description("Connected rate stream subscribers")
+                .register(registry);
+        FunctionCounter.builder("exchangerate.stream.events", delivered, LongAdder::sum)
+                .description("Events sent to rate stream subscribers")
+                .register(registry);
+        FunctionCounter.builder("exchangerate.stream.evicted", evicted, LongAdder::sum)
+                .description("Rate stream subscribers disconnected for being too slow")
+                .register(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        List.copyOf(subscribers).forEach(subscriber -> {
+            remove(subscriber);
+            subscriber.emitter.complete();
+        });
+        senders.shutdownNow();
+    }
+
+    private void publishBase(ExchangeRateData current) {
+        String base = current.getBaseCurrency();
+        // Vérification et mise à jour de la référence en une seule étape : deux publications
+        // concurrentes d'une même devise ne peuvent ni passer toutes deux ni s'écraser
+        ExchangeRateData[] previousHolder = new ExchangeRateData[1];
+        boolean[] changed = new boolean[1];
+        lastPublished.compute(base, (key, last) -> {
+            previousHolder[0] = last;
+            changed[0] = last == null || !(Objects.equals(last.getId(), current.getId()) || isOlder(current, last));
+            return changed[0] ? current : last;
+        });
+        if (!changed[0]) {
+            return;
+        }
+        ExchangeRateData previous = previousHolder[0];
+
+        if (subscribers.isEmpty()) {
+            return;
+        }
+
+        boolean deltaSubscribers = subscribers.stream()
+                .anyMatch(subscriber -> subscriber.mode == Mode.DELTA && subscriber.accepts(base));
+        ExchangeRateDelta delta = previous != null && deltaSubscribers
+                ? SnapshotChangeDetector.delta(previous, current)
+                : null;
+        Map<EventKey, Set<ResponseBodyEmitter.DataWithMediaType>> events = new HashMap<>();
+        for (Subscriber subscriber : subscribers) {
+            if (!subscriber.accepts(base)) {
+                continue;
+            }
+            Set<ResponseBodyEmitter.DataWithMediaType> event = events.computeIfAbsent(
+                    new EventKey(subscriber.mode, subscriber.targets),
+                    key -> toEvent(current, delta, key.mode(), key.targets()));
+            if (event != NO_EVENT) {
+                offer(subscriber, event);
+            }
+        }
+    }
+
+    private List<ExchangeRateData> initialSnapshots(Subscriber subscriber) {
+        if (subscriber.bases.isEmpty()) {
+            return latestRateCache.snapshots();
+        }
+        List<ExchangeRateData> snapshots = new ArrayList<>();
+        for (String base : subscriber.bases) {
+            // En mode delta, l'état initial doit être la référence des prochains deltas
+            ExchangeRateData published = lastPublished.get(base);
+            Optional<ExchangeRateData> snapshot = published != null ? Optional.of(published) : resolve(base);
+            snapshot.ifPresent(snapshots::add);
+        }
+        return snapshots;
+    }
+
+    private Optional<ExchangeRateData> resolve(String base) {
+        return latestRateCache.peek(base).or(() -> crossRateEngine.isEnabled()
+                ? latestRateCache.peek(crossRateEngine.getPivotCurrency())
+                        .flatMap(pivot -> crossRateEngine.derive(pivot, base))
+                        .map(derived -> {
+                            lastPublished.putIfAbsent(base, derived);
+                            return derived;
+                        })
+                : Optional.empty());
+    }
+
+    private Set<ResponseBodyEmitter.DataWithMediaType> toEvent(ExchangeRateData snapshot, ExchangeRateDelta delta,
+                                                                Mode mode, Set<String> targets) {
+        Object payload;
+        String name;
+        if (mode == Mode.DELTA && delta != null) {
+            ExchangeRateDelta filtered = filter(delta, targets);
+            if (filtered.isEmpty()) {
+                return NO_EVENT;
+            }
+            payload = filtered;
+            name = "delta";
+        } else {
+            payload = filter(snapshot, targets);
+            name = "snapshot";
+        }
+
+        try {
+            return SseEmitter.event()
+                    .id(snapshot.getId())
+                    .name(name)
+                    .data(objectMapper.writeValueAsString(payload), MediaType.APPLICATION_JSON)
+                    .build();
+        } catch (JsonProcessingException e) {
+            log.error("Error serializing rate stream event for {}: {}", snapshot.getBaseCurrency(), e.getMessage(), e);
+            return NO_EVENT;
+        }
+    }
+
+    private void offer(Subscriber subscriber, Set<ResponseBodyEmitter.DataWithMediaType> event) {
+        if (subscriber.queue.offer(event)) {
+            return;
+        }
+        log.warn("Evicting slow rate stream subscriber (bases: {}, {} pending events)",
+                subscriber.bases, subscriber.queue.size());
+        evicted.increment();
+        remove(subscriber);
+        // Terminé hors du thread Kafka : l'émetteur peut être bloqué dans un envoi
+        senders.execute(subscriber.emitter::complete);
+    }
+
+    private void drain(Subscriber subscriber) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Set<ResponseBodyEmitter.DataWithMediaType> event =
+                        subscriber.queue.poll(heartbeatInterval.toMillis(), TimeUnit.MILLISECONDS);
+                if (event != null) {
+                    subscriber.emitter.send(event);
+                    delivered.increment();
+                } else {
+                    // Commentaire périodique pour détecter les connexions mortes
+                    subscriber.emitter.send(HEARTBEAT);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Rate stream subscriber disconnected: {}", e.getMessage());
+            remove(subscriber);
+        }
+    }
+
+    private void remove(Subscriber subscriber) {
+        if (subscribers.remove(subscriber)) {
+            Future<?> sender = subscriber.sender;
+            if (sender != null) {
+                sender.cancel(true);
+            }
+        }
+    }
+
+    private static ExchangeRateData filter(ExchangeRateData snapshot, Set<String> targets) {
+        if (targets.isEmpty()) {
+            return snapshot;
+        }
+        Map<String, BigDecimal> rates = new LinkedHashMap<>();
+        for (String target : targets) {
+            BigDecimal rate = snapshot.getRateFor(target);
+            if (rate != null) {
+                rates.put(target, rate);
+            }
+        }
+        return ExchangeRateData.builder()
+                .id(snapshot.getId())
+                .baseCurrency(snapshot.getBaseCurrency())
+                .timestamp(snapshot.getTimestamp())
+                .dateUnix(snapshot.getDateUnix())
+                .rates(rates)
+                .source(snapshot.getSource())
+                .provider(snapshot.getProvider())
+                .build();
+    }
+
+    private static ExchangeRateDelta filter(ExchangeRateDelta delta, Set<String> targets) {
+        if (targets.isEmpty()) {
+            return delta;
+        }
+        Map<String, BigDecimal> changed = new LinkedHashMap<>(delta.getChangedRates());
+        changed.keySet().retainAll(targets);
+        return delta.toBuilder()
+                .changedRates(changed)
+                .removedCurrencies(delta.getRemovedCurrencies().stream().filter(targets::contains).toList())
+                .build();
+    }
+
+    private static boolean isOlder(ExchangeRateData candidate, ExchangeRateData current) {
+        return candidate.getTimestamp() != null && current.getTimestamp() != null
+                && candidate.getTimestamp().isBefore(current.getTimestamp());
+    }
+
+    private record EventKey(Mode mode, Set<String> targets) {
+    }
+
+    private static final class Subscriber {
+
+        private final SseEmitter emitter;
+        private final Set<String> bases;
+        private final Set<String> targets;
+        private final Mode mode;
+        private final BlockingQueue<Set<ResponseBodyEmitter.DataWithMediaType>> queue;
+        private volatile Future<?> sender;
+
+        private Subscriber(SseEmitter emitter, Set<String> bases, Set<String> targets, Mode mode,
+                           BlockingQueue<Set<ResponseBodyEmitter.DataWithMediaType>> queue) {
+            this.emitter = emitter;
+            this.bases = bases;
+            this.targets = targets;
+            this.mode = mode;
+            this.queue = queue;
+        }
+
+        private boolean accepts(String base) {
+            return bases.isEmpty() || bases.contains(base);
+        }
+    }
+}
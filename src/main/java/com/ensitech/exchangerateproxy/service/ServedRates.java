@@ -0,0 +1,10 @@
+package com.ensitech.exchangerateproxy.service;
+
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+
+/**
+ * Taux servis à un client, avec l'indication qu'il s'agit du dernier snapshot connu
+ * (API externe indisponible ou trop lente) plutôt que d'une donnée fraîche
+ */
+public record ServedRates(ExchangeRateData data, boolean stale) {
+}
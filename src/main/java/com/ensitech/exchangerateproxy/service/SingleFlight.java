@@ -0,0 +1,59 @@
+package com.ensitech.exchangerateproxy.service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Regroupe les appels concurrents portant sur la même clé :
+ * un seul appel est exécuté, les autres appelants partagent son résultat.
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder sharedCalls = new LongAdder();
+
+    /**
+     * Lance l'appel pour la clé, ou rejoint celui déjà en cours
+     */
+    public CompletableFuture<V> submit(K key, Supplier<CompletableFuture<V>> call) {
+        CompletableFuture<V> promise = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, promise);
+        if (existing != null) {
+            sharedCalls.increment();
+            return existing;
+        }
+
+        executions.increment();
+        try {
+            call.get().whenComplete((value, error) -> {
+                inFlight.remove(key, promise);
+                if (error != null) {
+                    promise.completeExceptionally(error);
+                } else {
+                    promise.complete(value);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, promise);
+            promise.completeExceptionally(e);
+        }
+        return promise;
+    }
+
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    public long getExecutions() {
+        return executions.sum();
+    }
+
+    public long getSharedCalls() {
+        return sharedCalls.sum();
+    }
+}
@@ -0,0 +1,108 @@
+package com.ensitech.exchangerateproxy.service;
+
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import com.ensitech.exchangerateproxy.model.ExchangeRateDelta;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Détecte si un snapshot apporte du nouveau par rapport au dernier publié
+ * pour la même devise, à partir de dateUnix et d'une empreinte des taux.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class SnapshotChangeDetector {
+
+    private final LatestRateCache latestRateCache;
+
+    private final Map<String, Fingerprint> lastPublished = new ConcurrentHashMap<>();
+
+    /**
+     * Compare le snapshot au précédent et, s'il a changé, le retient comme nouvelle référence
+     */
+    public Change evaluate(ExchangeRateData candidate) {
+        String baseCurrency = candidate.getBaseCurrency();
+        Fingerprint next = Fingerprint.of(candidate);
+        Change[] result = new Change[1];
+
+        lastPublished.compute(baseCurrency, (currency, current) -> {
+            Fingerprint previous = current != null ? current : latestRateCache.peek(currency)
+                    .map(Fingerprint::of)
+                    .orElse(null);
+
+            if (previous != null && previous.sameContentAs(next)) {
+                result[0] = new Change(false, previous.snapshot(), null);
+                return previous;
+            }
+            result[0] = new Change(true, previous != null ? previous.snapshot() : null,
+                    previous != null ? delta(previous.snapshot(), candidate) : null);
+            return next;
+        });
+        return result[0];
+    }
+
+    /**
+     * Taux ajoutés ou modifiés, et devises disparues, entre deux snapshots
+     */
+    public static ExchangeRateDelta delta(ExchangeRateData previous, ExchangeRateData current) {
+        Map<String, BigDecimal> previousRates = previous.getRates() != null ? previous.getRates() : Map.of();
+        Map<String, BigDecimal> currentRates = current.getRates() != null ? current.getRates() : Map.of();
+
+        Map<String, BigDecimal> changed = new LinkedHashMap<>();
+        currentRates.forEach((currency, rate) -> {
+            BigDecimal before = previousRates.get(currency);
+            if (before == null || before.compareTo(rate) != 0) {
+                changed.put(currency, rate);
+            }
+        });
+        List<String> removed = previousRates.keySet().stream()
+                .filter(currency -> !currentRates.containsKey(currency))
+                .toList();
+
+        return ExchangeRateDelta.builder()
+                .snapshotId(current.getId())
+                .previousSnapshotId(previous.getId())
+                .baseCurrency(current.getBaseCurrency())
+                .timestamp(current.getTimestamp())
+                .dateUnix(current.getDateUnix())
+                .previousDateUnix(previous.getDateUnix())
+                .changedRates(changed)
+                .removedCurrencies(removed)
+                .build();
+    }
+
+    /**
+     * Résultat de la comparaison ; delta est absent pour le premier snapshot d'une devise
+     */
+    public record Change(boolean changed, ExchangeRateData previous, ExchangeRateDelta delta) {
+
+        public Optional<ExchangeRateDelta> optionalDelta() {
+            return Optional.ofNullable(delta);
+        }
+    }
+
+    private record Fingerprint(Long dateUnix, int ratesHash, ExchangeRateData snapshot) {
+
+        static Fingerprint of(ExchangeRateData data) {
+            return new Fingerprint(data.getDateUnix(),
+                    data.getRates() != null ? data.getRates().hashCode() : 0,
+                    data);
+        }
+
+        boolean sameContentAs(Fingerprint other) {
+            return Objects.equals(dateUnix, other.dateUnix)
+                    && ratesHash == other.ratesHash
+                    && Objects.equals(snapshot.getRates(), other.snapshot.getRates());
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.ensitech.exchangerateproxy.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Disjoncteur autour de l'API externe.
+ * <p>
+ * Après {@code failure-threshold} échecs consécutifs (erreurs ou appels trop lents), le circuit s'ouvre :
+ * les appels sont refusés sans contacter l'API. Une fois le délai d'ouverture écoulé, un seul appel
+ * d'essai est autorisé ; s'il échoue, le délai double (jusqu'à {@code max-open-duration}),
+ * s'il réussit, le circuit se referme et le délai revient à sa valeur initiale.
+ */
+@Component
+@Slf4j
+public class UpstreamCircuitBreaker implements MeterBinder {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    @Value("${exchange-rate.upstream.circuit.failure-threshold:5}")
+    private int failureThreshold;
+
+    @Value("${exchange-rate.upstream.circuit.open-duration:5s}")
+    private Duration initialOpenDuration;
+
+    @Value("${exchange-rate.upstream.circuit.max-open-duration:5m}")
+    private Duration maxOpenDuration;
+
+    // Un appel réussi mais plus lent que ce seuil compte comme un échec
+    @Value("${exchange-rate.upstream.circuit.slow-call-threshold:3s}")
+    private Duration slowCallThreshold;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private Duration openDuration;
+
+    private final LongAdder rejectedCalls = new LongAdder();
+
+    /**
+     * Indique si un appel serait autorisé, sans réserver l'appel d'essai
+     */
+    public synchronized boolean allowsRequest() {
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> openElapsed();
+            case HALF_OPEN -> false;
+        };
+    }
+
+    /**
+     * Réserve le droit d'appeler l'API externe ; en circuit ouvert, seul l'appel d'essai passe
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN && openElapsed()) {
+            state = State.HALF_OPEN;
+            log.info("Upstream circuit half-open, probing the exchange rate API");
+            return true;
+        }
+        rejectedCalls.increment();
+        return false;
+    }
+
+    public synchronized void onSuccess(Duration elapsed) {
+        if (elapsed.compareTo(slowCallThreshold) > 0) {
+            log.warn("Upstream call took {} ms, counted as a failure", elapsed.toMillis());
+            onFailure();
+            return;
+        }
+        if (state != State.CLOSED) {
+            log.info("Upstream circuit closed after a successful probe");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        openDuration = null;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            // Essai raté : réouverture avec un délai doublé
+            Duration doubled = openDuration().multipliedBy(2);
+            openDuration = doubled.compareTo(maxOpenDuration) > 0 ? maxOpenDuration : doubled;
+            open();
+        } else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            openDuration = initialOpenDuration;
+            open();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * État courant, pour le diagnostic
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("state", state);
+        stats.put("consecutiveFailures", consecutiveFailures);
+        stats.put("openDurationMs", openDuration().toMillis());
+        stats.put("rejectedCalls", rejectedCalls.sum());
+        return stats;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("exchangerate.upstream.circuit.state", this, breaker -> breaker.getState().ordinal())
+                .description("Upstream circuit state: 0 closed, 1 open, 2 half-open")
+                .register(registry);
+        FunctionCounter.builder("exchangerate.upstream.circuit.rejected", rejectedCalls, LongAdder::sum)
+                .description("Upstream calls refused while the circuit was open")
+                .register(registry);
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        log.warn("Upstream circuit opened for {} ms after {} consecutive failures",
+                openDuration.toMillis(), consecutiveFailures);
+    }
+
+    private boolean openElapsed() {
+        return System.nanoTime() - openedAt >= openDuration().toNanos();
+    }
+
+    private Duration openDuration() {
+        return openDuration != null ? openDuration : initialOpenDuration;
+    }
+}
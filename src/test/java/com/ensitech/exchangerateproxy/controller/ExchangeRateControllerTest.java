@@ -0,0 +1,248 @@
+package com.ensitech.exchangerateproxy.controller;
+
+import com.ensitech.exchangerateproxy.kafka.consumer.FetchCoordinator;
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import com.ensitech.exchangerateproxy.service.CrossRateEngine;
+import com.ensitech.exchangerateproxy.service.ElasticsearchService;
+import com.ensitech.exchangerateproxy.service.ExchangeRateService;
+import com.ensitech.exchangerateproxy.service.HistoryPage;
+import com.ensitech.exchangerateproxy.service.LatestRateCache;
+import com.ensitech.exchangerateproxy.service.RateConversionService;
+import com.ensitech.exchangerateproxy.service.RateHistoryService;
+import com.ensitech.exchangerateproxy.service.RateHistoryStore;
+import com.ensitech.exchangerateproxy.service.RateStreamBroadcaster;
+import com.ensitech.exchangerateproxy.service.ServedRates;
+import com.ensitech.exchangerateproxy.service.UpstreamCircuitBreaker;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class ExchangeRateControllerTest {
+
+    private static final LocalDateTime SNAPSHOT_TIME = LocalDateTime.of(2025, 5, 25, 16, 44);
+
+    private ExchangeRateService exchangeRateService;
+    private ElasticsearchService elasticsearchService;
+    private LatestRateCache latestRateCache;
+    private RateHistoryService rateHistoryService;
+    private RateStreamBroadcaster rateStreamBroadcaster;
+    private ObjectMapper objectMapper;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        exchangeRateService = mock(ExchangeRateService.class);
+        elasticsearchService = mock(ElasticsearchService.class);
+        latestRateCache = mock(LatestRateCache.class);
+        rateHistoryService = mock(RateHistoryService.class);
+        rateStreamBroadcaster = mock(RateStreamBroadcaster.class);
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+        CrossRateEngine engine = new CrossRateEngine();
+        ReflectionTestUtils.setField(engine, "enabled", true);
+        ReflectionTestUtils.setField(engine, "pivotCurrency", "USD");
+        ReflectionTestUtils.setField(engine, "precision", 12);
+        ReflectionTestUtils.setField(engine, "roundingMode", RoundingMode.HALF_EVEN);
+        ReflectionTestUtils.invokeMethod(engine, "init");
+
+        RateConversionService conversionService = new RateConversionService(exchangeRateService,
+                elasticsearchService, engine, mock(RateHistoryStore.class));
+        ReflectionTestUtils.setField(conversionService, "maxBatchSize", 100);
+        ReflectionTestUtils.setField(conversionService, "maxMemoizedSnapshots", 100);
+
+        SnapshotResponseCache snapshotResponses = new SnapshotResponseCache(objectMapper);
+        ReflectionTestUtils.setField(snapshotResponses, "maxAge", Duration.ofMinutes(1));
+
+        ExchangeRateController controller = new ExchangeRateController(exchangeRateService, elasticsearchService,
+                latestRateCache, mock(UpstreamCircuitBreaker.class), rateStreamBroadcaster,
+                conversionService, rateHistoryService, snapshotResponses, objectMapper,
+                mock(FetchCoordinator.class));
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @Test
+    void unparsableNdjsonLineYieldsAnErrorResultWithoutStoppingTheStream() throws Exception {
+        when(exchangeRateService.getLatestExchangeRates("USD")).thenReturn(Optional.of(snapshot("2.00")));
+
+        String body = """
+                {"amount": 10, "from": "USD", "to": "EUR"}
+                {"amount": oops
+                {"amount": 3, "from": "EUR", "to": "USD"}
+                """;
+        MvcResult started = mockMvc.perform(post("/api/exchange-rates/convert")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .accept(MediaType.APPLICATION_NDJSON)
+                        .content(body))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String[] lines = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString().split("\n");
+
+        assertThat(lines).hasSize(3);
+        assertThat(objectMapper.readTree(lines[0]).get("converted").decimalValue()).isEqualByComparingTo("20");
+        assertThat(objectMapper.readTree(lines[1]).get("error").asText()).contains("line 2");
+        assertThat(objectMapper.readTree(lines[2]).get("converted").decimalValue()).isEqualByComparingTo("1.5");
+    }
+
+    @Test
+    void rateStreamIsRefusedWhenTheSubscriberLimitIsReached() throws Exception {
+        when(rateStreamBroadcaster.subscribe(Set.of("EUR"), Set.of(), RateStreamBroadcaster.Mode.DELTA))
+                .thenReturn(Optional.empty());
+
+        mockMvc.perform(get("/api/exchange-rates/stream").param("base", "eur").param("mode", "delta"))
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    @Test
+    void historyPageWithMoreResultsCarriesTheNextCursor() throws Exception {
+        when(rateHistoryService.findHistoryPage(eq("USD"), any(), any(), isNull(), eq(1), isNull()))
+                .thenReturn(new HistoryPage(List.of(snapshot("0.92")), "MTczNTY4OTYwMDAwMA"));
+
+        mockMvc.perform(get("/api/exchange-rates/usd/history").param("size", "1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(ExchangeRateController.NEXT_CURSOR_HEADER, "MTczNTY4OTYwMDAwMA"))
+                .andExpect(jsonPath("$.length()").value(1));
+    }
+
+    @Test
+    void lastHistoryPageHasNoNextCursor() throws Exception {
+        when(rateHistoryService.findHistoryPage(eq("USD"), any(), any(), eq("MTczNTY4OTYwMDAwMA"), eq(1), isNull()))
+                .thenReturn(new HistoryPage(List.of(snapshot("0.91")), null));
+
+        mockMvc.perform(get("/api/exchange-rates/USD/history").param("size", "1")
+                        .param("cursor", "MTczNTY4OTYwMDAwMA"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(ExchangeRateController.NEXT_CURSOR_HEADER))
+                .andExpect(jsonPath("$.length()").value(1));
+    }
+
+    @Test
+    void invalidHistoryCursorIsABadRequest() throws Exception {
+        when(rateHistoryService.findHistoryPage(eq("USD"), any(), any(), eq("garbage"), any(), any()))
+                .thenThrow(new IllegalArgumentException("Invalid history cursor: garbage"));
+
+        mockMvc.perform(get("/api/exchange-rates/USD/history").param("cursor", "garbage"))
+                .andExpect(status().isBadRequest())
+                .andExpect(header().doesNotExist(ExchangeRateController.NEXT_CURSOR_HEADER));
+    }
+
+    @Test
+    void matchingIfNoneMatchYieldsNotModifiedWithoutBody() throws Exception {
+        ExchangeRateData data = snapshot("0.92");
+        when(exchangeRateService.getLatestExchangeRates("USD")).thenReturn(Optional.of(data));
+
+        String etag = mockMvc.perform(get("/api/exchange-rates/USD/latest"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + data.getId() + "\""))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get("/api/exchange-rates/USD/latest").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, etag))
+                .andExpect(content().bytes(new byte[0]));
+    }
+
+    @Test
+    void etagFollowsTheSnapshotId() throws Exception {
+        ExchangeRateData first = snapshot("0.92", SNAPSHOT_TIME);
+        ExchangeRateData next = snapshot("0.93", SNAPSHOT_TIME.plusMinutes(1));
+        when(exchangeRateService.getLatestExchangeRates("USD"))
+                .thenReturn(Optional.of(first))
+                .thenReturn(Optional.of(next));
+
+        String firstEtag = mockMvc.perform(get("/api/exchange-rates/USD/latest"))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        // L'ancien ETag ne correspond plus : nouveau snapshot servi en entier
+        String nextBody = mockMvc.perform(get("/api/exchange-rates/USD/latest")
+                        .header(HttpHeaders.IF_NONE_MATCH, firstEtag))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + next.getId() + "\""))
+                .andReturn().getResponse().getContentAsString();
+
+        assertThat(firstEtag).isEqualTo("\"" + first.getId() + "\"");
+        assertThat(objectMapper.readTree(nextBody).get("rates").get("EUR").decimalValue())
+                .isEqualByComparingTo("0.93");
+    }
+
+    @Test
+    void staleRatesMustBeRevalidated() throws Exception {
+        when(exchangeRateService.serveExchangeRates("USD"))
+                .thenReturn(CompletableFuture.completedFuture(Optional.of(new ServedRates(snapshot("0.92"), true))));
+
+        MvcResult started = mockMvc.perform(get("/api/exchange-rates/usd"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache"))
+                .andExpect(header().string(ExchangeRateController.STALE_HEADER, "true"))
+                .andExpect(header().exists(HttpHeaders.AGE));
+    }
+
+    @Test
+    void freshRatesAreCacheableForMaxAge() throws Exception {
+        when(exchangeRateService.serveExchangeRates("USD"))
+                .thenReturn(CompletableFuture.completedFuture(Optional.of(new ServedRates(snapshot("0.92"), false))));
+
+        MvcResult started = mockMvc.perform(get("/api/exchange-rates/USD"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=60, public"))
+                .andExpect(header().doesNotExist(ExchangeRateController.STALE_HEADER));
+    }
+
+    private static ExchangeRateData snapshot(String usdToEur) {
+        return snapshot(usdToEur, SNAPSHOT_TIME);
+    }
+
+    private static ExchangeRateData snapshot(String usdToEur, LocalDateTime timestamp) {
+        ExchangeRateData data = ExchangeRateData.builder()
+                .baseCurrency("USD")
+                .timestamp(timestamp)
+                .dateUnix(1748131201L)
+                .rates(Map.of("USD", BigDecimal.ONE, "EUR", new BigDecimal(usdToEur)))
+                .source("API")
+                .build();
+        data.generateId();
+        return data;
+    }
+}
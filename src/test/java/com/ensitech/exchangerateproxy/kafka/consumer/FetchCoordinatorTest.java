@@ -0,0 +1,121 @@
+package com.ensitech.exchangerateproxy.kafka.consumer;
+
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.producer.internals.BuiltInPartitioner;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class FetchCoordinatorTest {
+
+    private static final List<String> CURRENCIES = List.of("USD", "EUR", "GBP", "JPY", "CHF", "CAD", "AUD");
+
+    private FetchCoordinator coordinator;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        coordinator = new FetchCoordinator(mock(ConsumerFactory.class));
+        ReflectionTestUtils.setField(coordinator, "enabled", true);
+        ReflectionTestUtils.setField(coordinator, "fallbackAfter", Duration.ofMinutes(2));
+        ReflectionTestUtils.setField(coordinator, "settleTimeout", Duration.ofSeconds(10));
+    }
+
+    @Test
+    void currencyPartitionMatchesTheProducerPartitioner() {
+        for (String currency : CURRENCIES) {
+            assertThat(FetchCoordinator.partitionFor(currency, 3)).isEqualTo(
+                    BuiltInPartitioner.partitionForKey(currency.getBytes(StandardCharsets.UTF_8), 3));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void eachCurrencyIsOwnedByExactlyOneInstance() {
+        FetchCoordinator other = new FetchCoordinator(mock(ConsumerFactory.class));
+        ReflectionTestUtils.setField(other, "enabled", true);
+        assign(coordinator, Set.of(0, 2));
+        assign(other, Set.of(1));
+
+        Set<String> owned = coordinator.ownedAmong(CURRENCIES);
+        Set<String> ownedByOther = other.ownedAmong(CURRENCIES);
+
+        assertThat(owned).doesNotContainAnyElementsOf(ownedByOther);
+        assertThat(owned.size() + ownedByOther.size()).isEqualTo(CURRENCIES.size());
+    }
+
+    @Test
+    void instanceNeverAssignedFetchesLocallyOnceTheGroupHasSettled() {
+        assertThat(coordinator.isOwnedElsewhere("USD")).isTrue();
+
+        ReflectionTestUtils.setField(coordinator, "settleTimeout", Duration.ZERO);
+        assertThat(coordinator.isOwnedElsewhere("USD")).isFalse();
+    }
+
+    @Test
+    void soleMemberKeepsFetchingDuringARebalance() {
+        receiveAssignment(coordinator, List.of(0, 1, 2));
+        revokeAll(coordinator);
+
+        assertThat(coordinator.ownedAmong(CURRENCIES)).containsExactlyElementsOf(CURRENCIES);
+    }
+
+    @Test
+    void memberOfALargerGroupWaitsForTheRebalanceUntilTheFallback() {
+        receiveAssignment(coordinator, List.of(1));
+        revokeAll(coordinator);
+
+        assertThat(coordinator.ownedAmong(CURRENCIES)).isEmpty();
+
+        ReflectionTestUtils.setField(coordinator, "fallbackAfter", Duration.ZERO);
+        assertThat(coordinator.ownedAmong(CURRENCIES)).containsExactlyElementsOf(CURRENCIES);
+    }
+
+    @Test
+    void disabledCoordinationFetchesEverything() {
+        ReflectionTestUtils.setField(coordinator, "enabled", false);
+
+        assertThat(coordinator.ownedAmong(CURRENCIES)).containsExactlyElementsOf(CURRENCIES);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void receiveAssignment(FetchCoordinator coordinator, List<Integer> partitions) {
+        ReflectionTestUtils.setField(coordinator, "topic", "exchange-rates");
+        Consumer<String, ExchangeRateData> consumer = mock(Consumer.class);
+        List<PartitionInfo> partitionInfos = List.of(0, 1, 2).stream()
+                .map(partition -> new PartitionInfo("exchange-rates", partition, null, null, null))
+                .toList();
+        Set<TopicPartition> assignment = partitions.stream()
+                .map(partition -> new TopicPartition("exchange-rates", partition))
+                .collect(Collectors.toSet());
+        when(consumer.partitionsFor("exchange-rates")).thenReturn(partitionInfos);
+        when(consumer.assignment()).thenReturn(assignment);
+        ReflectionTestUtils.invokeMethod(coordinator, "assigned", consumer);
+    }
+
+    private static void revokeAll(FetchCoordinator coordinator) {
+        Set<Integer> owned = (Set<Integer>) ReflectionTestUtils.getField(coordinator, "ownedPartitions");
+        ReflectionTestUtils.invokeMethod(coordinator, "unassigned", "revoked", owned.stream()
+                .map(partition -> new TopicPartition("exchange-rates", partition))
+                .toList());
+    }
+
+    private static void assign(FetchCoordinator coordinator, Set<Integer> partitions) {
+        ReflectionTestUtils.setField(coordinator, "partitionCount", 3);
+        ReflectionTestUtils.setField(coordinator, "ownedPartitions", partitions);
+    }
+}
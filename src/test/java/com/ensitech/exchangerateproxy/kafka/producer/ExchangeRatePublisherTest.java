@@ -0,0 +1,131 @@
+package com.ensitech.exchangerateproxy.kafka.producer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ExchangeRatePublisherTest {
+
+    private KafkaTemplate<String, Object> kafkaTemplate;
+    private SimpleMeterRegistry meterRegistry;
+    private ExchangeRatePublisher publisher;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        kafkaTemplate = mock(KafkaTemplate.class);
+        meterRegistry = new SimpleMeterRegistry();
+        publisher = new ExchangeRatePublisher(kafkaTemplate, meterRegistry);
+        ReflectionTestUtils.setField(publisher, "capacity", 2);
+        ReflectionTestUtils.setField(publisher, "maxAttempts", 2);
+        ReflectionTestUtils.setField(publisher, "retryBackoff", Duration.ofMillis(10));
+        publisher.bindTo(meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        publisher.shutdown();
+    }
+
+    @Test
+    void fullOutboxDropsTheOldestMessageWithoutBlocking() {
+        // Outbox sans thread d'envoi : rien n'est consommé
+        ReflectionTestUtils.setField(publisher, "outbox", new ArrayBlockingQueue<>(2));
+        when(kafkaTemplate.send(anyString(), anyString(), any())).thenReturn(new CompletableFuture<>());
+
+        publisher.publish("exchange-rates", "USD", "first");
+        publisher.publish("exchange-rates", "EUR", "second");
+        publisher.publish("exchange-rates", "GBP", "third");
+
+        assertThat(publisher.pending()).isEqualTo(2);
+        assertThat(meterRegistry.get("exchangerate.kafka.outbox.dropped").functionCounter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void fullOutboxDropsSupersededMessagesFirst() {
+        ReflectionTestUtils.setField(publisher, "outbox", new ArrayBlockingQueue<>(2));
+
+        publisher.publishSnapshot("exchange-rates", "USD", "first");
+        publisher.publishSnapshot("exchange-rates", "EUR", "second");
+        publisher.publishSnapshot("exchange-rates", "USD", "third");
+
+        assertThat(publisher.pending()).isEqualTo(2);
+        assertThat(meterRegistry.get("exchangerate.kafka.outbox.dropped").functionCounter().count()).isZero();
+    }
+
+    @Test
+    void supersededMessageIsNotSent() {
+        ReflectionTestUtils.setField(publisher, "outbox", new ArrayBlockingQueue<>(2));
+        when(kafkaTemplate.send(anyString(), anyString(), any())).thenReturn(CompletableFuture.completedFuture(null));
+        publisher.publishSnapshot("exchange-rates", "USD", "old");
+        publisher.publishSnapshot("exchange-rates", "USD", "new");
+
+        // L'arrêt envoie les messages en attente, dans l'ordre
+        publisher.shutdown();
+
+        verify(kafkaTemplate).send("exchange-rates", "USD", "new");
+        verify(kafkaTemplate, never()).send("exchange-rates", "USD", "old");
+        assertThat(meterRegistry.get("exchangerate.kafka.outbox.superseded").functionCounter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void deltasForTheSameKeyAreAllSent() {
+        ReflectionTestUtils.setField(publisher, "outbox", new ArrayBlockingQueue<>(2));
+        when(kafkaTemplate.send(anyString(), anyString(), any())).thenReturn(CompletableFuture.completedFuture(null));
+        // Un delta ne contient que les taux modifiés depuis le précédent : aucun ne remplace l'autre
+        publisher.publish("exchange-rates-delta", "USD", "EUR changed");
+        publisher.publish("exchange-rates-delta", "USD", "GBP changed");
+
+        publisher.shutdown();
+
+        verify(kafkaTemplate).send("exchange-rates-delta", "USD", "EUR changed");
+        verify(kafkaTemplate).send("exchange-rates-delta", "USD", "GBP changed");
+        assertThat(meterRegistry.get("exchangerate.kafka.outbox.superseded").functionCounter().count()).isZero();
+    }
+
+    @Test
+    void fullOutboxNeverCoalescesDeltas() {
+        ReflectionTestUtils.setField(publisher, "outbox", new ArrayBlockingQueue<>(2));
+
+        publisher.publish("exchange-rates-delta", "USD", "EUR changed");
+        publisher.publish("exchange-rates-delta", "USD", "GBP changed");
+        publisher.publish("exchange-rates-delta", "USD", "JPY changed");
+
+        // Seule la politique d'outbox pleine s'applique : le plus ancien est abandonné et compté
+        assertThat(publisher.pending()).isEqualTo(2);
+        assertThat(meterRegistry.get("exchangerate.kafka.outbox.dropped").functionCounter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("exchangerate.kafka.outbox.superseded").functionCounter().count()).isZero();
+    }
+
+    @Test
+    void failedSendIsRetried() {
+        when(kafkaTemplate.send(anyString(), anyString(), any()))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        ReflectionTestUtils.invokeMethod(publisher, "start");
+
+        publisher.publish("exchange-rates", "USD", "snapshot");
+
+        verify(kafkaTemplate, timeout(1000).times(2)).send(eq("exchange-rates"), eq("USD"), eq("snapshot"));
+        assertThat(meterRegistry.get("exchangerate.kafka.outbox.retried").functionCounter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("exchangerate.kafka.send").tag("outcome", "failure").timer().count())
+                .isEqualTo(1);
+    }
+}
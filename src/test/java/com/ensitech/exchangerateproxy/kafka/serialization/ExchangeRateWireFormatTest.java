@@ -0,0 +1,114 @@
+package com.ensitech.exchangerateproxy.kafka.serialization;
+
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ExchangeRateWireFormatTest {
+
+    private static final String TOPIC = "exchange-rates";
+
+    @Test
+    void binaryRoundTripPreservesSnapshot() {
+        ExchangeRateData data = snapshot(160);
+
+        ExchangeRateData decoded = ExchangeRateBinaryCodec.decode(ExchangeRateBinaryCodec.encode(data));
+
+        assertThat(decoded).isEqualTo(data);
+    }
+
+    @Test
+    void unknownCurrenciesAndLargeValuesAreEncodedInline() {
+        ExchangeRateData data = snapshot(3);
+        Map<String, BigDecimal> rates = new LinkedHashMap<>(data.getRates());
+        rates.put("XYZ", new BigDecimal("12.5"));
+        rates.put("BIG", new BigDecimal("123456789012345678901234567890.123"));
+        data.setRates(rates);
+
+        ExchangeRateData decoded = ExchangeRateBinaryCodec.decode(ExchangeRateBinaryCodec.encode(data));
+
+        assertThat(decoded.getRates()).isEqualTo(data.getRates());
+    }
+
+    @Test
+    void binaryPayloadIsMuchSmallerThanJson() {
+        ExchangeRateData data = snapshot(160);
+
+        ExchangeRateWireSerializer json = serializer("json");
+        ExchangeRateWireSerializer binary = serializer("binary");
+        byte[] jsonBytes = json.serialize(TOPIC, new RecordHeaders(), data);
+        byte[] binaryBytes = binary.serialize(TOPIC, new RecordHeaders(), data);
+
+        assertThat(binaryBytes.length).isLessThan(jsonBytes.length / 2);
+    }
+
+    @Test
+    void currencyIndexBeyondTheDictionaryIsRejected() {
+        // Un seul taux (USD, index 0) : le payload se termine par l'écart d'index 1 puis la valeur 1 (0x00 0x02)
+        byte[] encoded = ExchangeRateBinaryCodec.encode(snapshot(1));
+        byte[] payload = Arrays.copyOf(encoded, encoded.length + 1);
+        // Écart de 200 en varint, au-delà du dictionnaire de ce consommateur
+        payload[encoded.length - 3] = (byte) 0xC8;
+        payload[encoded.length - 2] = 0x01;
+        payload[encoded.length - 1] = 0x00;
+        payload[encoded.length] = 0x02;
+
+        assertThatThrownBy(() -> ExchangeRateBinaryCodec.decode(payload))
+                .isInstanceOf(SerializationException.class)
+                .hasMessageContaining("index 199")
+                .hasMessageContaining("version " + ExchangeRateBinaryCodec.VERSION);
+    }
+
+    @Test
+    void deserializerAcceptsBothFormats() {
+        ExchangeRateData data = snapshot(160);
+        ExchangeRateWireDeserializer deserializer = new ExchangeRateWireDeserializer();
+
+        RecordHeaders jsonHeaders = new RecordHeaders();
+        byte[] jsonBytes = serializer("json").serialize(TOPIC, jsonHeaders, data);
+        RecordHeaders binaryHeaders = new RecordHeaders();
+        byte[] binaryBytes = serializer("binary").serialize(TOPIC, binaryHeaders, data);
+
+        assertThat(deserializer.deserialize(TOPIC, jsonHeaders, jsonBytes).getRates()).isEqualTo(data.getRates());
+        assertThat(deserializer.deserialize(TOPIC, binaryHeaders, binaryBytes)).isEqualTo(data);
+        assertThat(deserializer.deserialize(TOPIC, binaryBytes)).isEqualTo(data);
+    }
+
+    private static ExchangeRateWireSerializer serializer(String format) {
+        ExchangeRateWireSerializer serializer = new ExchangeRateWireSerializer();
+        serializer.configure(Map.of(ExchangeRateWireSerializer.WIRE_FORMAT_CONFIG, format), false);
+        return serializer;
+    }
+
+    static ExchangeRateData snapshot(int currencies) {
+        Random random = new Random(42);
+        Map<String, BigDecimal> rates = new LinkedHashMap<>();
+        rates.put("USD", BigDecimal.ONE);
+        ExchangeRateBinaryCodec.knownCurrencies().stream()
+                .filter(code -> !code.equals("USD"))
+                .limit(currencies - 1L)
+                .forEach(code -> rates.put(code, BigDecimal.valueOf(random.nextInt(10_000_000), 2 + random.nextInt(3))));
+
+        ExchangeRateData data = ExchangeRateData.builder()
+                .baseCurrency("USD")
+                .timestamp(LocalDateTime.of(2025, 5, 25, 16, 44, 28, 874128000))
+                .dateUnix(1748131201L)
+                .rates(rates)
+                .source("API")
+                .provider("https://www.exchangerate-api.com")
+                .build();
+        data.generateId();
+        return data;
+    }
+}
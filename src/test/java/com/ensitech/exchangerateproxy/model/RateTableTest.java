@@ -0,0 +1,69 @@
+package com.ensitech.exchangerateproxy.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateTableTest {
+
+    @Test
+    void behavesLikeTheSourceMap() {
+        Map<String, BigDecimal> source = new LinkedHashMap<>();
+        source.put("USD", BigDecimal.ONE);
+        source.put("EUR", new BigDecimal("0.9210"));
+        source.put("JPY", new BigDecimal("151.32"));
+        source.put("BIG", new BigDecimal("123456789012345678901234567890.5"));
+
+        RateTable table = RateTable.of(source);
+
+        assertThat(table).isEqualTo(source);
+        assertThat(table.hashCode()).isEqualTo(source.hashCode());
+        assertThat(table.keySet()).containsExactly("USD", "EUR", "JPY", "BIG");
+        assertThat(table.get("EUR")).isEqualTo(new BigDecimal("0.9210"));
+        assertThat(table.get("BIG")).isEqualTo(new BigDecimal("123456789012345678901234567890.5"));
+    }
+
+    @Test
+    void lookupsAreCaseInsensitiveAndPrimitive() {
+        RateTable table = RateTable.of(Map.of("GBP", new BigDecimal("0.79"), "CHF", new BigDecimal("0.88")));
+
+        assertThat(table.get("gbp")).isEqualByComparingTo("0.79");
+        assertThat(table.containsKey("chf")).isTrue();
+        assertThat(table.doubleValue("CHF")).isEqualTo(0.88);
+        assertThat(table.doubleValue("XXX")).isNaN();
+        assertThat(table.get("XXX")).isNull();
+    }
+
+    @Test
+    void exchangeRateDataStoresRatesAsTable() {
+        ExchangeRateData data = ExchangeRateData.builder()
+                .baseCurrency("USD")
+                .rates(Map.of("EUR", new BigDecimal("0.92")))
+                .build();
+
+        assertThat(data.getRates()).isInstanceOf(RateTable.class);
+        assertThat(data.getRateFor("eur")).isEqualByComparingTo("0.92");
+        assertThat(data.hasCurrency("EUR")).isTrue();
+    }
+
+    @Test
+    void repeatedLookupsReuseTheSameDecimal() {
+        RateTable table = RateTable.of(Map.of("EUR", new BigDecimal("0.9210")));
+
+        assertThat(table.get("EUR")).isSameAs(table.get("eur"));
+        assertThat(table.rate(CurrencyCodes.idOf("EUR"))).isSameAs(table.get("EUR"));
+    }
+
+    @Test
+    void allArgsConstructorStoresRatesAsTable() {
+        ExchangeRateData data = new ExchangeRateData("USD_1", "USD", null, null,
+                Map.of("EUR", new BigDecimal("0.92")), "API", null);
+
+        assertThat(data.rateTable()).isNotNull();
+        assertThat(data.getRates()).isSameAs(data.rateTable());
+    }
+}
@@ -0,0 +1,109 @@
+package com.ensitech.exchangerateproxy.scheduler;
+
+import com.ensitech.exchangerateproxy.kafka.consumer.FetchCoordinator;
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import com.ensitech.exchangerateproxy.service.CrossRateEngine;
+import com.ensitech.exchangerateproxy.service.ExchangeRateIndexManager;
+import com.ensitech.exchangerateproxy.service.ExchangeRateService;
+import com.ensitech.exchangerateproxy.service.UpstreamCircuitBreaker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ScheduledTasksTest {
+
+    private ExchangeRateService exchangeRateService;
+    private ScheduledTasks scheduledTasks;
+
+    // Appel bloqué jusqu'à son interruption
+    private final CountDownLatch interrupted = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        exchangeRateService = mock(ExchangeRateService.class);
+        scheduledTasks = new ScheduledTasks(exchangeRateService, mock(CrossRateEngine.class),
+                mock(UpstreamCircuitBreaker.class), mock(ExchangeRateIndexManager.class), mock(FetchCoordinator.class));
+        ReflectionTestUtils.setField(scheduledTasks, "maxConcurrency", 2);
+        ReflectionTestUtils.setField(scheduledTasks, "perCurrencyTimeout", Duration.ofSeconds(5));
+        ReflectionTestUtils.setField(scheduledTasks, "cycleDeadline", Duration.ofSeconds(10));
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduledTasks.shutdown();
+    }
+
+    @Test
+    void currenciesAreFetchedConcurrentlyWithinTheConcurrencyLimit() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        when(exchangeRateService.fetchExchangeRates(anyString())).thenAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(50);
+            running.decrementAndGet();
+            return Optional.of(new ExchangeRateData());
+        });
+
+        Map<String, String> report = scheduledTasks.fetchInParallel(currencies("USD", "EUR", "GBP", "JPY", "CHF"));
+
+        assertThat(report).containsOnlyKeys("USD", "EUR", "GBP", "JPY", "CHF");
+        assertThat(report.values()).allSatisfy(outcome -> assertThat(outcome).startsWith("OK "));
+        assertThat(maxRunning.get()).isEqualTo(2);
+    }
+
+    @Test
+    void slowCurrencyTimesOutWithoutHoldingBackTheOthers() throws Exception {
+        ReflectionTestUtils.setField(scheduledTasks, "perCurrencyTimeout", Duration.ofMillis(100));
+        when(exchangeRateService.fetchExchangeRates("EUR")).thenAnswer(invocation -> blockUntilInterrupted());
+        when(exchangeRateService.fetchExchangeRates("USD")).thenReturn(Optional.of(new ExchangeRateData()));
+
+        Map<String, String> report = scheduledTasks.fetchInParallel(currencies("EUR", "USD"));
+
+        assertThat(report.get("EUR")).isEqualTo("TIMEOUT");
+        assertThat(report.get("USD")).startsWith("OK ");
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void cycleDeadlineCancelsTheFetchesStillRunning() throws Exception {
+        ReflectionTestUtils.setField(scheduledTasks, "cycleDeadline", Duration.ofMillis(100));
+        when(exchangeRateService.fetchExchangeRates("EUR")).thenAnswer(invocation -> blockUntilInterrupted());
+        when(exchangeRateService.fetchExchangeRates("USD")).thenReturn(Optional.empty());
+
+        Map<String, String> report = scheduledTasks.fetchInParallel(currencies("USD", "EUR"));
+
+        assertThat(report.get("USD")).startsWith("EMPTY ");
+        assertThat(report.get("EUR")).isEqualTo("DEADLINE");
+        // L'appel externe lui-même est interrompu, pas seulement la tâche qui l'attendait
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private Optional<ExchangeRateData> blockUntilInterrupted() {
+        try {
+            new CountDownLatch(1).await();
+        } catch (InterruptedException e) {
+            interrupted.countDown();
+        }
+        return Optional.empty();
+    }
+
+    private static Set<String> currencies(String... codes) {
+        return new LinkedHashSet<>(List.of(codes));
+    }
+}
@@ -0,0 +1,264 @@
+package com.ensitech.exchangerateproxy.service;
+
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregate;
+import co.elastic.clients.elasticsearch._types.aggregations.CalendarInterval;
+import co.elastic.clients.elasticsearch._types.aggregations.DateHistogramAggregation;
+import co.elastic.clients.elasticsearch._types.aggregations.DateHistogramBucket;
+import co.elastic.clients.elasticsearch._types.aggregations.TopMetrics;
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import com.ensitech.exchangerateproxy.model.RateCandle;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.elasticsearch.client.elc.ElasticsearchAggregations;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.SearchHits;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.Query;
+import org.springframework.data.elasticsearch.core.query.RuntimeField;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ElasticsearchServiceTest {
+
+    private static final LocalDateTime FROM = LocalDateTime.of(2024, 1, 1, 0, 0);
+    private static final LocalDateTime TO = LocalDateTime.of(2024, 1, 31, 23, 59, 59);
+
+    private ElasticsearchService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new ElasticsearchService(null, null, new SimpleMeterRegistry(), null);
+        ReflectionTestUtils.setField(service, "maxCandles", 5000L);
+    }
+
+    @Test
+    void fixedIntervalIsPassedToTheHistogram() {
+        DateHistogramAggregation histogram = histogram("1h");
+
+        assertThat(histogram.fixedInterval().time()).isEqualTo("1h");
+        assertThat(histogram.calendarInterval()).isNull();
+    }
+
+    @Test
+    void calendarIntervalIsMappedToItsUnit() {
+        DateHistogramAggregation histogram = histogram("1M");
+
+        assertThat(histogram.calendarInterval()).isEqualTo(CalendarInterval.Month);
+        assertThat(histogram.fixedInterval()).isNull();
+    }
+
+    @Test
+    void unknownOrZeroIntervalsAreRejected() {
+        assertThatThrownBy(() -> service.histogramInterval("0m", FROM, TO))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.histogramInterval("2w", FROM, TO))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.histogramInterval(null, FROM, TO))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.histogramInterval(" ", FROM, TO))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void intervalYieldingTooManyCandlesIsRejected() {
+        // Un mois en minutes : environ 44 640 bougies
+        assertThatThrownBy(() -> service.histogramInterval("1m", FROM, TO))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("5000");
+    }
+
+    @Test
+    void bucketIsParsedIntoACandle() {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 10, 0);
+        DateHistogramBucket bucket = DateHistogramBucket.of(b -> b
+                .key(start.toInstant(ZoneOffset.UTC).toEpochMilli())
+                .docCount(12)
+                .aggregations(Map.of(
+                        "open", topMetric("rates.EUR", 0.91),
+                        "high", Aggregate.of(a -> a.max(m -> m.value(0.95))),
+                        "low", Aggregate.of(a -> a.min(m -> m.value(0.9))),
+                        "close", topMetric("rates.EUR", 0.93),
+                        "avg", Aggregate.of(a -> a.avg(m -> m.value(0.92))))));
+
+        RateCandle candle = ElasticsearchService.toCandle(bucket, "rates.EUR", "USD", "EUR");
+
+        assertThat(candle.getBaseCurrency()).isEqualTo("USD");
+        assertThat(candle.getTargetCurrency()).isEqualTo("EUR");
+        assertThat(candle.getStart()).isEqualTo(start);
+        assertThat(candle.getOpen()).isEqualByComparingTo("0.91");
+        assertThat(candle.getHigh()).isEqualByComparingTo("0.95");
+        assertThat(candle.getLow()).isEqualByComparingTo("0.9");
+        assertThat(candle.getClose()).isEqualByComparingTo("0.93");
+        assertThat(candle.getAvg()).isEqualByComparingTo("0.92");
+        assertThat(candle.getCount()).isEqualTo(12);
+    }
+
+    @Test
+    void bucketWithoutTheRateHasEmptyValues() {
+        DateHistogramBucket bucket = DateHistogramBucket.of(b -> b
+                .key(FROM.toInstant(ZoneOffset.UTC).toEpochMilli())
+                .docCount(3)
+                .aggregations(Map.of(
+                        "open", Aggregate.of(a -> a.topMetrics(t -> t.top(List.of()))),
+                        "high", Aggregate.of(a -> a.max(m -> m.value(Double.NaN))),
+                        "low", Aggregate.of(a -> a.min(m -> m.value(Double.NaN))),
+                        "close", Aggregate.of(a -> a.topMetrics(t -> t.top(List.of()))),
+                        "avg", Aggregate.of(a -> a.avg(m -> m.value(Double.NaN))))));
+
+        RateCandle candle = ElasticsearchService.toCandle(bucket, "rates.XYZ", "USD", "XYZ");
+
+        assertThat(candle.getOpen()).isNull();
+        assertThat(candle.getHigh()).isNull();
+        assertThat(candle.getLow()).isNull();
+        assertThat(candle.getClose()).isNull();
+        assertThat(candle.getAvg()).isNull();
+        assertThat(candle.getCount()).isEqualTo(3);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void inverseCandlesAggregateTheInvertedRate() {
+        ElasticsearchOperations operations = mock(ElasticsearchOperations.class);
+        ExchangeRateIndexManager indexManager = mock(ExchangeRateIndexManager.class);
+        when(indexManager.readIndicesFor(FROM, TO)).thenReturn(IndexCoordinates.of("exchange-rates"));
+        Aggregate histogram = Aggregate.of(a -> a.dateHistogram(h -> h.buckets(b -> b.array(List.of(
+                DateHistogramBucket.of(bucket -> bucket
+                        .key(FROM.toInstant(ZoneOffset.UTC).toEpochMilli())
+                        .docCount(2)
+                        .aggregations(Map.of(
+                                "open", topMetric(ElasticsearchService.INVERSE_RATE, 1.25),
+                                "high", Aggregate.of(m -> m.max(v -> v.value(2.0))),
+                                "low", Aggregate.of(m -> m.min(v -> v.value(1.25))),
+                                "close", topMetric(ElasticsearchService.INVERSE_RATE, 2.0),
+                                "avg", Aggregate.of(m -> m.avg(v -> v.value(1.625)))))))))));
+        SearchHits<ExchangeRateData> hits = mock(SearchHits.class);
+        doReturn(new ElasticsearchAggregations(Map.of("candles", histogram))).when(hits).getAggregations();
+        when(operations.search(any(Query.class), eq(ExchangeRateData.class), any(IndexCoordinates.class)))
+                .thenReturn(hits);
+        service = new ElasticsearchService(operations, null, new SimpleMeterRegistry(), indexManager);
+        ReflectionTestUtils.setField(service, "maxCandles", 5000L);
+
+        List<RateCandle> candles = service.findInverseCandles("USD", "EUR", FROM, TO, "1d");
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(operations).search(query.capture(), eq(ExchangeRateData.class), any(IndexCoordinates.class));
+        NativeQuery nativeQuery = (NativeQuery) query.getValue();
+        assertThat(nativeQuery.getRuntimeFields()).extracting(RuntimeField::getName)
+                .containsExactly(ElasticsearchService.INVERSE_RATE);
+        RuntimeField inverseRate = nativeQuery.getRuntimeFields().get(0);
+        assertThat(inverseRate.getScript()).contains("1.0 / rate.value");
+        assertThat(ReflectionTestUtils.getField(inverseRate, "params")).isEqualTo(Map.of("field", "rates.EUR"));
+        assertThat(nativeQuery.getAggregations().get("candles").aggregations().get("avg").avg().field())
+                .isEqualTo(ElasticsearchService.INVERSE_RATE);
+
+        assertThat(candles).hasSize(1);
+        RateCandle candle = candles.get(0);
+        assertThat(candle.getBaseCurrency()).isEqualTo("EUR");
+        assertThat(candle.getTargetCurrency()).isEqualTo("USD");
+        assertThat(candle.getOpen()).isEqualByComparingTo("1.25");
+        assertThat(candle.getClose()).isEqualByComparingTo("2");
+        // Moyenne des taux inversés (1.25 et 2), non l'inverse de la moyenne des taux pivot
+        assertThat(candle.getAvg()).isEqualByComparingTo("1.625");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void latestLookupSortsLikeTheIndex() {
+        ElasticsearchOperations operations = mock(ElasticsearchOperations.class);
+        SearchHits<ExchangeRateData> noHits = mock(SearchHits.class);
+        when(operations.search(any(Query.class), eq(ExchangeRateData.class))).thenReturn(noHits);
+        service = new ElasticsearchService(operations, null, new SimpleMeterRegistry(), null);
+
+        service.findLatestByBaseCurrency("USD");
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(operations).search(query.capture(), eq(ExchangeRateData.class));
+        assertThat(query.getValue().getSort()).containsExactly(
+                Sort.Order.asc("baseCurrency"), Sort.Order.desc("timestamp"));
+    }
+
+    @Test
+    void cursorRoundTripsTheSortValues() {
+        List<Object> sortValues = List.of(1735689600000L, 42L);
+
+        String cursor = ElasticsearchService.encodeCursor(sortValues);
+
+        assertThat(cursor).doesNotContain("=", "+", "/");
+        assertThat(ElasticsearchService.decodeCursor(cursor)).isEqualTo(sortValues);
+    }
+
+    @Test
+    void malformedCursorsAreRejected() {
+        assertThatThrownBy(() -> ElasticsearchService.decodeCursor("not base64!"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Invalid history cursor");
+        String notNumeric = ElasticsearchService.encodeCursor(List.of("abc"));
+        assertThatThrownBy(() -> ElasticsearchService.decodeCursor(notNumeric))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Invalid history cursor");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void onlyAPageFollowedByMoreHitsCarriesANextCursor() {
+        ElasticsearchOperations operations = mock(ElasticsearchOperations.class);
+        ExchangeRateIndexManager indexManager = mock(ExchangeRateIndexManager.class);
+        when(indexManager.readIndicesFor(FROM, TO)).thenReturn(IndexCoordinates.of("exchange-rates"));
+        // Hits préparés avant le stub qui les renvoie : pas de stub imbriqué
+        List<SearchHit<ExchangeRateData>> hits = List.of(hit(3L), hit(2L), hit(1L));
+        SearchHits<ExchangeRateData> threeHits = mock(SearchHits.class);
+        when(threeHits.getSearchHits()).thenReturn(hits);
+        when(operations.search(any(Query.class), eq(ExchangeRateData.class), any(IndexCoordinates.class)))
+                .thenReturn(threeHits);
+        service = new ElasticsearchService(operations, null, new SimpleMeterRegistry(), indexManager);
+        ReflectionTestUtils.setField(service, "defaultPageSize", 100);
+        ReflectionTestUtils.setField(service, "maxPageSize", 1000);
+
+        HistoryPage firstPage = service.findHistoryPage("USD", FROM, TO, null, 2, null);
+        HistoryPage lastPage = service.findHistoryPage("USD", FROM, TO, null, 3, null);
+
+        assertThat(firstPage.items()).hasSize(2);
+        assertThat(ElasticsearchService.decodeCursor(firstPage.nextCursor())).containsExactly(2L);
+        assertThat(lastPage.items()).hasSize(3);
+        assertThat(lastPage.nextCursor()).isNull();
+    }
+
+    private DateHistogramAggregation histogram(String interval) {
+        DateHistogramAggregation.Builder builder = new DateHistogramAggregation.Builder().field("timestamp");
+        service.histogramInterval(interval, FROM, TO).accept(builder);
+        return builder.build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SearchHit<ExchangeRateData> hit(long timestamp) {
+        SearchHit<ExchangeRateData> hit = mock(SearchHit.class);
+        when(hit.getContent()).thenReturn(new ExchangeRateData());
+        when(hit.getSortValues()).thenReturn(List.of(timestamp));
+        return hit;
+    }
+
+    private static Aggregate topMetric(String field, double value) {
+        return Aggregate.of(a -> a.topMetrics(t -> t.top(TopMetrics.of(m -> m
+                .sort(FieldValue.of(0L))
+                .metrics(field, FieldValue.of(value))))));
+    }
+}
@@ -0,0 +1,123 @@
+package com.ensitech.exchangerateproxy.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.IndexInformation;
+import org.springframework.data.elasticsearch.core.IndexOperations;
+import org.springframework.data.elasticsearch.core.index.AliasActions;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ExchangeRateIndexManagerTest {
+
+    @Test
+    void shortRangesTargetOnlyTheirDailyPartitions() {
+        ExchangeRateIndexManager manager = manager(ExchangeRateIndexManager.Period.DAILY, false);
+
+        String[] indices = manager.readIndicesFor(
+                LocalDateTime.of(2025, 5, 30, 12, 0), LocalDateTime.of(2025, 6, 1, 8, 0)).getIndexNames();
+
+        assertThat(manager.indexFor(LocalDateTime.of(2025, 5, 30, 23, 59))).isEqualTo("exchange-rates-2025.05.30");
+        assertThat(indices).containsExactly(
+                "exchange-rates-2025.05.30*", "exchange-rates-2025.05.31*", "exchange-rates-2025.06.01*",
+                "exchange-rates-2025.06.02*");
+    }
+
+    @Test
+    void rangesIncludeTheLegacyIndexWhenItExists() {
+        ExchangeRateIndexManager manager = manager(ExchangeRateIndexManager.Period.MONTHLY, false);
+        ReflectionTestUtils.setField(manager, "legacyIndexPresent", true);
+
+        String[] indices = manager.readIndicesFor(
+                LocalDateTime.of(2025, 5, 1, 0, 0), LocalDateTime.of(2025, 5, 10, 0, 0)).getIndexNames();
+
+        assertThat(indices).containsExactly("exchange-rates-2025.05*", "exchange-rates");
+    }
+
+    @Test
+    void retentionDropsExpiredPartitionsAndArchives() {
+        ElasticsearchOperations operations = mock(ElasticsearchOperations.class);
+        IndexOperations indexOps = mock(IndexOperations.class);
+        when(operations.indexOps(any(IndexCoordinates.class))).thenReturn(indexOps);
+        when(indexOps.getInformation()).thenReturn(Stream.of(
+                        "exchange-rates-2025.01.31", "exchange-rates-2025.03.01",
+                        "exchange-rates-archive-2022", "exchange-rates-archive-2024")
+                .map(name -> IndexInformation.of(name, null, null, List.of()))
+                .toList());
+        ExchangeRateIndexManager manager = new ExchangeRateIndexManager(operations, mock(ElasticsearchClient.class));
+        ReflectionTestUtils.setField(manager, "retention", Duration.ofDays(30));
+        ReflectionTestUtils.setField(manager, "archiveRetention", Duration.ofDays(730));
+
+        List<String> dropped = manager.applyRetention(LocalDateTime.of(2025, 3, 15, 2, 0));
+
+        assertThat(dropped).containsExactly("exchange-rates-2025.01.31", "exchange-rates-archive-2022");
+        verify(indexOps, times(2)).delete();
+    }
+
+    @Test
+    void writesGoThroughTheWriteAliasRolledToTheCurrentPartition() {
+        ElasticsearchOperations operations = mock(ElasticsearchOperations.class);
+        IndexOperations indexOps = mock(IndexOperations.class);
+        when(operations.indexOps(any(IndexCoordinates.class))).thenReturn(indexOps);
+        when(indexOps.exists()).thenReturn(true);
+        ExchangeRateIndexManager manager = new ExchangeRateIndexManager(operations, mock(ElasticsearchClient.class));
+        ReflectionTestUtils.setField(manager, "period", ExchangeRateIndexManager.Period.DAILY);
+        ReflectionTestUtils.setField(manager, "templateInstalled", true);
+
+        assertThat(manager.writeAlias()).isEqualTo(ExchangeRateIndexManager.WRITE_ALIAS);
+        assertThat(manager.writeAlias()).isEqualTo(ExchangeRateIndexManager.WRITE_ALIAS);
+
+        // Une seule bascule tant que la période ne change pas
+        verify(indexOps, times(1)).alias(any(AliasActions.class));
+        assertThat(ReflectionTestUtils.getField(manager, "writeIndex"))
+                .isEqualTo(manager.indexFor(LocalDateTime.now()));
+    }
+
+    @Test
+    void longRangesAreGroupedByMonthAndIncludeArchives() {
+        ExchangeRateIndexManager manager = manager(ExchangeRateIndexManager.Period.DAILY, true);
+
+        String[] indices = manager.readIndicesFor(
+                LocalDateTime.of(2024, 11, 15, 0, 0), LocalDateTime.of(2025, 1, 15, 0, 0)).getIndexNames();
+
+        assertThat(indices).containsExactly(
+                "exchange-rates-2024.11*", "exchange-rates-2024.12*", "exchange-rates-2025.01*",
+                "exchange-rates-archive-2024*", "exchange-rates-archive-2025*");
+    }
+
+    @Test
+    void archiveEndIsTheStartOfTheNextYear() {
+        assertThat(ExchangeRateIndexManager.archiveEnd("exchange-rates-archive-2024"))
+                .isEqualTo(LocalDateTime.of(2025, 1, 1, 0, 0));
+    }
+
+    @Test
+    void partitionEndIsTheStartOfTheNextPeriod() {
+        assertThat(ExchangeRateIndexManager.partitionEnd("exchange-rates-2025.02.28"))
+                .isEqualTo(LocalDateTime.of(2025, 3, 1, 0, 0));
+        assertThat(ExchangeRateIndexManager.partitionEnd("exchange-rates-2025.12"))
+                .isEqualTo(LocalDateTime.of(2026, 1, 1, 0, 0));
+        assertThat(ExchangeRateIndexManager.partitionEnd("exchange-rates-archive-2025")).isNull();
+    }
+
+    private static ExchangeRateIndexManager manager(ExchangeRateIndexManager.Period period, boolean downsample) {
+        ExchangeRateIndexManager manager = new ExchangeRateIndexManager(
+                mock(ElasticsearchOperations.class), mock(ElasticsearchClient.class));
+        ReflectionTestUtils.setField(manager, "period", period);
+        ReflectionTestUtils.setField(manager, "downsampleEnabled", downsample);
+        return manager;
+    }
+}
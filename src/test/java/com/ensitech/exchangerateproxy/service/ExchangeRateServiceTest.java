@@ -1,4 +1,315 @@
 package com.ensitech.exchangerateproxy.service;
 
-public class ExchangeRateServiceTest {
+import com.ensitech.exchangerateproxy.kafka.consumer.FetchCoordinator;
+import com.ensitech.exchangerateproxy.kafka.producer.ExchangeRatePublisher;
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import com.ensitech.exchangerateproxy.model.ExternalApiResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ExchangeRateServiceTest {
+
+    private RestTemplate restTemplate;
+    private ElasticsearchService elasticsearchService;
+    private SimpleMeterRegistry meterRegistry;
+    private UpstreamCircuitBreaker circuitBreaker;
+    private FetchCoordinator fetchCoordinator;
+    private ExchangeRatePublisher publisher;
+    private ExchangeRateService exchangeRateService;
+
+    @BeforeEach
+    void setUp() {
+        restTemplate = mock(RestTemplate.class);
+        elasticsearchService = mock(ElasticsearchService.class);
+        meterRegistry = new SimpleMeterRegistry();
+        circuitBreaker = circuitBreaker(2);
+        fetchCoordinator = mock(FetchCoordinator.class);
+        publisher = mock(ExchangeRatePublisher.class);
+        exchangeRateService = newService(crossRateEngine(false));
+    }
+
+    @Test
+    void concurrentFetchesShareOneUpstreamCall() throws Exception {
+        CountDownLatch upstreamEntered = new CountDownLatch(1);
+        CountDownLatch releaseUpstream = new CountDownLatch(1);
+        when(restTemplate.getForObject(anyString(), eq(ExternalApiResponse.class))).thenAnswer(invocation -> {
+            upstreamEntered.countDown();
+            releaseUpstream.await(5, TimeUnit.SECONDS);
+            return apiResponse("USD");
+        });
+
+        int callers = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<Optional<ExchangeRateData>>> results = new ArrayList<>();
+            results.add(executor.submit(() -> exchangeRateService.fetchExchangeRates("USD")));
+            assertThat(upstreamEntered.await(5, TimeUnit.SECONDS)).isTrue();
+
+            for (int i = 1; i < callers; i++) {
+                results.add(executor.submit(() -> exchangeRateService.fetchExchangeRates("USD")));
+            }
+            SingleFlight<?, ?> upstreamCalls =
+                    (SingleFlight<?, ?>) ReflectionTestUtils.getField(exchangeRateService, "upstreamCalls");
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (upstreamCalls.getSharedCalls() < callers - 1 && System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+            releaseUpstream.countDown();
+
+            for (Future<Optional<ExchangeRateData>> result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS)).isPresent();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(restTemplate, times(1)).getForObject(anyString(), eq(ExternalApiResponse.class));
+        verify(elasticsearchService, times(1)).saveExchangeRate(any());
+    }
+
+    @Test
+    void freshResultIsServedWithoutUpstreamCall() {
+        when(restTemplate.getForObject(anyString(), eq(ExternalApiResponse.class))).thenReturn(apiResponse("EUR"));
+
+        Optional<ExchangeRateData> first = exchangeRateService.fetchExchangeRates("EUR");
+        Optional<ExchangeRateData> second = exchangeRateService.fetchExchangeRates("EUR");
+
+        assertThat(second).isEqualTo(first);
+        verify(restTemplate, times(1)).getForObject(anyString(), eq(ExternalApiResponse.class));
+    }
+
+    @Test
+    void refreshBypassesFreshnessWindow() {
+        when(restTemplate.getForObject(anyString(), eq(ExternalApiResponse.class))).thenReturn(apiResponse("GBP"));
+
+        exchangeRateService.fetchExchangeRates("GBP");
+        exchangeRateService.refreshExchangeRates("GBP");
+
+        verify(restTemplate, times(2)).getForObject(anyString(), eq(ExternalApiResponse.class));
+    }
+
+    @Test
+    void crossRatesAreDerivedFromSinglePivotCall() {
+        exchangeRateService = newService(crossRateEngine(true));
+
+        ExternalApiResponse usd = apiResponse("USD");
+        usd.setRates(Map.of("USD", BigDecimal.ONE, "EUR", new BigDecimal("0.8"), "JPY", new BigDecimal("150")));
+        when(restTemplate.getForObject(anyString(), eq(ExternalApiResponse.class))).thenReturn(usd);
+
+        Optional<ExchangeRateData> eur = exchangeRateService.fetchExchangeRates("EUR");
+        Optional<ExchangeRateData> jpy = exchangeRateService.fetchExchangeRates("JPY");
+
+        assertThat(eur).isPresent();
+        assertThat(eur.get().getBaseCurrency()).isEqualTo("EUR");
+        assertThat(eur.get().getRateFor("JPY")).isEqualByComparingTo("187.5");
+        assertThat(eur.get().getRateFor("USD")).isEqualByComparingTo("1.25");
+        assertThat(jpy.get().getRateFor("EUR")).isEqualByComparingTo(new BigDecimal("0.00533333333333"));
+        verify(restTemplate, times(1)).getForObject(eq("http://upstream/latest/USD"), eq(ExternalApiResponse.class));
+    }
+
+    @Test
+    void unchangedSnapshotIsNeitherRepublishedNorReindexed() {
+        ReflectionTestUtils.setField(exchangeRateService, "freshnessWindow", Duration.ZERO);
+        when(restTemplate.getForObject(anyString(), eq(ExternalApiResponse.class)))
+                .thenReturn(apiResponse("CHF"), apiResponse("CHF"));
+
+        Optional<ExchangeRateData> first = exchangeRateService.refreshExchangeRates("CHF");
+        Optional<ExchangeRateData> second = exchangeRateService.refreshExchangeRates("CHF");
+
+        assertThat(second.get().getId()).isEqualTo(first.get().getId());
+        verify(restTemplate, times(2)).getForObject(anyString(), eq(ExternalApiResponse.class));
+        verify(elasticsearchService, times(1)).saveExchangeRate(any());
+    }
+
+    @Test
+    void asyncFetchDoesNotBlockTheCaller() throws Exception {
+        CountDownLatch releaseUpstream = new CountDownLatch(1);
+        when(restTemplate.getForObject(anyString(), eq(ExternalApiResponse.class))).thenAnswer(invocation -> {
+            releaseUpstream.await(5, TimeUnit.SECONDS);
+            return apiResponse("EUR");
+        });
+
+        CompletableFuture<Optional<ExchangeRateData>> result = exchangeRateService.fetchExchangeRatesAsync("EUR");
+        assertThat(result).isNotDone();
+
+        releaseUpstream.countDown();
+        assertThat(result.get(5, TimeUnit.SECONDS)).isPresent();
+    }
+
+    @Test
+    void openCircuitStopsCallingUpstreamAndServesStaleSnapshot() throws Exception {
+        ReflectionTestUtils.setField(exchangeRateService, "freshnessWindow", Duration.ZERO);
+        when(restTemplate.getForObject(anyString(), eq(ExternalApiResponse.class)))
+                .thenReturn(apiResponse("USD"))
+                .thenThrow(new IllegalStateException("upstream down"));
+
+        ExchangeRateData good = exchangeRateService.refreshExchangeRates("USD").orElseThrow();
+        exchangeRateService.refreshExchangeRates("USD");
+        exchangeRateService.refreshExchangeRates("USD");
+        assertThat(circuitBreaker.getState()).isEqualTo(UpstreamCircuitBreaker.State.OPEN);
+
+        Optional<ServedRates> served = exchangeRateService.serveExchangeRates("USD").get(1, TimeUnit.SECONDS);
+
+        assertThat(served).contains(new ServedRates(good, true));
+        verify(restTemplate, times(3)).getForObject(anyString(), eq(ExternalApiResponse.class));
+    }
+
+    @Test
+    void slowUpstreamServesStaleSnapshotThenRefreshesInBackground() throws Exception {
+        ReflectionTestUtils.setField(exchangeRateService, "freshnessWindow", Duration.ZERO);
+        CountDownLatch releaseUpstream = new CountDownLatch(1);
+        ExternalApiResponse updated = apiResponse("USD");
+        updated.setRates(Map.of("USD", BigDecimal.ONE, "JPY", new BigDecimal("152.01")));
+        when(restTemplate.getForObject(anyString(), eq(ExternalApiResponse.class)))
+                .thenReturn(apiResponse("USD"))
+                .thenAnswer(invocation -> {
+                    releaseUpstream.await(5, TimeUnit.SECONDS);
+                    return updated;
+                });
+        ExchangeRateData good = exchangeRateService.refreshExchangeRates("USD").orElseThrow();
+
+        Optional<ServedRates> served = exchangeRateService.serveExchangeRates("USD").get(1, TimeUnit.SECONDS);
+        assertThat(served).contains(new ServedRates(good, true));
+
+        releaseUpstream.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (exchangeRateService.getLatestExchangeRates("USD").orElseThrow().getId().equals(good.getId())
+                && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(exchangeRateService.getLatestExchangeRates("USD").orElseThrow().getRateFor("JPY"))
+                .isEqualByComparingTo("152.01");
+    }
+
+    @Test
+    void upstreamFetchesAreTimedPerCurrencyAndOutcome() {
+        when(restTemplate.getForObject(anyString(), eq(ExternalApiResponse.class)))
+                .thenReturn(apiResponse("GBP"))
+                .thenThrow(new IllegalStateException("upstream down"));
+
+        exchangeRateService.refreshExchangeRates("GBP");
+        exchangeRateService.refreshExchangeRates("GBP");
+
+        assertThat(meterRegistry.get("exchangerate.upstream.fetch")
+                .tags("currency", "GBP", "outcome", "changed").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("exchangerate.upstream.fetch")
+                .tags("currency", "GBP", "outcome", "error").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void unknownCurrenciesShareTheOtherTag() {
+        when(restTemplate.getForObject(anyString(), eq(ExternalApiResponse.class)))
+                .thenThrow(new IllegalStateException("unsupported code"));
+
+        exchangeRateService.refreshExchangeRates("ZZZ");
+        exchangeRateService.refreshExchangeRates("EUR");
+
+        assertThat(meterRegistry.get("exchangerate.upstream.fetch")
+                .tags("currency", "other", "outcome", "error").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("exchangerate.upstream.fetch")
+                .tags("currency", "EUR", "outcome", "error").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.find("exchangerate.upstream.fetch").tag("currency", "ZZZ").timer()).isNull();
+    }
+
+    @Test
+    void nonOwnerWaitsForTheOwnersSnapshotWithoutCallingUpstream() throws Exception {
+        when(fetchCoordinator.isOwnedElsewhere("USD")).thenReturn(true);
+        ExchangeRateData owners = ExchangeRateService.convertToExchangeRateData(apiResponse("USD"));
+
+        CompletableFuture<Optional<ExchangeRateData>> served = exchangeRateService.fetchExchangeRatesAsync("USD");
+        assertThat(served).isNotDone();
+        // Snapshot du propriétaire reçu par le topic des derniers taux
+        latestRateCache().put(owners);
+
+        assertThat(served.get(5, TimeUnit.SECONDS)).contains(owners);
+        verify(restTemplate, never()).getForObject(anyString(), eq(ExternalApiResponse.class));
+        verify(publisher, never()).publishSnapshot(anyString(), anyString(), any());
+    }
+
+    @Test
+    void nonOwnerNeverRefreshesFromUpstream() {
+        when(fetchCoordinator.isOwnedElsewhere("USD")).thenReturn(true);
+        ReflectionTestUtils.setField(exchangeRateService, "ownerWait", Duration.ofMillis(50));
+
+        assertThat(exchangeRateService.refreshExchangeRates("USD")).isEmpty();
+        assertThat(exchangeRateService.fetchExchangeRates("USD")).isEmpty();
+
+        verify(restTemplate, never()).getForObject(anyString(), eq(ExternalApiResponse.class));
+        verify(publisher, never()).publishSnapshot(anyString(), anyString(), any());
+    }
+
+    private LatestRateCache latestRateCache() {
+        return (LatestRateCache) ReflectionTestUtils.getField(exchangeRateService, "latestRateCache");
+    }
+
+    private ExchangeRateService newService(CrossRateEngine crossRateEngine) {
+        LatestRateCache latestRateCache = new LatestRateCache();
+        ExchangeRateService service = new ExchangeRateService(
+                publisher, restTemplate, elasticsearchService,
+                latestRateCache, crossRateEngine, new SnapshotChangeDetector(latestRateCache), meterRegistry,
+                circuitBreaker, fetchCoordinator);
+
+        ReflectionTestUtils.setField(service, "apiUrl", "http://upstream/latest");
+        ReflectionTestUtils.setField(service, "kafkaTopic", "exchange-rates");
+        ReflectionTestUtils.setField(service, "freshnessWindow", Duration.ofSeconds(5));
+        ReflectionTestUtils.setField(service, "staleAfter", Duration.ofMillis(200));
+        ReflectionTestUtils.setField(service, "configuredCurrencies", List.of("USD", "EUR"));
+        ReflectionTestUtils.setField(service, "ownerWait", Duration.ofSeconds(5));
+        return service;
+    }
+
+    private static UpstreamCircuitBreaker circuitBreaker(int failureThreshold) {
+        UpstreamCircuitBreaker breaker = new UpstreamCircuitBreaker();
+        ReflectionTestUtils.setField(breaker, "failureThreshold", failureThreshold);
+        ReflectionTestUtils.setField(breaker, "initialOpenDuration", Duration.ofMinutes(1));
+        ReflectionTestUtils.setField(breaker, "maxOpenDuration", Duration.ofMinutes(5));
+        ReflectionTestUtils.setField(breaker, "slowCallThreshold", Duration.ofSeconds(3));
+        return breaker;
+    }
+
+    private static CrossRateEngine crossRateEngine(boolean enabled) {
+        CrossRateEngine engine = new CrossRateEngine();
+        ReflectionTestUtils.setField(engine, "enabled", enabled);
+        ReflectionTestUtils.setField(engine, "pivotCurrency", "USD");
+        ReflectionTestUtils.setField(engine, "precision", 12);
+        ReflectionTestUtils.setField(engine, "roundingMode", RoundingMode.HALF_EVEN);
+        engine.init();
+        return engine;
+    }
+
+    private static ExternalApiResponse apiResponse(String base) {
+        ExternalApiResponse response = new ExternalApiResponse();
+        response.setBase(base);
+        response.setProvider("https://www.exchangerate-api.com");
+        response.setTimeLastUpdated(1748131201L);
+        response.setRates(Map.of(base, BigDecimal.ONE, "JPY", new BigDecimal("151.32")));
+        return response;
+    }
 }
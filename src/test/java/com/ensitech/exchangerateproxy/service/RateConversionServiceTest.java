@@ -0,0 +1,124 @@
+package com.ensitech.exchangerateproxy.service;
+
+import com.ensitech.exchangerateproxy.model.ConversionRequest;
+import com.ensitech.exchangerateproxy.model.ConversionResult;
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RateConversionServiceTest {
+
+    private ExchangeRateService exchangeRateService;
+    private ElasticsearchService elasticsearchService;
+    private RateConversionService conversionService;
+
+    @BeforeEach
+    void setUp() {
+        exchangeRateService = mock(ExchangeRateService.class);
+        elasticsearchService = mock(ElasticsearchService.class);
+
+        CrossRateEngine engine = new CrossRateEngine();
+        ReflectionTestUtils.setField(engine, "enabled", true);
+        ReflectionTestUtils.setField(engine, "pivotCurrency", "USD");
+        ReflectionTestUtils.setField(engine, "precision", 12);
+        ReflectionTestUtils.setField(engine, "roundingMode", RoundingMode.HALF_EVEN);
+        engine.init();
+
+        conversionService = new RateConversionService(exchangeRateService, elasticsearchService, engine,
+                mock(RateHistoryStore.class));
+        ReflectionTestUtils.setField(conversionService, "maxBatchSize", 100);
+        ReflectionTestUtils.setField(conversionService, "maxMemoizedSnapshots", 2);
+    }
+
+    @Test
+    void batchIsConvertedFromASingleSnapshot() {
+        when(exchangeRateService.getLatestExchangeRates("USD"))
+                .thenReturn(Optional.of(snapshot("2.00")), Optional.of(snapshot("3.00")));
+
+        List<ConversionResult> results = conversionService.convertAll(List.of(
+                request("10", "usd", "EUR", null),
+                request("10", "EUR", "USD", null),
+                request("10", "EUR", "XYZ", null)));
+
+        assertThat(results.get(0).getConverted()).isEqualByComparingTo("20");
+        assertThat(results.get(1).getConverted()).isEqualByComparingTo("5");
+        assertThat(results.get(1).getSnapshotId()).isEqualTo(results.get(0).getSnapshotId());
+        assertThat(results.get(2).getError()).isNotNull();
+        verify(exchangeRateService, times(1)).getLatestExchangeRates("USD");
+    }
+
+    @Test
+    void asOfConversionsUseHistoricalSnapshots() {
+        LocalDateTime asOf = LocalDateTime.of(2025, 1, 31, 23, 59);
+        when(elasticsearchService.findLatestAt("USD", asOf)).thenReturn(Optional.of(snapshot("1.50")));
+
+        ConversionResult result = conversionService.newConverter().convert(request("4", "USD", "EUR", asOf));
+
+        assertThat(result.getRate()).isEqualByComparingTo("1.50");
+        assertThat(result.getConverted()).isEqualByComparingTo("6");
+        assertThat(result.getAsOf()).isEqualTo(asOf);
+    }
+
+    @Test
+    void asOfSnapshotIsReusedWithinItsKnownValidityInterval() {
+        // Snapshot du 25/05 à 16h44, trouvé pour le 26/05 : valable pour toute date entre les deux
+        LocalDateTime later = LocalDateTime.of(2025, 5, 26, 12, 0);
+        LocalDateTime earlier = LocalDateTime.of(2025, 5, 26, 8, 0);
+        when(elasticsearchService.findLatestAt("USD", later)).thenReturn(Optional.of(snapshot("1.50")));
+
+        RateConversionService.Converter converter = conversionService.newConverter();
+        ConversionResult first = converter.convert(request("4", "USD", "EUR", later));
+        ConversionResult second = converter.convert(request("2", "USD", "EUR", earlier));
+
+        assertThat(second.getConverted()).isEqualByComparingTo("3");
+        assertThat(second.getSnapshotId()).isEqualTo(first.getSnapshotId());
+        verify(elasticsearchService, times(1)).findLatestAt(eq("USD"), any());
+    }
+
+    @Test
+    void memoizedSnapshotsAreBoundedPerBatch() {
+        when(elasticsearchService.findLatestAt(eq("USD"), any())).thenReturn(Optional.empty());
+        LocalDateTime asOf = LocalDateTime.of(2025, 1, 1, 0, 0);
+
+        RateConversionService.Converter converter = conversionService.newConverter();
+        for (int day = 0; day < 3; day++) {
+            converter.convert(request("1", "USD", "EUR", asOf.plusDays(day)));
+        }
+        // Troisième date : la mémoire (2 entrées) a été vidée, la première date est redemandée
+        converter.convert(request("1", "USD", "EUR", asOf));
+
+        verify(elasticsearchService, times(2)).findLatestAt("USD", asOf);
+    }
+
+    private static ConversionRequest request(String amount, String from, String to, LocalDateTime asOf) {
+        return new ConversionRequest(new BigDecimal(amount), from, to, asOf);
+    }
+
+    private static ExchangeRateData snapshot(String usdToEur) {
+        ExchangeRateData data = ExchangeRateData.builder()
+                .baseCurrency("USD")
+                .timestamp(LocalDateTime.of(2025, 5, 25, 16, 44))
+                .dateUnix(1748131201L)
+                .rates(Map.of("USD", BigDecimal.ONE, "EUR", new BigDecimal(usdToEur)))
+                .source("API")
+                .build();
+        data.generateId();
+        return data;
+    }
+}
@@ -0,0 +1,132 @@
+package com.ensitech.exchangerateproxy.service;
+
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import com.ensitech.exchangerateproxy.model.RateCandle;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RateHistoryServiceTest {
+
+    private static final LocalDateTime FROM = LocalDateTime.of(2025, 1, 1, 0, 0);
+    private static final LocalDateTime TO = LocalDateTime.of(2025, 1, 8, 0, 0);
+
+    private ElasticsearchService elasticsearchService;
+    private RateHistoryService historyService;
+
+    @BeforeEach
+    void setUp() {
+        elasticsearchService = mock(ElasticsearchService.class);
+
+        CrossRateEngine engine = new CrossRateEngine();
+        ReflectionTestUtils.setField(engine, "enabled", true);
+        ReflectionTestUtils.setField(engine, "pivotCurrency", "USD");
+        ReflectionTestUtils.setField(engine, "precision", 12);
+        ReflectionTestUtils.setField(engine, "roundingMode", RoundingMode.HALF_EVEN);
+        engine.init();
+
+        historyService = new RateHistoryService(elasticsearchService, engine);
+    }
+
+    @Test
+    void nonPivotHistoryPageIsDerivedFromThePivotSeries() {
+        when(elasticsearchService.findHistoryPage(eq("USD"), eq(FROM), eq(TO), isNull(), eq(2), eq(Set.of("GBP", "EUR"))))
+                .thenReturn(new HistoryPage(List.of(
+                        pivot(FROM.plusHours(2), "0.50", "0.40"),
+                        pivot(FROM.plusHours(1), "0.80", "0.60")), "next"));
+
+        HistoryPage page = historyService.findHistoryPage("EUR", FROM, TO, null, 2, "GBP");
+
+        assertThat(page.nextCursor()).isEqualTo("next");
+        assertThat(page.items()).hasSize(2);
+        ExchangeRateData first = page.items().get(0);
+        assertThat(first.getBaseCurrency()).isEqualTo("EUR");
+        assertThat(first.getTimestamp()).isEqualTo(FROM.plusHours(2));
+        assertThat(first.getRates()).containsOnlyKeys("GBP");
+        assertThat(first.getRates().get("GBP")).isEqualByComparingTo("0.8");
+        assertThat(page.items().get(1).getRates().get("GBP")).isEqualByComparingTo("0.75");
+    }
+
+    @Test
+    void pivotHistoryPageIsReturnedAsIndexed() {
+        HistoryPage indexed = new HistoryPage(List.of(pivot(FROM, "0.50", "0.40")), null);
+        when(elasticsearchService.findHistoryPage("USD", FROM, TO, null, null, null)).thenReturn(indexed);
+
+        assertThat(historyService.findHistoryPage("USD", FROM, TO, null, null, null)).isSameAs(indexed);
+    }
+
+    @Test
+    void nonPivotStreamDerivesEverySnapshotWithAllRates() {
+        when(elasticsearchService.streamHistory(eq("USD"), eq(FROM), eq(TO), isNull(), any()))
+                .thenAnswer(invocation -> {
+                    Consumer<ExchangeRateData> consumer = invocation.getArgument(4);
+                    consumer.accept(pivot(FROM.plusHours(1), "0.50", "0.40"));
+                    consumer.accept(pivot(FROM, "0.80", "0.60"));
+                    return 2L;
+                });
+
+        List<ExchangeRateData> streamed = new ArrayList<>();
+        long count = historyService.streamHistory("EUR", FROM, TO, null, streamed::add);
+
+        assertThat(count).isEqualTo(2);
+        assertThat(streamed).extracting(ExchangeRateData::getBaseCurrency).containsOnly("EUR");
+        assertThat(streamed.get(0).getRates().get("EUR")).isEqualByComparingTo(BigDecimal.ONE);
+        assertThat(streamed.get(0).getRates().get("USD")).isEqualByComparingTo("2");
+        assertThat(streamed.get(1).getRates().get("GBP")).isEqualByComparingTo("0.75");
+    }
+
+    @Test
+    void nonPivotCandlesAgainstThePivotAreAggregatedOnTheInversePivotRate() {
+        List<RateCandle> inverse = List.of(RateCandle.builder()
+                .baseCurrency("EUR")
+                .targetCurrency("USD")
+                .start(FROM)
+                .avg(new BigDecimal("1.625"))
+                .count(24)
+                .build());
+        when(elasticsearchService.findInverseCandles("USD", "EUR", FROM, TO, "1d")).thenReturn(inverse);
+
+        assertThat(historyService.findCandles("EUR", "USD", FROM, TO, "1d")).isEqualTo(inverse);
+        verify(elasticsearchService, never()).findCandles(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void nonPivotCandlesBetweenTwoDerivedCurrenciesAreRejected() {
+        assertThatThrownBy(() -> historyService.findCandles("EUR", "GBP", FROM, TO, "1h"))
+                .isInstanceOf(IllegalArgumentException.class);
+        verify(elasticsearchService, never())
+                .findCandles(any(), any(), any(), any(), any());
+        verify(elasticsearchService, never())
+                .findInverseCandles(any(), any(), any(), any(), any());
+    }
+
+    private static ExchangeRateData pivot(LocalDateTime timestamp, String eur, String gbp) {
+        ExchangeRateData data = ExchangeRateData.builder()
+                .baseCurrency("USD")
+                .timestamp(timestamp)
+                .rates(Map.of("USD", BigDecimal.ONE, "EUR", new BigDecimal(eur), "GBP", new BigDecimal(gbp)))
+                .source("API")
+                .build();
+        data.generateId();
+        return data;
+    }
+}
@@ -0,0 +1,136 @@
+package com.ensitech.exchangerateproxy.service;
+
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RateHistoryStoreTest {
+
+    private static final LocalDateTime START = LocalDateTime.now().minusHours(1).withNano(0);
+
+    private RateHistoryStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new RateHistoryStore(mock(ElasticsearchService.class), new CrossRateEngine());
+        ReflectionTestUtils.setField(store, "enabled", true);
+        ReflectionTestUtils.setField(store, "retention", Duration.ofDays(1));
+        ReflectionTestUtils.setField(store, "maxSize", DataSize.ofMegabytes(1));
+    }
+
+    @Test
+    void floorReturnsTheSnapshotInEffect() {
+        for (int minute = 0; minute < 50; minute++) {
+            store.record(snapshot(minute));
+        }
+
+        assertThat(store.floor("USD", START.plusMinutes(10).plusSeconds(30)))
+                .hasValueSatisfying(data -> assertThat(data.getTimestamp()).isEqualTo(START.plusMinutes(10)));
+        assertThat(store.floor("USD", START.plusMinutes(49))).map(ExchangeRateData::getTimestamp)
+                .contains(START.plusMinutes(49));
+        assertThat(store.floor("USD", START.minusSeconds(1))).isEmpty();
+        assertThat(store.floor("EUR", START.plusMinutes(10))).isEmpty();
+    }
+
+    @Test
+    void backfilledSnapshotsAreMergedInOrder() {
+        store.record(snapshot(30));
+        store.record(snapshot(31));
+
+        store.load("USD", List.of(snapshot(20), snapshot(10), snapshot(30)));
+        store.record(snapshot(15));
+
+        assertThat(store.floor("USD", START.plusMinutes(12))).map(ExchangeRateData::getTimestamp)
+                .contains(START.plusMinutes(10));
+        assertThat(store.floor("USD", START.plusMinutes(17))).map(ExchangeRateData::getTimestamp)
+                .contains(START.plusMinutes(15));
+        assertThat(store.floor("USD", START.plusMinutes(35))).map(ExchangeRateData::getTimestamp)
+                .contains(START.plusMinutes(31));
+    }
+
+    @Test
+    void oldestSnapshotsAreEvictedBeyondTheMemoryBudget() {
+        ReflectionTestUtils.setField(store, "maxSize", DataSize.ofBytes(2_000));
+        for (int minute = 0; minute < 50; minute++) {
+            store.record(snapshot(minute));
+        }
+
+        assertThat(store.floor("USD", START.plusMinutes(49))).isPresent();
+        assertThat(store.floor("USD", START)).isEmpty();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void evictedSnapshotsAreReleasedOnceTheArraysAreCompacted() {
+        // Rétention d'une minute : chaque ajout évince le précédent, sans dépasser la capacité des tableaux
+        ReflectionTestUtils.setField(store, "retention", Duration.ofMinutes(1));
+        ExchangeRateData first = snapshot(0);
+        store.record(first);
+        for (int minute = 1; minute < 10; minute++) {
+            store.record(snapshot(minute));
+        }
+        assertThat(store.floor("USD", START.plusMinutes(9))).map(ExchangeRateData::getTimestamp)
+                .contains(START.plusMinutes(9));
+
+        Map<String, ?> series = (Map<String, ?>) ReflectionTestUtils.getField(store, "seriesByBaseCurrency");
+        ExchangeRateData[] snapshots = (ExchangeRateData[]) ReflectionTestUtils.getField(series.get("USD"), "snapshots");
+        assertThat(snapshots).doesNotContain(first);
+    }
+
+    @Test
+    void backfillLoadsTheStreamInChunks() {
+        ElasticsearchService elasticsearchService = mock(ElasticsearchService.class);
+        store = new RateHistoryStore(elasticsearchService, new CrossRateEngine());
+        ReflectionTestUtils.setField(store, "enabled", true);
+        ReflectionTestUtils.setField(store, "retention", Duration.ofDays(1));
+        ReflectionTestUtils.setField(store, "maxSize", DataSize.ofMegabytes(1));
+        when(elasticsearchService.streamHistory(eq("USD"), any(), any(), isNull(), any())).thenAnswer(invocation -> {
+            Consumer<ExchangeRateData> consumer = invocation.getArgument(4);
+            // Du plus récent au plus ancien, comme Elasticsearch
+            for (int second = 2_499; second >= 0; second--) {
+                consumer.accept(snapshotAt(START.minusMinutes(50).plusSeconds(second)));
+            }
+            return 2_500L;
+        });
+
+        store.backfill("USD");
+
+        assertThat(store.floor("USD", START.minusMinutes(50))).map(ExchangeRateData::getTimestamp)
+                .contains(START.minusMinutes(50));
+        assertThat(store.floor("USD", START)).map(ExchangeRateData::getTimestamp)
+                .contains(START.minusMinutes(50).plusSeconds(2_499));
+        assertThat(store.floor("USD", START.minusMinutes(30).plusNanos(500_000_000))).map(ExchangeRateData::getTimestamp)
+                .contains(START.minusMinutes(30));
+    }
+
+    private static ExchangeRateData snapshot(int minute) {
+        return snapshotAt(START.plusMinutes(minute));
+    }
+
+    private static ExchangeRateData snapshotAt(LocalDateTime timestamp) {
+        ExchangeRateData data = ExchangeRateData.builder()
+                .baseCurrency("USD")
+                .timestamp(timestamp)
+                .rates(Map.of("USD", BigDecimal.ONE, "EUR", BigDecimal.valueOf(90 + timestamp.getMinute(), 2)))
+                .source("API")
+                .build();
+        data.generateId();
+        return data;
+    }
+}
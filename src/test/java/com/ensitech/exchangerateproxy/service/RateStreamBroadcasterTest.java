@@ -0,0 +1,201 @@
+package com.ensitech.exchangerateproxy.service;
+
+import com.ensitech.exchangerateproxy.model.ExchangeRateData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class RateStreamBroadcasterTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2025, 5, 25, 16, 0);
+
+    private RateStreamBroadcaster broadcaster;
+    private SimpleMeterRegistry meterRegistry;
+
+    // Les threads d'envoi restent bloqués : les événements restent dans les files des abonnés
+    private final CountDownLatch paused = new CountDownLatch(1);
+    private final ExecutorService pausedSenders = Executors.newSingleThreadExecutor();
+
+    @BeforeEach
+    void setUp() {
+        CrossRateEngine engine = new CrossRateEngine();
+        ReflectionTestUtils.setField(engine, "enabled", true);
+        ReflectionTestUtils.setField(engine, "pivotCurrency", "USD");
+        ReflectionTestUtils.setField(engine, "precision", 12);
+        ReflectionTestUtils.setField(engine, "roundingMode", RoundingMode.HALF_EVEN);
+        engine.init();
+
+        broadcaster = new RateStreamBroadcaster(engine, mock(LatestRateCache.class),
+                Jackson2ObjectMapperBuilder.json().build());
+        ReflectionTestUtils.setField(broadcaster, "maxSubscribers", 2);
+        ReflectionTestUtils.setField(broadcaster, "queueCapacity", 2);
+        ReflectionTestUtils.setField(broadcaster, "heartbeatInterval", Duration.ofHours(1));
+        ReflectionTestUtils.setField(broadcaster, "timeout", Duration.ofMinutes(1));
+        pausedSenders.execute(() -> {
+            try {
+                paused.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        ReflectionTestUtils.setField(broadcaster, "senders", pausedSenders);
+        meterRegistry = new SimpleMeterRegistry();
+        broadcaster.bindTo(meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        paused.countDown();
+        broadcaster.shutdown();
+    }
+
+    @Test
+    void subscribersOnlyReceiveTheirBasesAndTargets() {
+        SseEmitter usdToGbp = broadcaster.subscribe(Set.of("USD"), Set.of("GBP"), RateStreamBroadcaster.Mode.SNAPSHOT)
+                .orElseThrow();
+        SseEmitter jpyOnly = broadcaster.subscribe(Set.of("JPY"), Set.of(), RateStreamBroadcaster.Mode.SNAPSHOT)
+                .orElseThrow();
+
+        broadcaster.publish(usd(0, "0.92", "0.79"));
+
+        List<String> events = pendingEvents(usdToGbp);
+        assertThat(events).hasSize(1);
+        assertThat(events.get(0)).contains("event:snapshot").contains("\"GBP\"").doesNotContain("\"EUR\"");
+        assertThat(pendingEvents(jpyOnly)).isEmpty();
+    }
+
+    @Test
+    void deltaSubscribersReceiveOnlyChangedRatesAfterTheFirstSnapshot() {
+        SseEmitter delta = broadcaster.subscribe(Set.of("USD"), Set.of(), RateStreamBroadcaster.Mode.DELTA)
+                .orElseThrow();
+        SseEmitter snapshot = broadcaster.subscribe(Set.of("USD"), Set.of(), RateStreamBroadcaster.Mode.SNAPSHOT)
+                .orElseThrow();
+
+        broadcaster.publish(usd(0, "0.92", "0.79"));
+        broadcaster.publish(usd(1, "0.93", "0.79"));
+
+        List<String> deltaEvents = pendingEvents(delta);
+        assertThat(deltaEvents.get(0)).contains("event:snapshot");
+        assertThat(deltaEvents.get(1)).contains("event:delta").contains("\"EUR\"").doesNotContain("\"GBP\"");
+        assertThat(pendingEvents(snapshot)).allSatisfy(event -> assertThat(event).contains("event:snapshot"));
+    }
+
+    @Test
+    void concurrentPublishesOfTheSameSnapshotAreSentOnce() throws Exception {
+        SseEmitter emitter = broadcaster.subscribe(Set.of("USD"), Set.of(), RateStreamBroadcaster.Mode.SNAPSHOT)
+                .orElseThrow();
+        ExchangeRateData snapshot = usd(0, "0.92", "0.79");
+
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService publishers = Executors.newFixedThreadPool(8);
+        List<Future<?>> publishes = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            publishes.add(publishers.submit(() -> {
+                start.await();
+                broadcaster.publish(snapshot);
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> publish : publishes) {
+            publish.get(5, TimeUnit.SECONDS);
+        }
+        publishers.shutdown();
+
+        assertThat(pendingEvents(emitter)).hasSize(1);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void olderSnapshotNeverReplacesTheDeltaReference() {
+        SseEmitter delta = broadcaster.subscribe(Set.of("USD"), Set.of(), RateStreamBroadcaster.Mode.DELTA)
+                .orElseThrow();
+
+        broadcaster.publish(usd(1, "0.93", "0.79"));
+        broadcaster.publish(usd(0, "0.92", "0.79"));
+
+        assertThat(pendingEvents(delta)).hasSize(1);
+        Map<String, ExchangeRateData> lastPublished =
+                (Map<String, ExchangeRateData>) ReflectionTestUtils.getField(broadcaster, "lastPublished");
+        assertThat(lastPublished.get("USD").getTimestamp()).isEqualTo(START.plusMinutes(1));
+    }
+
+    @Test
+    void subscriberWithAFullQueueIsEvicted() {
+        SseEmitter slow = broadcaster.subscribe(Set.of("USD"), Set.of(), RateStreamBroadcaster.Mode.SNAPSHOT)
+                .orElseThrow();
+
+        for (int minute = 0; minute < 3; minute++) {
+            broadcaster.publish(usd(minute, "0.9" + minute, "0.79"));
+        }
+
+        assertThat(broadcaster.getSubscriberCount()).isZero();
+        assertThat(meterRegistry.get("exchangerate.stream.evicted").functionCounter().count()).isEqualTo(1);
+        assertThat(findSubscriber(slow)).isEmpty();
+    }
+
+    @Test
+    void subscriptionsBeyondTheLimitAreRefused() {
+        assertThat(broadcaster.subscribe(Set.of(), Set.of(), RateStreamBroadcaster.Mode.SNAPSHOT)).isPresent();
+        assertThat(broadcaster.subscribe(Set.of(), Set.of(), RateStreamBroadcaster.Mode.SNAPSHOT)).isPresent();
+
+        assertThat(broadcaster.subscribe(Set.of(), Set.of(), RateStreamBroadcaster.Mode.SNAPSHOT)).isEmpty();
+        assertThat(broadcaster.getSubscriberCount()).isEqualTo(2);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Optional<Object> findSubscriber(SseEmitter emitter) {
+        Set<Object> subscribers = (Set<Object>) ReflectionTestUtils.getField(broadcaster, "subscribers");
+        return subscribers.stream()
+                .filter(subscriber -> ReflectionTestUtils.getField(subscriber, "emitter") == emitter)
+                .findFirst();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> pendingEvents(SseEmitter emitter) {
+        Object subscriber = findSubscriber(emitter).orElseThrow();
+        Collection<Set<ResponseBodyEmitter.DataWithMediaType>> queue =
+                (Collection<Set<ResponseBodyEmitter.DataWithMediaType>>) ReflectionTestUtils.getField(subscriber, "queue");
+        List<String> events = new ArrayList<>();
+        for (Set<ResponseBodyEmitter.DataWithMediaType> event : queue) {
+            events.add(event.stream().map(part -> part.getData().toString()).collect(Collectors.joining()));
+        }
+        return events;
+    }
+
+    private static ExchangeRateData usd(int minute, String eur, String gbp) {
+        ExchangeRateData data = ExchangeRateData.builder()
+                .baseCurrency("USD")
+                .timestamp(START.plusMinutes(minute))
+                .rates(Map.of("USD", BigDecimal.ONE, "EUR", new BigDecimal(eur), "GBP", new BigDecimal(gbp)))
+                .source("API")
+                .build();
+        data.generateId();
+        return data;
+    }
+}